@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# Runs the zanata sync benchmarks. Any arguments are passed to JMH, eg "./run.sh ZanataIdSort -f 1" to only run the
+# ZanataIdSort benchmarks in a single fork. Build the benchmarks first with "mvn package".
+
+# Get the directory hosting the script. This is important if the script is called from
+# another working directory
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+cd ${DIR}
+
+java -jar target/benchmarks.jar "$@"
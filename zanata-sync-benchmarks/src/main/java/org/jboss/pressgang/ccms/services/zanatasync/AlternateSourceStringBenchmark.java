@@ -0,0 +1,78 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks generating the alternate (escaped) source strings, which happens for every source string that has no exact match
+ * in Zanata.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AlternateSourceStringBenchmark {
+    private TopicSync topicSync;
+    private String plainString;
+    private String markupString;
+    private List<String> topicStrings;
+
+    @Setup
+    public void setUp() {
+        topicSync = new TopicSync(BenchmarkFixtures.providerFactory(), null, BenchmarkFixtures.serverSettings(), new SyncContext());
+        plainString = BenchmarkFixtures.sourceStrings(2).get(1);
+        markupString = BenchmarkFixtures.sourceStrings(1).get(0);
+        topicStrings = BenchmarkFixtures.sourceStrings(200);
+    }
+
+    @Benchmark
+    public String plainString() {
+        return topicSync.getAlternateSourceString(plainString);
+    }
+
+    @Benchmark
+    public String markupString() {
+        return topicSync.getAlternateSourceString(markupString);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void wholeTopic(final Blackhole blackhole) {
+        for (final String topicString : topicStrings) {
+            blackhole.consume(topicSync.getAlternateSourceString(topicString));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.pressgang.ccms.provider.StringConstantProvider;
+import org.jboss.pressgang.ccms.utils.constants.CommonConstants;
+import org.jboss.pressgang.ccms.wrapper.ServerSettingsWrapper;
+import org.jboss.pressgang.ccms.wrapper.StringConstantWrapper;
+import org.jboss.pressgang.ccms.wrapper.TopicWrapper;
+import org.jboss.pressgang.ccms.wrapper.TranslatedCSNodeStringWrapper;
+import org.jboss.pressgang.ccms.wrapper.TranslatedCSNodeWrapper;
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
+import org.zanata.common.ContentState;
+import org.zanata.common.LocaleId;
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TextFlow;
+import org.zanata.rest.dto.resource.TextFlowTarget;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * Generates the synthetic topics, content specs and Zanata resources used by the benchmarks. All the data is generated from a
+ * fixed seed, so every run benchmarks the same input.
+ */
+public final class BenchmarkFixtures {
+    public static final LocaleId LOCALE = LocaleId.fromJavaName("de-DE");
+    public static final Integer CONTENT_SPEC_TAG_ID = 268;
+    public static final Integer XML_FORMATTING_STRING_CONSTANT_ID = 48;
+
+    private static final long SEED = 1234567L;
+    private static final String[] WORDS = {"the", "server", "configure", "a", "new", "user", "with", "file", "to", "run", "and",
+            "select", "from", "menu", "application", "directory", "option", "of", "is", "in"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Generates the translatable source strings for a topic. Every fifth string contains inline markup, and every seventh contains
+     * an escaped character, so the alternate source string handling is exercised.
+     *
+     * @param count The number of strings to generate.
+     * @return The source strings, in document order.
+     */
+    public static List<String> sourceStrings(final int count) {
+        final Random random = new Random(SEED);
+        final List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder sentence = new StringBuilder("Step " + i + ":");
+            final int numWords = 8 + random.nextInt(24);
+            for (int j = 0; j < numWords; j++) {
+                sentence.append(' ');
+                if (j == numWords / 2 && i % 5 == 0) {
+                    sentence.append("<command>").append(WORDS[random.nextInt(WORDS.length)]).append("</command>");
+                } else if (j == numWords / 2 && i % 7 == 0) {
+                    sentence.append("&lt;").append(WORDS[random.nextInt(WORDS.length)]).append("&gt;");
+                } else {
+                    sentence.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+            }
+            strings.add(sentence.append('.').toString());
+        }
+        return strings;
+    }
+
+    /**
+     * Builds a DocBook 4.5 section containing a paragraph for each source string.
+     *
+     * @param sourceStrings The source strings to use as the paragraphs.
+     * @return The topic XML.
+     */
+    public static String topicXml(final List<String> sourceStrings) {
+        final StringBuilder xml = new StringBuilder("<section>\n<title>Synthetic Benchmark Topic</title>\n");
+        for (final String sourceString : sourceStrings) {
+            xml.append("<para>").append(sourceString).append("</para>\n");
+        }
+        return xml.append("</section>").toString();
+    }
+
+    /**
+     * Builds the original Zanata resource for a list of source strings.
+     *
+     * @param name          The name of the resource, ie the Zanata ID.
+     * @param sourceStrings The source strings.
+     * @return The resource, with one TextFlow per source string.
+     */
+    public static Resource resource(final String name, final List<String> sourceStrings) {
+        final Resource resource = new Resource(name);
+        for (int i = 0; i < sourceStrings.size(); i++) {
+            resource.getTextFlows().add(new TextFlow(getTextFlowId(i), LocaleId.EN_US, sourceStrings.get(i)));
+        }
+        return resource;
+    }
+
+    /**
+     * Builds the translations of a list of source strings. The targets are shuffled, since Zanata doesn't guarantee they are in the
+     * same order as the TextFlows, and some strings are left untranslated or fuzzy.
+     *
+     * @param sourceStrings The source strings to translate.
+     * @param revision      A marker that is added to each translation, so that different revisions of the translations differ.
+     * @return The translations.
+     */
+    public static TranslationsResource translations(final List<String> sourceStrings, final int revision) {
+        final List<TextFlowTarget> targets = new ArrayList<TextFlowTarget>(sourceStrings.size());
+        for (int i = 0; i < sourceStrings.size(); i++) {
+            // Leave every tenth string untranslated
+            if (i % 10 == 9) continue;
+
+            final TextFlowTarget target = new TextFlowTarget(getTextFlowId(i));
+            target.setContent("[" + LOCALE + " r" + revision + "] " + sourceStrings.get(i));
+            target.setState(i % 10 == 3 ? ContentState.NeedReview : ContentState.Approved);
+            targets.add(target);
+        }
+        Collections.shuffle(targets, new Random(SEED));
+
+        final TranslationsResource translationsResource = new TranslationsResource();
+        translationsResource.getTextFlowTargets().addAll(targets);
+        return translationsResource;
+    }
+
+    /**
+     * Generates a mix of topic, content spec topic and content spec Zanata IDs, including some invalid ids.
+     *
+     * @param count The number of ids to generate.
+     * @return The Zanata IDs, in a random order.
+     */
+    public static List<String> zanataIds(final int count) {
+        final Random random = new Random(SEED);
+        final List<String> zanataIds = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final int type = random.nextInt(20);
+            final int id = 1 + random.nextInt(50000);
+            final int revision = 1 + random.nextInt(900000);
+            if (type == 0) {
+                zanataIds.add("CS" + id + "-" + revision);
+            } else if (type == 1) {
+                zanataIds.add("invalid" + id);
+            } else if (type < 8) {
+                zanataIds.add(id + "-" + revision + "-" + (1 + random.nextInt(100000)));
+            } else {
+                zanataIds.add(id + "-" + revision);
+            }
+        }
+        return zanataIds;
+    }
+
+    /**
+     * Creates a provider factory with the string constants needed to create the topic sync classes.
+     */
+    public static StubProviderFactory providerFactory() {
+        final String xmlFormatting = CommonConstants.VERBATIM_XML_ELEMENTS_PROPERTY_KEY + "=screen, programlisting, literallayout\n" +
+                CommonConstants.INLINE_XML_ELEMENTS_PROPERTY_KEY + "=command, emphasis, filename, literal, replaceable\n" +
+                CommonConstants.CONTENTS_INLINE_XML_ELEMENTS_PROPERTY_KEY + "=title, para\n";
+        final StringConstantWrapper stringConstant = Stubs.with(Stubs.bean(StringConstantWrapper.class), "value", xmlFormatting);
+
+        final StubProviderFactory providerFactory = new StubProviderFactory();
+        Stubs.with(providerFactory.getProvider(StringConstantProvider.class), "getStringConstant", stringConstant);
+        return providerFactory;
+    }
+
+    /**
+     * Creates the server settings needed to create the topic sync classes.
+     */
+    public static ServerSettingsWrapper serverSettings() {
+        final ServerSettingsWrapper serverSettings = Stubs.bean(ServerSettingsWrapper.class);
+        Stubs.with(serverSettings.getEntities(), "contentSpecTagId", CONTENT_SPEC_TAG_ID);
+        Stubs.with(serverSettings.getEntities(), "xmlFormattingStringConstantId", XML_FORMATTING_STRING_CONSTANT_ID);
+        return serverSettings;
+    }
+
+    /**
+     * Creates a new translated topic for a synthetic topic.
+     *
+     * @param topicId       The id of the topic.
+     * @param topicRevision The revision of the topic.
+     * @param xml           The source XML of the topic.
+     */
+    public static TranslatedTopicWrapper translatedTopic(final Integer topicId, final Integer topicRevision, final String xml) {
+        final TopicWrapper topic = Stubs.bean(TopicWrapper.class);
+        Stubs.with(topic, "id", topicId);
+        Stubs.with(topic, "revision", topicRevision);
+        Stubs.with(topic, "xml", xml);
+        Stubs.with(topic, "xmlFormat", CommonConstants.DOCBOOK_45);
+
+        final TranslatedTopicWrapper translatedTopic = Stubs.bean(TranslatedTopicWrapper.class);
+        Stubs.with(translatedTopic, "topicId", topicId);
+        Stubs.with(translatedTopic, "topicRevision", topicRevision);
+        Stubs.with(translatedTopic, "topic", topic);
+        return translatedTopic;
+    }
+
+    /**
+     * Creates the translated nodes of a content spec, each with an existing translation for the benchmark locale.
+     *
+     * @param sourceStrings The original strings of the nodes.
+     */
+    public static UpdateableCollectionWrapper<TranslatedCSNodeWrapper> translatedCSNodes(final List<String> sourceStrings) {
+        final List<TranslatedCSNodeWrapper> nodes = new ArrayList<TranslatedCSNodeWrapper>(sourceStrings.size());
+        for (int i = 0; i < sourceStrings.size(); i++) {
+            final TranslatedCSNodeStringWrapper translatedString = Stubs.bean(TranslatedCSNodeStringWrapper.class);
+            Stubs.with(translatedString, "id", i + 1);
+            Stubs.with(translatedString, "translatedString", "");
+            Stubs.with(translatedString.getLocale(), "translationValue", LOCALE.toString());
+
+            final TranslatedCSNodeWrapper node = Stubs.bean(TranslatedCSNodeWrapper.class);
+            Stubs.with(node, "id", i + 1);
+            Stubs.with(node, "originalString", sourceStrings.get(i));
+            node.getTranslatedStrings().addItem(translatedString);
+            nodes.add(node);
+        }
+        return Stubs.collection(nodes);
+    }
+
+    private static String getTextFlowId(final int index) {
+        return "tf-" + index;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.pressgang.ccms.wrapper.TranslatedCSNodeWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * Benchmarks applying the Zanata translations to the nodes of a translated content spec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContentSpecSyncBenchmark {
+    /**
+     * The number of translatable nodes in the content spec.
+     */
+    @Param({"100", "2000"})
+    public int nodes;
+
+    private ContentSpecSync contentSpecSync;
+    private UpdateableCollectionWrapper<TranslatedCSNodeWrapper> translatedNodes;
+    private Resource resource;
+    private TranslationsResource[] translations;
+    private int revision = 0;
+
+    @Setup
+    public void setUp() {
+        contentSpecSync = new ContentSpecSync(BenchmarkFixtures.providerFactory(), null, new SyncContext());
+
+        final List<String> sourceStrings = BenchmarkFixtures.sourceStrings(nodes);
+        translatedNodes = BenchmarkFixtures.translatedCSNodes(sourceStrings);
+        resource = BenchmarkFixtures.resource("CS1234-56789", sourceStrings);
+
+        // Alternate between two revisions of the translations, so every invocation has changes to apply
+        translations = new TranslationsResource[]{BenchmarkFixtures.translations(sourceStrings, 1), BenchmarkFixtures.translations(
+                sourceStrings, 2)};
+    }
+
+    @Benchmark
+    public boolean syncTranslatedContentSpecNodesForLocale() {
+        revision = (revision + 1) % translations.length;
+        return contentSpecSync.syncTranslatedContentSpecNodesForLocale(translatedNodes, resource, BenchmarkFixtures.LOCALE,
+                translations[revision]);
+    }
+}
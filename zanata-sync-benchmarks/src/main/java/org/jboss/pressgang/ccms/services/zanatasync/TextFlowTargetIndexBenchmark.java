@@ -0,0 +1,90 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TextFlow;
+import org.zanata.rest.dto.resource.TextFlowTarget;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * Benchmarks joining the TextFlows of a resource to their translations, using the index compared to scanning every target for
+ * every TextFlow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TextFlowTargetIndexBenchmark {
+    /**
+     * The number of TextFlows in the resource.
+     */
+    @Param({"20", "200", "2000"})
+    public int textFlows;
+
+    private Resource resource;
+    private TranslationsResource translations;
+
+    @Setup
+    public void setUp() {
+        final List<String> sourceStrings = BenchmarkFixtures.sourceStrings(textFlows);
+        resource = BenchmarkFixtures.resource("1234-56789", sourceStrings);
+        translations = BenchmarkFixtures.translations(sourceStrings, 1);
+    }
+
+    @Benchmark
+    public void indexedJoin(final Blackhole blackhole) {
+        final TextFlowTargetIndex index = new TextFlowTargetIndex(translations);
+        for (final TextFlow textFlow : resource.getTextFlows()) {
+            blackhole.consume(index.getTarget(textFlow.getId()));
+        }
+    }
+
+    @Benchmark
+    public void scanningJoin(final Blackhole blackhole) {
+        for (final TextFlow textFlow : resource.getTextFlows()) {
+            TextFlowTarget match = null;
+            for (final TextFlowTarget target : translations.getTextFlowTargets()) {
+                if (textFlow.getId().equals(target.getResId()) && !target.getContent().isEmpty()) {
+                    match = target;
+                    break;
+                }
+            }
+            blackhole.consume(match);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
+import org.jboss.pressgang.ccms.zanata.ZanataTranslation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TextFlow;
+import org.zanata.rest.dto.resource.TextFlowTarget;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * Benchmarks applying the Zanata translations to a new translated topic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TopicSyncBenchmark {
+    private static final Integer TOPIC_ID = 1234;
+    private static final Integer TOPIC_REVISION = 56789;
+
+    /**
+     * The number of translatable strings in the topic.
+     */
+    @Param({"20", "200", "1000"})
+    public int strings;
+
+    private TopicSync topicSync;
+    private String xml;
+    private Resource resource;
+    private TranslationsResource translations;
+    private Map<String, ZanataTranslation> translationDetails;
+
+    @Setup
+    public void setUp() {
+        // Disable the source document cache, so every invocation parses the source XML
+        final SyncContext syncContext = new SyncContext();
+        syncContext.setSourceDocumentCache(new SourceDocumentCache(0));
+        topicSync = new TopicSync(BenchmarkFixtures.providerFactory(), null, BenchmarkFixtures.serverSettings(), syncContext);
+
+        final List<String> sourceStrings = BenchmarkFixtures.sourceStrings(strings);
+        xml = BenchmarkFixtures.topicXml(sourceStrings);
+        resource = BenchmarkFixtures.resource(TOPIC_ID + "-" + TOPIC_REVISION, sourceStrings);
+        translations = BenchmarkFixtures.translations(sourceStrings, 1);
+
+        // Build the translation details the same way syncTranslatedTopic does
+        translationDetails = new HashMap<String, ZanataTranslation>();
+        final TextFlowTargetIndex index = new TextFlowTargetIndex(translations);
+        for (final TextFlow textFlow : resource.getTextFlows()) {
+            final TextFlowTarget target = index.getTarget(textFlow.getId());
+            if (target != null) {
+                translationDetails.put(textFlow.getContent(), new ZanataTranslation(target));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean syncTranslatedTopic() throws SAXException {
+        final TranslatedTopicWrapper translatedTopic = BenchmarkFixtures.translatedTopic(TOPIC_ID, TOPIC_REVISION, xml);
+        return topicSync.syncTranslatedTopic(translatedTopic, resource, translations);
+    }
+
+    @Benchmark
+    public boolean processTranslatedTopicXML() throws SAXException {
+        final TranslatedTopicWrapper translatedTopic = BenchmarkFixtures.translatedTopic(TOPIC_ID, TOPIC_REVISION, xml);
+        // The translation details are modified when alternate source strings are matched, so each invocation needs a copy
+        return topicSync.processTranslatedTopicXML(translatedTopic, new HashMap<String, ZanataTranslation>(translationDetails));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks sorting Zanata IDs, as done when building the sets of content specs and resources to sync. The original comparator,
+ * which split and parsed both ids on every comparison, is kept as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ZanataIdSortBenchmark {
+    /**
+     * The number of Zanata IDs to sort.
+     */
+    @Param({"1000", "20000"})
+    public int ids;
+
+    private final ZanataIdSort comparator = new ZanataIdSort();
+    private final SplittingZanataIdSort splittingComparator = new SplittingZanataIdSort();
+    private List<String> zanataIds;
+    private String id1;
+    private String id2;
+
+    @Setup
+    public void setUp() {
+        zanataIds = BenchmarkFixtures.zanataIds(ids);
+        id1 = "12345-67890-1112";
+        id2 = "12346-67890";
+    }
+
+    @Benchmark
+    public int compareSplitting() {
+        return splittingComparator.compare(id1, id2);
+    }
+
+    @Benchmark
+    public int compare() {
+        return comparator.compare(id1, id2);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> sort() {
+        final List<String> sorted = new ArrayList<String>(zanataIds);
+        Collections.sort(sorted, comparator);
+        return sorted;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> sortSplitting() {
+        final List<String> sorted = new ArrayList<String>(zanataIds);
+        Collections.sort(sorted, splittingComparator);
+        return sorted;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> sortWithKeys() {
+        return ZanataIdSort.sort(zanataIds);
+    }
+
+    /**
+     * The original ZanataIdSort implementation.
+     */
+    private static class SplittingZanataIdSort implements Comparator<String> {
+        @Override
+        public int compare(final String o1, final String o2) {
+            if (o1 == null && o2 == null) return 0;
+            if (o1 == null) return -1;
+            if (o2 == null) return 1;
+
+            final String[] vals1 = o1.split("-");
+            final String[] vals2 = o2.split("-");
+
+            Integer id1 = null;
+            try {
+                id1 = Integer.parseInt(vals1[0]);
+            } catch (NumberFormatException e) {
+
+            }
+            Integer id2 = null;
+            try {
+                id2 = Integer.parseInt(vals2[0]);
+            } catch (NumberFormatException e) {
+
+            }
+
+            if (id1 == null && id2 == null) return 0;
+            if (id1 == null) return 1;
+            if (id2 == null) return -1;
+
+            return id2.compareTo(id1);
+        }
+    }
+}
@@ -19,22 +19,33 @@
 
 package org.jboss.pressgang.ccms.services.zanatasync;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.pressgang.ccms.provider.DataProviderFactory;
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
 import org.jboss.pressgang.ccms.zanata.ZanataInterface;
 import org.zanata.common.LocaleId;
 
 public abstract class BaseZanataSync {
     private final DataProviderFactory providerFactory;
     private final ZanataInterface zanataInterface;
+    private final SyncContext syncContext;
     private final AtomicInteger syncProgress = new AtomicInteger(0);
+    private ZanataStatisticsSnapshot statistics = null;
 
     protected BaseZanataSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface) {
+        this(providerFactory, zanataInterface, new SyncContext());
+    }
+
+    protected BaseZanataSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
+            final SyncContext syncContext) {
         this.providerFactory = providerFactory;
         this.zanataInterface = zanataInterface;
+        this.syncContext = syncContext;
     }
 
     protected DataProviderFactory getProviderFactory() {
@@ -45,7 +56,106 @@ public abstract class BaseZanataSync {
         return zanataInterface;
     }
 
-    public abstract void processZanataResources(final Set<String> zanataIds, final List<LocaleId> locales);
+    protected SyncContext getSyncContext() {
+        return syncContext;
+    }
+
+    protected SyncMetrics getMetrics() {
+        return syncContext.getMetrics();
+    }
+
+    /**
+     * @return The current snapshot of the locales that can be synced with the Zanata interface.
+     */
+    protected ZanataLocaleSet getZanataLocales() {
+        return syncContext.getZanataLocales(zanataInterface);
+    }
+
+    /**
+     * @return The details of the Zanata project version being synced, or null if they aren't known.
+     */
+    protected ZanataDetails getZanataDetails() {
+        return syncContext.getZanataDetails(zanataInterface);
+    }
+
+    /**
+     * @return The Zanata statistics for the project version being synced, or null if they haven't been fetched.
+     */
+    public ZanataStatisticsSnapshot getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(final ZanataStatisticsSnapshot statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Gets the current Zanata statistics signature for a translation.
+     *
+     * @param zanataId The Zanata ID of the resource.
+     * @param locale   The locale of the translation.
+     * @return The statistics signature, or null if the statistics haven't been fetched or don't include the translation.
+     */
+    protected String getStatisticsSignature(final ZanataId zanataId, final LocaleId locale) {
+        return statistics == null ? null : statistics.getSignature(zanataId.toString(), locale);
+    }
+
+    /**
+     * Removes the locales of a resource whose Zanata statistics haven't changed since they were last synced, so that they can be
+     * skipped without fetching their translations from Zanata. Nothing is removed when doing a full sync, or when the sync state
+     * or statistics aren't available.
+     *
+     * @param zanataId The Zanata ID of the resource.
+     * @param locales  The locales to check.
+     * @return The locales that need to be fetched from Zanata, in the same order.
+     */
+    protected List<LocaleId> getOutOfDateLocales(final ZanataId zanataId, final List<LocaleId> locales) {
+        final SyncStateStore stateStore = syncContext.getSyncStateStore();
+        if (stateStore == null || statistics == null || syncContext.isFullSync()) {
+            return locales;
+        }
+
+        final ZanataDetails zanataDetails = getZanataDetails();
+        final List<LocaleId> retValue = new ArrayList<LocaleId>(locales.size());
+        for (final LocaleId locale : locales) {
+            if (stateStore.isUpToDate(zanataDetails, zanataId.toString(), locale, getStatisticsSignature(zanataId, locale))) {
+                getMetrics().increment(SyncMetrics.TRANSLATIONS_SKIPPED);
+            } else {
+                retValue.add(locale);
+            }
+        }
+        return retValue;
+    }
+
+    public void processZanataResources(final Set<String> zanataIds, final List<LocaleId> locales) {
+        if (zanataIds == null || zanataIds.isEmpty() || locales == null || locales.isEmpty()) {
+            return;
+        }
+
+        processZanataIds(parseZanataIds(zanataIds), locales);
+    }
+
+    /**
+     * Sync the translated resources, using ids that have already been parsed.
+     *
+     * @param zanataIds The parsed Zanata IDs of the resources to sync.
+     * @param locales   The locales to sync.
+     */
+    public abstract void processZanataIds(final Collection<ZanataId> zanataIds, final List<LocaleId> locales);
+
+    /**
+     * Parses a collection of Zanata IDs, keeping the same order.
+     *
+     * @param zanataIds The Zanata IDs to parse.
+     * @return The parsed Zanata IDs.
+     */
+    protected static List<ZanataId> parseZanataIds(final Collection<String> zanataIds) {
+        final List<ZanataId> retValue = new ArrayList<ZanataId>(zanataIds.size());
+        for (final String zanataId : zanataIds) {
+            retValue.add(ZanataId.parse(zanataId));
+        }
+        return retValue;
+    }
 
     public Integer getProgress() {
         return syncProgress.get();
@@ -0,0 +1,91 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces checkpoint files with a newly written copy, without ever leaving the checkpoint partially written or missing.
+ * <p/>
+ * The new copy is renamed over the existing file, which atomically replaces it on POSIX platforms. On platforms that can't rename
+ * over an existing file, the existing file is moved aside to a backup first and the backup is only deleted once the new copy is
+ * in place. If the process dies between those two renames, {@link #getReadableFile(java.io.File)} will find the backup instead.
+ */
+public final class CheckpointFiles {
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    private CheckpointFiles() {
+    }
+
+    /**
+     * Replaces a file with a newly written copy.
+     *
+     * @param tempFile The newly written copy, in the same directory as the file.
+     * @param file     The file to replace.
+     * @throws IOException Thrown if the file couldn't be replaced. The existing file, if any, is left in place.
+     */
+    public static void replace(final File tempFile, final File file) throws IOException {
+        final File backupFile = getBackupFile(file);
+        if (!tempFile.renameTo(file)) {
+            // Some platforms can't rename over an existing file, so move the existing file aside until the new copy is in place
+            if (file.exists()) {
+                if (backupFile.exists() && !backupFile.delete()) {
+                    throw new IOException("Failed to delete the old backup " + backupFile.getAbsolutePath());
+                }
+                if (!file.renameTo(backupFile)) {
+                    throw new IOException("Failed to move " + file.getAbsolutePath() + " to " + backupFile.getAbsolutePath());
+                }
+            }
+
+            if (!tempFile.renameTo(file)) {
+                // Put the existing file back
+                if (!file.exists()) {
+                    backupFile.renameTo(file);
+                }
+                throw new IOException("Failed to replace " + file.getAbsolutePath());
+            }
+        }
+
+        // The new copy is in place, so any backup is no longer needed
+        backupFile.delete();
+    }
+
+    /**
+     * Gets the file that a checkpoint should be loaded from. This is the file itself, unless the process died while it was being
+     * replaced, in which case it's the backup of the previous copy.
+     *
+     * @param file The checkpoint file.
+     * @return The file to load the checkpoint from. This may not exist, if nothing has been saved yet.
+     */
+    public static File getReadableFile(final File file) {
+        if (!file.exists()) {
+            final File backupFile = getBackupFile(file);
+            if (backupFile.exists()) {
+                return backupFile;
+            }
+        }
+        return file;
+    }
+
+    private static File getBackupFile(final File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + BACKUP_SUFFIX);
+    }
+}
@@ -19,10 +19,11 @@
 
 package org.jboss.pressgang.ccms.services.zanatasync;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.jboss.pressgang.ccms.contentspec.ContentSpec;
 import org.jboss.pressgang.ccms.contentspec.KeyValueNode;
@@ -45,6 +46,7 @@ import org.jboss.pressgang.ccms.wrapper.TranslatedContentSpecWrapper;
 import org.jboss.pressgang.ccms.wrapper.collection.CollectionWrapper;
 import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
 import org.jboss.pressgang.ccms.zanata.NotModifiedException;
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
 import org.jboss.pressgang.ccms.zanata.ZanataInterface;
 import org.jboss.pressgang.ccms.zanata.ZanataTranslation;
 import org.slf4j.Logger;
@@ -63,8 +65,13 @@ public class ContentSpecSync extends BaseZanataSync {
         super(providerFactory, zanataInterface);
     }
 
+    public ContentSpecSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
+            final SyncContext syncContext) {
+        super(providerFactory, zanataInterface, syncContext);
+    }
+
     @Override
-    public void processZanataResources(final Set<String> zanataIds, final List<LocaleId> locales) {
+    public void processZanataIds(final Collection<ZanataId> zanataIds, final List<LocaleId> locales) {
         if (zanataIds == null || zanataIds.isEmpty() || locales == null || locales.isEmpty()) {
             return;
         }
@@ -72,56 +79,71 @@ public class ContentSpecSync extends BaseZanataSync {
         final TranslatedContentSpecProvider translatedContentSpecProvider = getProviderFactory().getProvider(TranslatedContentSpecProvider
                 .class);
         final ContentSpecProvider contentSpecProvider = getProviderFactory().getProvider(ContentSpecProvider.class);
+        final SyncStateStore stateStore = getSyncContext().getSyncStateStore();
+        final boolean skipUnchanged = stateStore != null && !getSyncContext().isFullSync();
+        final ZanataDetails zanataDetails = getZanataDetails();
         final double resourceSize = zanataIds.size();
         double resourceCount = 0;
 
-        for (final String zanataId : zanataIds) {
+        final ZanataLocaleSet zanataLocales = getZanataLocales();
+
+        for (final ZanataId zanataId : zanataIds) {
             try {
                 // Work out progress
                 long progress = Math.round(resourceCount / resourceSize * 100.0);
                 setProgress(progress);
                 resourceCount++;
 
-                if (!zanataId.matches("^CS\\d+-\\d+$")) continue;
+                if (zanataId.getType() != ZanataId.Type.CONTENT_SPEC) continue;
 
                 log.info(progress + "% Synchronising " + zanataId);
 
-                // The original Zanata Document Text Resources. This will be populated later.
-                Resource originalTextResource = null;
-
-                // Get the Translated Content Spec
-                final TranslatedContentSpecWrapper translatedContentSpec = getTranslatedContentSpec(translatedContentSpecProvider,
-                        contentSpecProvider, zanataId);
-                boolean newTranslation = translatedContentSpec.getId() == null;
+                // Check before any locales are recorded as unchanged, so a content spec that has never been synced is still created
+                final boolean previouslySynced = skipUnchanged && stateStore.contains(zanataDetails, zanataId.toString());
 
-                boolean changed = false;
-                for (final LocaleId locale : locales) {
+                // Find the translations that have changed since they were last synced. Locales whose Zanata statistics haven't
+                // changed aren't fetched at all.
+                final Map<LocaleId, FetchedTranslation> translations = new LinkedHashMap<LocaleId, FetchedTranslation>();
+                for (final LocaleId locale : getOutOfDateLocales(zanataId, locales)) {
                     // Check that the locale is still valid. ie It hasn't been removed in the locale manager
-                    if (!getZanataInterface().getZanataLocales().contains(locale)) {
+                    if (!zanataLocales.contains(locale)) {
                         continue;
                     }
 
                     try {
+                        // Use the statistics from before the fetch, so a change made while fetching is picked up by the next sync
+                        final String statisticsSignature = getStatisticsSignature(zanataId, locale);
+
                         // Find a translation
                         final TranslationsResource translationsResource;
+                        final long start = System.nanoTime();
                         try {
-                            translationsResource = getZanataInterface().getTranslations(zanataId, locale);
+                            translationsResource = getZanataInterface().getTranslations(zanataId.toString(), locale);
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_FETCHED);
                         } catch (NotModifiedException e) {
                             // The translation hasn't been modified so move to the next locale
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_FETCHED);
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_NOT_MODIFIED);
+                            if (skipUnchanged) {
+                                stateStore.recordUnchanged(zanataDetails, zanataId.toString(), locale,
+                                        ETagCacheLockInterceptor.getLastETag(), statisticsSignature);
+                            }
                             continue;
+                        } finally {
+                            getMetrics().recordTime(SyncMetrics.ZANATA_FETCH, start);
                         }
 
                         // Check that a translation exists
                         if (translationsResource != null) {
-                            if (originalTextResource == null) {
-                                // find the original resource
-                                originalTextResource = getZanataInterface().getZanataResource(zanataId);
-                            }
-
-                            // Sync the translations for the locale.
-                            if (syncTranslatedContentSpecNodesForLocale(translatedContentSpec.getTranslatedNodes(), originalTextResource, locale,
-                                    translationsResource)) {
-                                changed = true;
+                            final String contentHash = SyncStateStore.hashTranslations(translationsResource);
+                            final String eTag = ETagCacheLockInterceptor.getLastETag();
+                            if (!skipUnchanged || !stateStore.isUnchanged(zanataDetails, zanataId.toString(), locale, contentHash)) {
+                                getMetrics().increment(SyncMetrics.TRANSLATIONS_CHANGED);
+                                translations.put(locale, new FetchedTranslation(translationsResource, contentHash, eTag,
+                                        statisticsSignature));
+                            } else {
+                                getMetrics().increment(SyncMetrics.TRANSLATIONS_UNCHANGED);
+                                stateStore.recordUnchanged(zanataDetails, zanataId.toString(), locale, eTag, statisticsSignature);
                             }
                         } else {
                             log.info(progress + "% No translations found for " + zanataId + " locale " + locale);
@@ -132,20 +154,69 @@ public class ContentSpecSync extends BaseZanataSync {
                     }
                 }
 
+                // If nothing has changed since the content spec was last synced, then there is no need to get it from PressGang
+                if (translations.isEmpty() && previouslySynced) {
+                    log.info(progress + "% No changes were found for " + zanataId + " since the last sync");
+                    continue;
+                }
+
+                // Get the Translated Content Spec
+                final long fetchStart = System.nanoTime();
+                final TranslatedContentSpecWrapper translatedContentSpec = getTranslatedContentSpec(translatedContentSpecProvider,
+                        contentSpecProvider, zanataId);
+                getMetrics().recordTime(SyncMetrics.PRESSGANG_FETCH, fetchStart);
+                boolean newTranslation = translatedContentSpec.getId() == null;
+
+                // The original Zanata Document Text Resources. This will be populated later.
+                Resource originalTextResource = null;
+
+                boolean changed = false;
+                final Map<LocaleId, FetchedTranslation> syncedTranslations = new LinkedHashMap<LocaleId, FetchedTranslation>();
+                for (final Map.Entry<LocaleId, FetchedTranslation> entry : translations.entrySet()) {
+                    final LocaleId locale = entry.getKey();
+                    try {
+                        if (originalTextResource == null) {
+                            // find the original resource
+                            originalTextResource = getZanataInterface().getZanataResource(zanataId.toString());
+                        }
+
+                        // Sync the translations for the locale.
+                        final long mergeStart = System.nanoTime();
+                        if (syncTranslatedContentSpecNodesForLocale(translatedContentSpec.getTranslatedNodes(), originalTextResource, locale,
+                                entry.getValue().getTranslationsResource())) {
+                            changed = true;
+                        }
+                        getMetrics().recordTime(SyncMetrics.MERGE, mergeStart);
+                        syncedTranslations.put(locale, entry.getValue());
+                    } catch (final Exception ex) {
+                        // Error with the locale
+                        log.error("Failed to sync Locale " + locale.toString() + " for Zanata ID " + zanataId, ex);
+                    }
+                }
+
                 // Only save the data if the content has changed
                 if (newTranslation || changed) {
                     // Save all the changes
+                    final long persistStart = System.nanoTime();
                     if (newTranslation) {
                         translatedContentSpecProvider.createTranslatedContentSpec(translatedContentSpec);
                     } else {
                         translatedContentSpec.setTranslatedNodes(translatedContentSpec.getTranslatedNodes());
                         translatedContentSpecProvider.updateTranslatedContentSpec(translatedContentSpec);
                     }
+                    getMetrics().recordTime(SyncMetrics.PERSIST, persistStart);
 
                     log.info(progress + "% Finished synchronising translations for " + zanataId);
                 } else {
                     log.info(progress + "% No changes were found for " + zanataId);
                 }
+
+                // Remember what was synced, so it can be skipped next time
+                if (stateStore != null) {
+                    for (final Map.Entry<LocaleId, FetchedTranslation> entry : syncedTranslations.entrySet()) {
+                        stateStore.record(zanataDetails, zanataId.toString(), entry.getKey(), null, entry.getValue());
+                    }
+                }
             } catch (final Exception ex) {
                 // Error with the resource
                 log.error("Failed to sync Zanata ID " + zanataId, ex);
@@ -164,7 +235,7 @@ public class ContentSpecSync extends BaseZanataSync {
      * @return
      */
     protected TranslatedContentSpecWrapper getTranslatedContentSpec(final TranslatedContentSpecProvider translatedContentSpecProvider,
-            final ContentSpecProvider contentSpecProvider, final String zanataId) {
+            final ContentSpecProvider contentSpecProvider, final ZanataId zanataId) {
         // Get the translated topic in the CCMS
         final CollectionWrapper<TranslatedContentSpecWrapper> translatedContentSpecs = translatedContentSpecProvider
                 .getTranslatedContentSpecsWithQuery(
@@ -174,9 +245,8 @@ public class ContentSpecSync extends BaseZanataSync {
         if (translatedContentSpecs.getItems().size() != 0) {
             translatedContentSpec = translatedContentSpecs.getItems().get(0);
         } else {
-            final String[] zanataNameSplit = zanataId.split("-");
-            final Integer contentSpecId = Integer.parseInt(zanataNameSplit[0].replace("CS", ""));
-            final Integer contentSpecRevision = Integer.parseInt(zanataNameSplit[1]);
+            final Integer contentSpecId = zanataId.getId();
+            final Integer contentSpecRevision = zanataId.getRevision();
 
             // We need the historical content spec to create the translated content spec
             final ContentSpecWrapper historicalContentSpec = contentSpecProvider.getContentSpec(contentSpecId, contentSpecRevision);
@@ -228,17 +298,14 @@ public class ContentSpecSync extends BaseZanataSync {
         // a mapping of the original strings to their translations
         final Map<String, ZanataTranslation> translations = new HashMap<String, ZanataTranslation>();
 
-        final List<TextFlowTarget> textFlowTargets = translationsResource.getTextFlowTargets();
+        final TextFlowTargetIndex textFlowTargets = new TextFlowTargetIndex(translationsResource);
         final List<TextFlow> textFlows = originalTextResource.getTextFlows();
 
-
         // map the translation to the original resource
         for (final TextFlow textFlow : textFlows) {
-            for (final TextFlowTarget textFlowTarget : textFlowTargets) {
-                if (textFlowTarget.getResId().equals(textFlow.getId()) && !textFlowTarget.getContent().isEmpty()) {
-                    translations.put(textFlow.getContent(), new ZanataTranslation(textFlowTarget));
-                    break;
-                }
+            final TextFlowTarget textFlowTarget = textFlowTargets.getTarget(textFlow.getId());
+            if (textFlowTarget != null) {
+                translations.put(textFlow.getContent(), new ZanataTranslation(textFlowTarget));
             }
         }
 
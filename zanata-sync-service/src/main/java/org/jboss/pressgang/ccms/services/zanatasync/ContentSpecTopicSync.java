@@ -22,7 +22,6 @@ package org.jboss.pressgang.ccms.services.zanatasync;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 import java.util.List;
-import java.util.Map;
 
 import org.jboss.pressgang.ccms.contentspec.utils.EntityUtilities;
 import org.jboss.pressgang.ccms.contentspec.utils.TranslationUtilities;
@@ -41,7 +40,6 @@ import org.jboss.pressgang.ccms.wrapper.TopicWrapper;
 import org.jboss.pressgang.ccms.wrapper.TranslatedCSNodeWrapper;
 import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
 import org.jboss.pressgang.ccms.zanata.ZanataInterface;
-import org.jboss.pressgang.ccms.zanata.ZanataTranslation;
 import org.w3c.dom.Document;
 import org.w3c.dom.Entity;
 import org.xml.sax.SAXException;
@@ -54,23 +52,27 @@ public class ContentSpecTopicSync extends TopicSync {
         super(providerFactory, zanataInterface, serverSettings);
     }
 
+    public ContentSpecTopicSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
+            final ServerSettingsWrapper serverSettings, final SyncContext syncContext) {
+        super(providerFactory, zanataInterface, serverSettings, syncContext);
+    }
+
     @Override
-    protected TranslatedTopicWrapper createTranslatedTopic(final String zanataId, final LocaleId locale) {
+    protected TranslatedTopicWrapper createTranslatedTopic(final ZanataId zanataId, final LocaleId locale) {
         final TranslatedTopicProvider translatedTopicProvider = getProviderFactory().getProvider(TranslatedTopicProvider.class);
         final TopicProvider topicProvider = getProviderFactory().getProvider(TopicProvider.class);
         final TranslatedCSNodeProvider translatedCSNodeProvider = getProviderFactory().getProvider(TranslatedCSNodeProvider.class);
         final LocaleProvider localeProvider = getProviderFactory().getProvider(LocaleProvider.class);
 
         // Get the id and revision from the zanata id
-        final String[] zanataNameSplit = zanataId.split("-");
-        final Integer topicId = Integer.parseInt(zanataNameSplit[0]);
-        final Integer topicRevision = Integer.parseInt(zanataNameSplit[1]);
+        final Integer topicId = zanataId.getId();
+        final Integer topicRevision = zanataId.getRevision();
 
         // Get the associated Translated Node
-        final TranslatedCSNodeWrapper translatedCSNode = translatedCSNodeProvider.getTranslatedCSNode(Integer.parseInt(zanataNameSplit[2]));
+        final TranslatedCSNodeWrapper translatedCSNode = translatedCSNodeProvider.getTranslatedCSNode(zanataId.getNodeId());
 
         // We need the historical topic here as well.
-        final TopicWrapper historicalTopic = topicProvider.getTopic(topicId, topicRevision);
+        final TopicWrapper historicalTopic = getSyncContext().getTopicRevisionCache().getTopic(topicProvider, topicId, topicRevision);
 
         // Try to find one that might already exist
         TranslatedTopicWrapper existingPushedTranslatedTopic = EntityUtilities.returnPushedTranslatedTopic(historicalTopic,
@@ -100,8 +102,7 @@ public class ContentSpecTopicSync extends TopicSync {
     }
 
     @Override
-    protected boolean processTranslatedTopicXML(final TranslatedTopicWrapper translatedTopic,
-            final Map<String, ZanataTranslation> translationDetails) throws SAXException {
+    protected Document prepareSourceDocument(final TranslatedTopicWrapper translatedTopic) throws SAXException {
         // Get a Document from the stored historical XML
         final Document xml = TopicUtilities.convertXMLStringToDocument(translatedTopic.getTopic().getXml(),
                 translatedTopic.getTopic().getXmlFormat());
@@ -117,6 +118,6 @@ public class ContentSpecTopicSync extends TopicSync {
             TranslationUtilities.resolveCustomTopicEntities(entities, xml);
         }
 
-        return processTranslatedTopicXML(translatedTopic, xml, translationDetails);
+        return xml;
     }
 }
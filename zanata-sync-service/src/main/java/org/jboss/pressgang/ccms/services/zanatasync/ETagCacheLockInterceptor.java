@@ -0,0 +1,93 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.jboss.pressgang.ccms.zanata.ETagCache;
+import org.jboss.pressgang.ccms.zanata.ETagInterceptor;
+import org.jboss.resteasy.annotations.interception.ClientInterceptor;
+import org.jboss.resteasy.client.ClientRequest;
+import org.jboss.resteasy.client.ClientResponse;
+import org.jboss.resteasy.spi.interception.ClientExecutionContext;
+
+/**
+ * An ETag interceptor that holds the read side of the ETag cache lock while it adds a response's ETag to the cache. The ETag
+ * cache is updated by the REST calls on many threads at once, so this lets the {@link SyncCheckpointer} take the write side of the
+ * lock to save a consistent copy of the cache. The lock isn't held while the request is running, so a checkpoint only waits for
+ * the cache updates that are in progress.
+ * <p/>
+ * The ETag of the last response is also remembered for the thread that made the request, so the sync can store it alongside the
+ * translations it was returned with.
+ */
+@ClientInterceptor
+public class ETagCacheLockInterceptor extends ETagInterceptor {
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final ThreadLocal<String> lastETag = new ThreadLocal<String>();
+
+    private final ReadWriteLock eTagCacheLock;
+
+    /**
+     * @param eTagCache        The ETag cache to read and update.
+     * @param allowedResources The resources whose responses should be cached.
+     * @param eTagCacheLock    The lock that guards the ETag cache.
+     */
+    public ETagCacheLockInterceptor(final ETagCache eTagCache, final List<Class<?>> allowedResources,
+            final ReadWriteLock eTagCacheLock) {
+        super(eTagCache, allowedResources);
+        this.eTagCacheLock = eTagCacheLock;
+    }
+
+    /**
+     * Gets the ETag of the last response received by the current thread. For a "304 Not Modified" response, this is the ETag that
+     * was sent with the request.
+     *
+     * @return The ETag of the last response, or null if the last response didn't have one.
+     */
+    public static String getLastETag() {
+        return lastETag.get();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ClientResponse execute(final ClientExecutionContext ctx) throws Exception {
+        // Make sure an ETag from an earlier request can't be mistaken for this one's
+        lastETag.remove();
+        return super.execute(ctx);
+    }
+
+    @Override
+    protected void cacheIfPossible(final ClientRequest request, final ClientResponse<?> response) throws Exception {
+        if (response.getStatus() == 200) {
+            lastETag.set((String) response.getHeaders().getFirst(ETAG_HEADER));
+        } else if (response.getStatus() == 304) {
+            lastETag.set((String) request.getHeaders().getFirst(IF_NONE_MATCH_HEADER));
+        }
+
+        eTagCacheLock.readLock().lock();
+        try {
+            super.cacheIfPossible(request, response);
+        } finally {
+            eTagCacheLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * A translation that has been fetched from Zanata, along with the hash of its content, the ETag and statistics signature it was
+ * fetched with and, once it has been merged, the fingerprint of the strings that were merged. A fetch that Zanata reported as not
+ * modified has no translations or content hash.
+ */
+public class FetchedTranslation {
+    private final TranslationsResource translationsResource;
+    private final String contentHash;
+    private final String eTag;
+    private final String statisticsSignature;
+    private final boolean notModified;
+    private String mergeFingerprint = null;
+
+    public FetchedTranslation(final TranslationsResource translationsResource, final String contentHash) {
+        this(translationsResource, contentHash, null, null);
+    }
+
+    public FetchedTranslation(final TranslationsResource translationsResource, final String contentHash, final String eTag,
+            final String statisticsSignature) {
+        this(translationsResource, contentHash, eTag, statisticsSignature, false);
+    }
+
+    private FetchedTranslation(final TranslationsResource translationsResource, final String contentHash, final String eTag,
+            final String statisticsSignature, final boolean notModified) {
+        this.translationsResource = translationsResource;
+        this.contentHash = contentHash;
+        this.eTag = eTag;
+        this.statisticsSignature = statisticsSignature;
+        this.notModified = notModified;
+    }
+
+    /**
+     * Creates a fetch result for a translation that Zanata reported hasn't been modified since its ETag was cached.
+     *
+     * @param eTag                The ETag that was sent to Zanata, if known.
+     * @param statisticsSignature The statistics signature of the translation, if known.
+     * @return The not modified fetch result.
+     */
+    public static FetchedTranslation notModified(final String eTag, final String statisticsSignature) {
+        return new FetchedTranslation(null, null, eTag, statisticsSignature, true);
+    }
+
+    public TranslationsResource getTranslationsResource() {
+        return translationsResource;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return The ETag Zanata returned for the translation, or null if it isn't known.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return The signature of the Zanata statistics for the translation when it was fetched, or null if it isn't known.
+     */
+    public String getStatisticsSignature() {
+        return statisticsSignature;
+    }
+
+    /**
+     * @return True if Zanata reported that the translation hasn't been modified since its ETag was cached.
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @return The fingerprint of the strings that were merged into the translated topic, or null if it hasn't been merged.
+     */
+    public String getMergeFingerprint() {
+        return mergeFingerprint;
+    }
+
+    public void setMergeFingerprint(final String mergeFingerprint) {
+        this.mergeFingerprint = mergeFingerprint;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.slf4j.MDC;
+
+/**
+ * Carries the logging context of the thread that creates a task over to the worker thread that runs it, so that log messages
+ * from the shared worker pools are still tagged with the content spec they belong to.
+ */
+public final class LoggingContext {
+    private LoggingContext() {
+    }
+
+    /**
+     * Wraps a task so that it runs with the logging context of the current thread.
+     *
+     * @param task The task to wrap.
+     * @return The wrapped task.
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final Map<?, ?> context = MDC.getCopyOfContextMap();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Map<?, ?> previousContext = MDC.getCopyOfContextMap();
+                setContextMap(context);
+                try {
+                    return task.call();
+                } finally {
+                    setContextMap(previousContext);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with the logging context of the current thread.
+     *
+     * @param task The task to wrap.
+     * @return The wrapped task.
+     */
+    public static Runnable wrap(final Runnable task) {
+        final Map<?, ?> context = MDC.getCopyOfContextMap();
+        return new Runnable() {
+            @Override
+            public void run() {
+                final Map<?, ?> previousContext = MDC.getCopyOfContextMap();
+                setContextMap(context);
+                try {
+                    task.run();
+                } finally {
+                    setContextMap(previousContext);
+                }
+            }
+        };
+    }
+
+    private static void setContextMap(final Map<?, ?> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+}
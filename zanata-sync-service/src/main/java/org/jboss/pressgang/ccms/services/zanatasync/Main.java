@@ -21,13 +21,17 @@ package org.jboss.pressgang.ccms.services.zanatasync;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.beust.jcommander.IVariableArity;
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
 import org.jboss.pressgang.ccms.provider.ContentSpecProvider;
 import org.jboss.pressgang.ccms.provider.DataProviderFactory;
 import org.jboss.pressgang.ccms.provider.RESTContentSpecProvider;
@@ -36,15 +40,16 @@ import org.jboss.pressgang.ccms.provider.RESTTopicProvider;
 import org.jboss.pressgang.ccms.provider.ServerSettingsProvider;
 import org.jboss.pressgang.ccms.rest.v1.query.RESTContentSpecQueryBuilderV1;
 import org.jboss.pressgang.ccms.utils.constants.CommonConstants;
+import org.jboss.pressgang.ccms.utils.services.ServiceStarter;
 import org.jboss.pressgang.ccms.wrapper.ContentSpecWrapper;
 import org.jboss.pressgang.ccms.wrapper.ServerSettingsWrapper;
 import org.jboss.pressgang.ccms.wrapper.collection.CollectionWrapper;
 import org.jboss.pressgang.ccms.zanata.ETagCache;
-import org.jboss.pressgang.ccms.zanata.ETagInterceptor;
 import org.jboss.pressgang.ccms.zanata.ZanataConstants;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
 import org.zanata.rest.client.ITranslatedDocResource;
 import org.zanata.rest.service.TranslatedDocResource;
 
@@ -66,21 +71,153 @@ public class Main implements IVariableArity {
 
     final ETagCache eTagCache = new ETagCache();
     final File eTagCacheFile = new File(".zanata-cache");
+    // Stops the ETag cache from being changed by the REST calls while a checkpoint is saving it
+    final ReadWriteLock eTagCacheLock = new ReentrantReadWriteLock();
 
     /**
      * The minimum amount of time in seconds between calls to the Zanata REST API
      */
     private Double zanataRESTCallInterval = null;
+
+    @Parameter(names = "--parallel-specs", description = "The number of content specs to sync concurrently.")
+    private Integer parallelSpecs = 1;
+
+    @Parameter(names = "--max-specs-per-server",
+            description = "The maximum number of content specs that can be synced concurrently against a single Zanata server. "
+                    + "Defaults to the Zanata burst size when rate limited, otherwise "
+                    + ZanataSyncService.DEFAULT_MAX_SPECS_PER_SERVER + ".")
+    private Integer maxSpecsPerServer = null;
+
+    @Parameter(names = "--zanata-rate", description = "The maximum number of REST calls per second to make against a single Zanata "
+            + "server. Defaults to the rate defined by the minimum Zanata call interval.")
+    private Double zanataRate = null;
+
+    @Parameter(names = "--zanata-burst", description = "The number of REST calls that can be made in a row against a single Zanata "
+            + "server before the rate limit applies.")
+    private Integer zanataBurst = 1;
+
+    @Parameter(names = "--locale-threads", description = "The number of locales to fetch translations for concurrently.")
+    private Integer localeThreads = 1;
+
+    @Parameter(names = "--topic-lookup-threads", description = "The number of topics to download concurrently when finding the Zanata "
+            + "IDs of a content spec.")
+    private Integer topicLookupThreads = 1;
+
+    @Parameter(names = "--source-cache-size", description = "The number of parsed source topic documents to keep in memory, so they "
+            + "can be reused for each locale.")
+    private Integer sourceCacheSize = 50;
+
+    @Parameter(names = "--topic-cache-size", description = "The number of historical topic revisions to keep in memory, so they only "
+            + "need to be downloaded once for all the content specs.")
+    private Integer topicCacheSize = 500;
+
+    @Parameter(names = "--state-file", description = "The file used to store what was synced by previous runs.")
+    private String stateFile = ".zanata-sync-state";
+
+    @Parameter(names = "--full-sync", description = "Sync all translations, even if they haven't changed since the last run.")
+    private Boolean fullSync = false;
+
+    @Parameter(names = "--checkpoint-interval", description = "The time in seconds between saving the ETag cache and sync state to "
+            + "disk during a sync. Use 0 to only save at the end of the sync.")
+    private Long checkpointInterval = 300L;
+
+    @Parameter(names = "--download-chunk-size", description = "The number of Zanata IDs to sync, and download existing translated "
+            + "topics for, at a time.")
+    private Integer downloadChunkSize = SyncContext.DEFAULT_DOWNLOAD_CHUNK_SIZE;
+
+    @Parameter(names = "--pipeline-queue-size", description = "The number of topics that can be waiting between the translation fetch, "
+            + "source fetch, merge and save stages of the topic sync. Use 0 to sync each topic one at a time.")
+    private Integer pipelineQueueSize = 0;
+
+    @Parameter(names = "--persist-batch-size", description = "The number of translated topics to save to PressGang in a single "
+            + "request. Use 0 to save each translated topic as soon as it has been synced.")
+    private Integer persistBatchSize = 0;
+
+    @Parameter(names = "--persist-flush-interval", description = "The maximum number of seconds a translated topic should wait to be "
+            + "saved in a batch.")
+    private Long persistFlushInterval = 30L;
+
+    @Parameter(names = "--metrics-file", description = "The file to write the sync timings and counts to, as JSON, at the end of the "
+            + "run. If not set the metrics are logged instead.")
+    private String metricsFile = null;
+
+    @Parameter(names = "--metrics-port", description = "The local port to serve the sync timings and counts on while the sync is "
+            + "running. Use 0 to disable.")
+    private Integer metricsPort = 0;
+
+    @Parameter(names = "--zanata-pool-size", description = "The maximum number of Zanata project versions to keep connections "
+            + "open for. Use 0 for no limit.")
+    private Integer zanataPoolSize = ZanataInterfacePool.DEFAULT_MAX_SIZE;
+
+    @Parameter(names = "--zanata-idle-timeout", description = "The time in seconds a Zanata project version can go unused before "
+            + "its connection is closed. Use 0 to never close them.")
+    private Long zanataIdleTimeout = ZanataInterfacePool.DEFAULT_IDLE_TIMEOUT / 1000;
+
+    @Parameter(names = "--record", description = "Record all the REST requests made to PressGang and Zanata to the specified "
+            + "directory, so the sync can be replayed later.")
+    private String recordDir = null;
+
+    @Parameter(names = "--replay", description = "Replay the REST requests recorded in the specified directory, instead of using the "
+            + "real PressGang and Zanata servers.")
+    private String replayDir = null;
+
+    @Parameter(names = "--replay-port", description = "The local port the record/replay server should listen on. Use 0 to pick any "
+            + "free port.")
+    private Integer replayPort = 0;
+
+    @Parameter(names = "--replay-latency", description = "The number of milliseconds to wait before replaying each response.")
+    private Long replayLatency = 0L;
+
+    @Parameter(names = "--daemon", description = "Keep running, and sync again on a schedule or when triggered.")
+    private Boolean daemon = false;
+
+    @Parameter(names = "--daemon-interval", description = "The time in minutes between each sync when running as a daemon. Use 0 to "
+            + "only sync when triggered.")
+    private Long daemonInterval = 24 * 60L;
+
+    @Parameter(names = "--trigger-file", description = "When running as a daemon, start a sync whenever this file is created.")
+    private String triggerFile = null;
+
+    @Parameter(names = "--trigger-port", description = "When running as a daemon, the local port to listen for sync, status and "
+            + "stop commands on. Use 0 to disable.")
+    private Integer triggerPort = 0;
+
+    @Parameter(names = "--stomp", description = "Keep running, and only sync the resources named in the changed translation "
+            + "messages on the STOMP queue.")
+    private Boolean stomp = false;
+
+    @Parameter(names = "--coalesce-window", description = "The time in seconds to collect changed translation messages for, before "
+            + "syncing them together.")
+    private Long coalesceWindow = 30L;
+
     private DataProviderFactory providerFactory = null;
+    private SyncCheckpointer checkpointer = null;
+    private SyncStateStore syncStateStore = null;
     private ZanataSyncService syncService = null;
     private ServerSettingsWrapper serverSettings = null;
+    private ZanataRateLimiters rateLimiters = null;
+    private SyncMetricsServer metricsServer = null;
+    private ReplayServer replayServer = null;
 
     public static void main(final String[] args) {
         final Main main = new Main();
         final JCommander jCommander = new JCommander(main, args);
-        main.setUp();
-        main.process();
+        boolean success = main.setUp();
+        if (!success) {
+            log.error("Failed to set up the sync service, so nothing will be synced.");
+        } else if (main.stomp) {
+            main.runStomp();
+        } else if (main.daemon) {
+            main.runDaemon();
+        } else {
+            success = main.process();
+        }
         main.cleanUp();
+
+        // Let any calling scripts know that the setup failed or some of the content specs failed to sync
+        if (!success) {
+            System.exit(1);
+        }
     }
 
     public Main() {
@@ -92,27 +229,114 @@ public class Main implements IVariableArity {
         }
     }
 
-    private void setUp() {
+    /**
+     * Loads the cached data and creates the sync service.
+     *
+     * @return True if the sync service was set up, or false if it couldn't be and nothing should be synced.
+     */
+    private boolean setUp() {
         // Exit if the system properties have not been set
-        if (!checkEnvironment()) return;
+        if (!checkEnvironment()) return false;
 
         // Load the cache data
-        try {
-            eTagCache.load(eTagCacheFile);
-        } catch (IOException e) {
-            log.error("Failed to load the ETag cache data from file", e);
+        final File readableETagCacheFile = CheckpointFiles.getReadableFile(eTagCacheFile);
+        if (readableETagCacheFile.exists()) {
+            try {
+                final long start = System.currentTimeMillis();
+                eTagCache.load(readableETagCacheFile);
+                log.info("Loaded the ETag cache (" + readableETagCacheFile.length() + " bytes) in " + (System.currentTimeMillis() - start) +
+                        "ms");
+            } catch (IOException e) {
+                log.error("Failed to load the ETag cache data from file", e);
+            }
         }
 
-        providerFactory = RESTProviderFactory.create(PRESS_GANG_SERVER);
+        // Load the sync state data
+        if (stateFile != null && !stateFile.trim().isEmpty()) {
+            syncStateStore = new SyncStateStore(new File(stateFile));
+            try {
+                final long start = System.currentTimeMillis();
+                syncStateStore.load();
+                log.info("Loaded " + syncStateStore.size() + " sync state entries in " + (System.currentTimeMillis() - start) + "ms");
+            } catch (IOException e) {
+                log.error("Failed to load the sync state data from file", e);
+            }
+        }
+
+        // Start saving the cache and sync state data in the background
+        checkpointer = new SyncCheckpointer(eTagCache, eTagCacheFile, eTagCacheLock, syncStateStore,
+                checkpointInterval == null ? 0 : checkpointInterval);
+        checkpointer.start();
+
+        // Start the local record/replay server, if required
+        String pressGangServer = PRESS_GANG_SERVER;
+        if (recordDir != null || replayDir != null) {
+            replayServer = recordDir != null ? new ReplayServer(new File(recordDir), ReplayServer.Mode.RECORD, replayPort, 0)
+                    : new ReplayServer(new File(replayDir), ReplayServer.Mode.REPLAY, replayPort, replayLatency);
+            try {
+                replayServer.start();
+                pressGangServer = replayServer.getLocalUrl(PRESS_GANG_SERVER);
+            } catch (IOException e) {
+                log.error("Failed to start the record/replay server", e);
+                replayServer = null;
+                return false;
+            }
+        }
+
+        providerFactory = RESTProviderFactory.create(pressGangServer);
         providerFactory.getProvider(RESTTopicProvider.class).setExpandTranslations(true);
         providerFactory.getProvider(RESTContentSpecProvider.class).setExpandTranslationDetails(true);
-        final ETagInterceptor interceptor = new ETagInterceptor(eTagCache, ALLOWED_RESOURCES);
-        ResteasyProviderFactory.getInstance().getClientExecutionInterceptorRegistry().register(interceptor);
+        ResteasyProviderFactory.getInstance().getClientExecutionInterceptorRegistry().register(
+                new ETagCacheLockInterceptor(eTagCache, ALLOWED_RESOURCES, eTagCacheLock));
+
+        // Setup the rate limiting for the zanata servers
+        final double permitsPerSecond = zanataRate != null ? zanataRate : (zanataRESTCallInterval > 0 ? 1.0 / zanataRESTCallInterval : 0);
+        if (permitsPerSecond > 0) {
+            rateLimiters = new ZanataRateLimiters(permitsPerSecond, zanataBurst == null || zanataBurst < 1 ? 1 : zanataBurst);
+            ResteasyProviderFactory.getInstance().getClientExecutionInterceptorRegistry().register(
+                    new ZanataRateLimitInterceptor(rateLimiters));
+        }
         serverSettings = providerFactory.getProvider(ServerSettingsProvider.class).getServerSettings();
         syncService = new ZanataSyncService(providerFactory, serverSettings, zanataRESTCallInterval);
+        syncService.setParallelSpecs(parallelSpecs);
+        syncService.setMaxSpecsPerServer(maxSpecsPerServer);
+        syncService.setLocaleThreads(localeThreads);
+        syncService.setTopicLookupThreads(topicLookupThreads);
+        syncService.setRateLimiters(rateLimiters);
+        syncService.setReplayServer(replayServer);
+        syncService.setZanataInterfacePoolLimits(zanataPoolSize, zanataIdleTimeout * 1000L);
+        syncService.setSourceDocumentCacheSize(sourceCacheSize);
+        syncService.setTopicRevisionCacheSize(topicCacheSize);
+        syncService.setSyncStateStore(syncStateStore, fullSync);
+        syncService.setDownloadChunkSize(downloadChunkSize);
+        syncService.setPipelineQueueSize(pipelineQueueSize);
+        syncService.setPersistBatching(persistBatchSize, persistFlushInterval * 1000L);
+
+        // Setup the metrics collection
+        ResteasyProviderFactory.getInstance().getClientExecutionInterceptorRegistry().register(
+                new SyncMetricsInterceptor(syncService.getMetrics()));
+        if (metricsPort != null && metricsPort > 0) {
+            metricsServer = new SyncMetricsServer(syncService.getMetrics(), metricsPort);
+            try {
+                metricsServer.start();
+            } catch (IOException e) {
+                log.error("Failed to start the metrics server on port " + metricsPort, e);
+                metricsServer = null;
+            }
+        }
+
+        return true;
     }
 
-    private void process() {
+    /**
+     * Syncs all the content specs that have translations enabled.
+     *
+     * @return True if all the content specs synced without failing.
+     */
+    private boolean process() {
+        // Exit if the setup failed
+        if (syncService == null) return false;
+
         final ContentSpecProvider contentSpecProvider = providerFactory.getProvider(ContentSpecProvider.class);
 
         // Build the query to find the translations
@@ -121,20 +345,133 @@ public class Main implements IVariableArity {
 
         // Get the content specs to sync
         final CollectionWrapper<ContentSpecWrapper> contentSpecs = contentSpecProvider.getContentSpecsWithQuery(queryBuilder.getQuery());
-        final Set<String> contentSpecIds = new TreeSet<String>(new ZanataIdSort());
+        final List<String> ids = new ArrayList<String>();
         for (final ContentSpecWrapper contentSpec : contentSpecs.getItems()) {
-            contentSpecIds.add(contentSpec.getId().toString());
+            ids.add(contentSpec.getId().toString());
         }
+        final Set<String> contentSpecIds = new LinkedHashSet<String>(ZanataIdSort.sort(ids));
 
         // Sync the translations
-        syncService.syncContentSpecs(contentSpecIds, null);
+        return syncService.syncContentSpecs(contentSpecIds, null);
     }
 
-    private void cleanUp() {
+    private void runDaemon() {
+        // Exit if the setup failed
+        if (syncService == null) return;
+
+        final SyncDaemon syncDaemon = new SyncDaemon(new Runnable() {
+            @Override
+            public void run() {
+                syncService.refreshServerConstants();
+                process();
+
+                // Later runs only need to sync what's changed since this run
+                syncService.setSyncStateStore(syncStateStore, false);
+                checkpointer.checkpoint();
+                writeMetrics(syncService.getMetrics());
+            }
+        }, daemonInterval * 60 * 1000L, triggerFile == null ? null : new File(triggerFile), triggerPort);
+
+        // Finish the current sync and clean up when the process is killed
+        final Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncDaemon.stop();
+                try {
+                    mainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "sync-daemon-shutdown"));
+
         try {
-            eTagCache.save(eTagCacheFile);
+            syncDaemon.run();
         } catch (IOException e) {
-            log.error("Failed to save the ETag Cache to file", e);
+            log.error("Failed to start listening on port " + triggerPort, e);
+        }
+    }
+
+    private void runStomp() {
+        // Exit if the setup failed
+        if (syncService == null) return;
+
+        final ServiceStarter starter = new ServiceStarter();
+        if (!starter.isValid()) {
+            log.error("The STOMP server details are missing or invalid.");
+            return;
+        }
+
+        final SyncRequestCoalescer coalescer = new SyncRequestCoalescer(coalesceWindow * 1000L) {
+            @Override
+            protected boolean sync(final String contentSpecId, final Set<String> zanataIds, final List<LocaleId> locales) {
+                syncService.refreshStringConstants();
+                final boolean success = contentSpecId == null ? syncService.syncResources(zanataIds, locales) : syncService
+                        .syncContentSpecResources(contentSpecId, zanataIds, locales);
+                checkpointer.checkpoint();
+                return success;
+            }
+        };
+
+        // Let the current batch finish and clean up when the process is killed
+        final Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mainThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "sync-stomp-shutdown"));
+
+        // Keep syncing until the process is killed, which shuts down the listener thread
+        starter.start(new ZanataSyncStompThread(starter, coalescer));
+        coalescer.shutdown();
+
+        log.info("Stopped listening for changed translations after " + coalescer.getReceivedCount() + " requests");
+        if (coalescer.getFailedCount() > 0) {
+            log.error(coalescer.getFailedCount() + " batches of changed translations failed to sync");
+        }
+    }
+
+    private void cleanUp() {
+        if (syncService != null) {
+            syncService.logCacheStatistics();
+            writeMetrics(syncService.getMetrics());
+            syncService.shutdown();
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+
+        if (replayServer != null) {
+            replayServer.stop();
+        }
+
+        if (rateLimiters != null) {
+            rateLimiters.logStatistics();
+        }
+
+        // Save the final cache and sync state data
+        if (checkpointer != null) {
+            checkpointer.stop();
+        }
+    }
+
+    private void writeMetrics(final SyncMetrics metrics) {
+        if (metricsFile == null) {
+            log.info("Sync Metrics:\n" + metrics.toJson());
+        } else {
+            try {
+                metrics.writeJson(new File(metricsFile));
+                log.info("Saved the sync metrics to " + metricsFile);
+            } catch (IOException e) {
+                log.error("Failed to save the sync metrics to " + metricsFile, e);
+            }
         }
     }
 
@@ -143,13 +480,43 @@ public class Main implements IVariableArity {
      */
     private boolean checkEnvironment() {
         log.info("PressGang REST: " + PRESS_GANG_SERVER);
-        log.info("Rate Limiting: " + zanataRESTCallInterval + " seconds per REST call");
+        if (zanataRate != null) {
+            log.info("Rate Limiting: " + zanataRate + " REST calls per second with a burst of " + zanataBurst);
+        } else {
+            log.info("Rate Limiting: " + zanataRESTCallInterval + " seconds per REST call");
+        }
+        log.info("Parallel Content Specs: " + parallelSpecs);
+        log.info("Parallel Locales: " + localeThreads);
+        log.info("Parallel Topic Lookups: " + topicLookupThreads);
+        if (daemon) {
+            log.info("Daemon Mode: " + (daemonInterval > 0 ? "syncing every " + daemonInterval + " minutes" : "only syncing when " +
+                    "triggered") + (triggerFile == null ? "" : ", trigger file " + triggerFile) + (triggerPort == null || triggerPort <= 0 ?
+                    "" : ", trigger port " + triggerPort));
+        }
+        if (recordDir != null) {
+            log.info("Recording To: " + recordDir);
+        } else if (replayDir != null) {
+            log.info("Replaying From: " + replayDir + " with " + replayLatency + "ms latency");
+        }
 
         // Some sanity checking
         if (PRESS_GANG_SERVER == null || PRESS_GANG_SERVER.trim().isEmpty()) {
             log.error("The " + CommonConstants.PRESS_GANG_REST_SERVER_SYSTEM_PROPERTY + " system property need to be defined.");
             return false;
         }
+        if (daemon && (daemonInterval == null || daemonInterval <= 0) && triggerFile == null && (triggerPort == null ||
+                triggerPort <= 0)) {
+            log.error("Daemon mode needs a --daemon-interval, --trigger-file or --trigger-port to know when to sync.");
+            return false;
+        }
+        if (stomp && daemon) {
+            log.error("Only one of --stomp or --daemon can be used.");
+            return false;
+        }
+        if (recordDir != null && replayDir != null) {
+            log.error("Only one of --record or --replay can be used.");
+            return false;
+        }
 
         return true;
     }
@@ -0,0 +1,445 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local stand-in for the Zanata and PressGang servers, so that a sync run can be repeated without the real servers.
+ * <p/>
+ * In record mode every request is forwarded to the real server and the response is saved to the recording directory. In replay
+ * mode the saved responses are served instead, after a configurable delay to simulate the network. The sync is pointed at the
+ * stand-in server by rewriting each server URL with {@link #getLocalUrl(String)}, which keeps the original path so that
+ * recordings from the same servers can be replayed in any later run.
+ * <p/>
+ * Responses are matched on the request method, URL and (for requests that send data) the request body. ETags are honoured
+ * locally, so a request with a matching If-None-Match header gets a 304 response in both modes. Request headers, including any
+ * credentials, are never saved.
+ */
+public class ReplayServer {
+    private static final Logger log = LoggerFactory.getLogger(ReplayServer.class);
+
+    private static final String UPSTREAMS_FILE = "upstreams.properties";
+    private static final String EXCHANGE_FILE_EXTENSION = ".response";
+    private static final List<String> RECORDED_HEADERS = Arrays.asList("Content-Type", "Content-Encoding", "ETag", "Location");
+    private static final List<String> SKIPPED_REQUEST_HEADERS = Arrays.asList("Host", "Connection", "Content-Length", "If-None-Match",
+            "Accept-Encoding");
+
+    public enum Mode {
+        RECORD, REPLAY
+    }
+
+    private final File recordingDir;
+    private final Mode mode;
+    private final int port;
+    private final long latency;
+    private final Properties upstreams = new Properties();
+    private final AtomicLong served = new AtomicLong(0);
+    private final AtomicLong missing = new AtomicLong(0);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param recordingDir The directory to save the recorded responses to, or replay them from.
+     * @param mode         Whether to record or replay the responses.
+     * @param port         The local port to listen on, or 0 to use any free port.
+     * @param latency      The number of milliseconds to wait before replaying each response.
+     */
+    public ReplayServer(final File recordingDir, final Mode mode, final int port, final long latency) {
+        this.recordingDir = recordingDir;
+        this.mode = mode;
+        this.port = port;
+        this.latency = Math.max(0, latency);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException Thrown if the recording can't be read, or the port can't be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) return;
+
+        if (mode == Mode.RECORD) {
+            if (!recordingDir.isDirectory() && !recordingDir.mkdirs()) {
+                throw new IOException("Unable to create the recording directory " + recordingDir.getAbsolutePath());
+            }
+        } else {
+            loadUpstreams();
+        }
+
+        // Use a pool of threads, so concurrent syncs aren't serialised by the stand-in server
+        executor = Executors.newCachedThreadPool(new NamedThreadFactory("replay-server"));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    ReplayServer.this.handle(exchange);
+                } catch (IOException e) {
+                    log.error("Failed to " + mode.toString().toLowerCase() + " " + exchange.getRequestURI(), e);
+                    throw e;
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        log.info("Started the " + mode.toString().toLowerCase() + " server at http://localhost:" + getPort() + " using "
+                + recordingDir.getAbsolutePath());
+    }
+
+    /**
+     * Stops the server, and saves the list of recorded servers.
+     */
+    public synchronized void stop() {
+        if (server == null) return;
+
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+
+        if (mode == Mode.RECORD) {
+            try {
+                saveUpstreams();
+            } catch (IOException e) {
+                log.error("Failed to save the recorded servers", e);
+            }
+        }
+
+        log.info("Stopped the " + mode.toString().toLowerCase() + " server. " + served.get() + " responses served, " + missing.get()
+                + " requests had no recording.");
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public synchronized int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the URL that should be used in place of a real server URL, so the requests go to the stand-in server.
+     *
+     * @param upstreamUrl The URL of the real server.
+     * @return The URL on the stand-in server.
+     */
+    public String getLocalUrl(final String upstreamUrl) {
+        return getLocalUrl(upstreamUrl, "localhost");
+    }
+
+    /**
+     * Gets the URL that should be used in place of a real server URL, so the requests go to the stand-in server.
+     *
+     * @param upstreamUrl The URL of the real server.
+     * @param localHost   The host name to use for the stand-in server. Using different names for different servers allows anything
+     *                    keyed on the host, like the rate limiters, to still tell the servers apart.
+     * @return The URL on the stand-in server.
+     */
+    public String getLocalUrl(final String upstreamUrl, final String localHost) {
+        if (upstreamUrl == null) return null;
+
+        final URI uri = URI.create(upstreamUrl);
+        final String key = getUpstreamKey(uri);
+        synchronized (upstreams) {
+            upstreams.setProperty(key, uri.getScheme() + "://" + uri.getRawAuthority());
+        }
+
+        final String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+        return "http://" + localHost + ":" + getPort() + "/" + key + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    protected void handle(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String requestUri = exchange.getRequestURI().toString();
+        final byte[] requestBody = readFully(exchange.getRequestBody());
+        final String exchangeKey = getExchangeKey(method, requestUri, requestBody);
+        final File exchangeFile = new File(recordingDir, exchangeKey + EXCHANGE_FILE_EXTENSION);
+
+        RecordedResponse response;
+        if (mode == Mode.RECORD) {
+            response = forward(exchange, method, requestUri, requestBody);
+            if (response != null && (response.getStatus() != HttpURLConnection.HTTP_NOT_MODIFIED || !exchangeFile.exists())) {
+                response.save(exchangeFile);
+            }
+        } else {
+            response = exchangeFile.exists() ? RecordedResponse.load(exchangeFile) : null;
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (response == null) {
+            missing.incrementAndGet();
+            log.warn("No recorded response for " + method + " " + requestUri);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            return;
+        }
+        served.incrementAndGet();
+
+        // Emulate the servers ETag handling, since the If-None-Match header is never sent on
+        final String eTag = response.getHeaders().get("ETag");
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        for (final Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        if (eTag != null && eTag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+        } else if (response.getBody().length == 0) {
+            exchange.sendResponseHeaders(response.getStatus(), -1);
+        } else {
+            exchange.sendResponseHeaders(response.getStatus(), response.getBody().length);
+            final OutputStream os = exchange.getResponseBody();
+            os.write(response.getBody());
+            os.flush();
+        }
+    }
+
+    /**
+     * Forwards a request to the real server.
+     */
+    protected RecordedResponse forward(final HttpExchange exchange, final String method, final String requestUri,
+            final byte[] requestBody) throws IOException {
+        // Find the real server from the first path segment
+        final String path = requestUri.startsWith("/") ? requestUri.substring(1) : requestUri;
+        final int slash = path.indexOf('/');
+        final String key = slash == -1 ? path : path.substring(0, slash);
+        final String upstream;
+        synchronized (upstreams) {
+            upstream = upstreams.getProperty(key);
+        }
+        if (upstream == null) {
+            return null;
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(upstream + (slash == -1 ? "" : path.substring(slash)))
+                .openConnection();
+        connection.setRequestMethod(method);
+        connection.setInstanceFollowRedirects(false);
+        for (final Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (!isSkippedRequestHeader(header.getKey())) {
+                for (final String value : header.getValue()) {
+                    connection.addRequestProperty(header.getKey(), value);
+                }
+            }
+        }
+        if (requestBody.length > 0) {
+            connection.setDoOutput(true);
+            final OutputStream os = connection.getOutputStream();
+            try {
+                os.write(requestBody);
+            } finally {
+                os.close();
+            }
+        }
+
+        final int status = connection.getResponseCode();
+        final InputStream is = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        final byte[] body = is == null ? new byte[0] : readFully(is);
+
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (final String headerName : RECORDED_HEADERS) {
+            final String value = connection.getHeaderField(headerName);
+            if (value != null) {
+                headers.put(headerName, value.replace(upstream, "http://localhost:" + getPort() + "/" + key));
+            }
+        }
+
+        return new RecordedResponse(status, headers, body);
+    }
+
+    protected void loadUpstreams() throws IOException {
+        final File upstreamsFile = new File(recordingDir, UPSTREAMS_FILE);
+        if (!upstreamsFile.exists()) {
+            throw new IOException("No recording exists in " + recordingDir.getAbsolutePath());
+        }
+
+        final InputStream is = new FileInputStream(upstreamsFile);
+        try {
+            upstreams.load(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    protected void saveUpstreams() throws IOException {
+        final OutputStream os = new FileOutputStream(new File(recordingDir, UPSTREAMS_FILE));
+        try {
+            synchronized (upstreams) {
+                upstreams.store(os, "The servers recorded by the zanata sync");
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    protected static String getUpstreamKey(final URI uri) {
+        final int port = uri.getPort() == -1 ? ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80) : uri.getPort();
+        return uri.getHost().replaceAll("[^A-Za-z0-9.-]", "_") + "_" + port;
+    }
+
+    protected static String getExchangeKey(final String method, final String requestUri, final byte[] requestBody) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(method.getBytes("UTF-8"));
+            digest.update((byte) ' ');
+            digest.update(requestUri.getBytes("UTF-8"));
+            digest.update((byte) '\n');
+            digest.update(requestBody);
+
+            final StringBuilder retValue = new StringBuilder();
+            for (final byte b : digest.digest()) {
+                retValue.append(String.format("%02x", b));
+            }
+            return retValue.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isSkippedRequestHeader(final String headerName) {
+        for (final String skipped : SKIPPED_REQUEST_HEADERS) {
+            if (skipped.equalsIgnoreCase(headerName)) return true;
+        }
+        return false;
+    }
+
+    private static byte[] readFully(final InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A response that was recorded from a real server.
+     */
+    protected static class RecordedResponse {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        public RecordedResponse(final int status, final Map<String, String> headers, final byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public void save(final File file) throws IOException {
+            // Write to a temp file first, so concurrent replays never see a partial response
+            final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp" + Thread.currentThread().getId());
+            final DataOutputStream os = new DataOutputStream(new FileOutputStream(tempFile));
+            try {
+                os.writeInt(status);
+                os.writeInt(headers.size());
+                for (final Map.Entry<String, String> header : headers.entrySet()) {
+                    os.writeUTF(header.getKey());
+                    os.writeUTF(header.getValue());
+                }
+                os.writeInt(body.length);
+                os.write(body);
+            } finally {
+                os.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Unable to save the recorded response to " + file.getAbsolutePath());
+                }
+            }
+        }
+
+        public static RecordedResponse load(final File file) throws IOException {
+            final DataInputStream is = new DataInputStream(new FileInputStream(file));
+            try {
+                final int status = is.readInt();
+                final int numHeaders = is.readInt();
+                final Map<String, String> headers = new LinkedHashMap<String, String>();
+                for (int i = 0; i < numHeaders; i++) {
+                    headers.put(is.readUTF(), is.readUTF());
+                }
+                final byte[] body = new byte[is.readInt()];
+                is.readFully(body);
+                return new RecordedResponse(status, headers, body);
+            } finally {
+                is.close();
+            }
+        }
+    }
+}
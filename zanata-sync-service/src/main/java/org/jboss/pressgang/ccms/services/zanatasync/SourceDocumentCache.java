@@ -0,0 +1,153 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+
+/**
+ * A bounded, least recently used cache of the prepared source documents for translated topics. The source XML of a topic
+ * revision is the same for every locale, so it only needs to be parsed and have its conditions and entities processed once.
+ * Callers are always given their own deep copy of the cached document, since the translation process modifies it.
+ */
+public class SourceDocumentCache {
+    private final int maxSize;
+    private final Map<Key, Document> documents;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * @param maxSize The maximum number of prepared documents to hold in the cache.
+     */
+    public SourceDocumentCache(final int maxSize) {
+        this.maxSize = maxSize;
+        documents = new LinkedHashMap<Key, Document>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Document> eldest) {
+                return size() > SourceDocumentCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a copy of a prepared source document.
+     *
+     * @param key The key that identifies the prepared document.
+     * @return A deep copy of the cached document, or null if the document isn't in the cache.
+     */
+    public Document get(final Key key) {
+        final Document document;
+        synchronized (documents) {
+            document = documents.get(key);
+        }
+
+        if (document == null) {
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            // DOM implementations aren't thread safe, even for reads, so only let one thread copy the document at a time
+            synchronized (document) {
+                return (Document) document.cloneNode(true);
+            }
+        }
+    }
+
+    /**
+     * Adds a prepared source document to the cache. The cache takes its own copy of the document, so the caller is free to keep
+     * modifying it.
+     *
+     * @param key      The key that identifies the prepared document.
+     * @param document The prepared document.
+     */
+    public void put(final Key key, final Document document) {
+        if (maxSize <= 0 || document == null) return;
+
+        final Document copy = (Document) document.cloneNode(true);
+        synchronized (documents) {
+            documents.put(key, copy);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Identifies a prepared source document by the topic revision it was parsed from, and the way it was prepared.
+     */
+    public static class Key {
+        private final String preparation;
+        private final Integer topicId;
+        private final Integer topicRevision;
+        private final String condition;
+        private final String customEntities;
+
+        /**
+         * @param preparation    Identifies how the document was prepared, since different sync classes process the source in
+         *                       different ways.
+         * @param topicId        The id of the source topic.
+         * @param topicRevision  The revision of the source topic.
+         * @param condition      The condition that was applied to the source XML.
+         * @param customEntities The custom entities that were resolved in the source XML.
+         */
+        public Key(final String preparation, final Integer topicId, final Integer topicRevision, final String condition,
+                final String customEntities) {
+            this.preparation = preparation;
+            this.topicId = topicId;
+            this.topicRevision = topicRevision;
+            this.condition = condition;
+            this.customEntities = customEntities;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            final Key other = (Key) o;
+            return equals(preparation, other.preparation) && equals(topicId, other.topicId) && equals(topicRevision,
+                    other.topicRevision) && equals(condition, other.condition) && equals(customEntities, other.customEntities);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = preparation == null ? 0 : preparation.hashCode();
+            result = 31 * result + (topicId == null ? 0 : topicId.hashCode());
+            result = 31 * result + (topicRevision == null ? 0 : topicRevision.hashCode());
+            result = 31 * result + (condition == null ? 0 : condition.hashCode());
+            result = 31 * result + (customEntities == null ? 0 : customEntities.hashCode());
+            return result;
+        }
+
+        private static boolean equals(final Object o1, final Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
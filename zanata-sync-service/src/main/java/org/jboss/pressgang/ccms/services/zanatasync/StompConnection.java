@@ -0,0 +1,201 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A minimal STOMP 1.0 client, that only supports what's needed to listen on a queue. Messages are acknowledged automatically, and
+ * the bodies are treated as UTF-8 text.
+ */
+public class StompConnection {
+    private static final String ENCODING = "UTF-8";
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    /**
+     * Connects and logs in to a STOMP server.
+     *
+     * @param host     The STOMP server host.
+     * @param port     The STOMP server port.
+     * @param user     The user to log in as, or null to connect without a login.
+     * @param password The users password, or null if there isn't one.
+     * @throws IOException Thrown if the server can't be connected to, or refuses the login.
+     */
+    public StompConnection(final String host, final int port, final String user, final String password) throws IOException {
+        socket = new Socket(host, port);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        if (user != null) {
+            headers.put("login", user);
+        }
+        if (password != null) {
+            headers.put("passcode", password);
+        }
+
+        try {
+            sendFrame("CONNECT", headers, null);
+            final Frame frame = receive();
+            if (frame == null || !"CONNECTED".equals(frame.getCommand())) {
+                throw new IOException("The STOMP server refused the connection" + (frame == null ? "" : ": " + frame.getHeaders().get(
+                        "message")));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts receiving the messages sent to a destination.
+     *
+     * @param destination The queue or topic to subscribe to. eg "/queue/translations".
+     * @throws IOException Thrown if the subscription couldn't be sent to the server.
+     */
+    public void subscribe(final String destination) throws IOException {
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("destination", destination);
+        headers.put("ack", "auto");
+        sendFrame("SUBSCRIBE", headers, null);
+    }
+
+    /**
+     * Sends a text message to a destination.
+     *
+     * @param destination The queue or topic to send the message to.
+     * @param body        The message text.
+     * @throws IOException Thrown if the message couldn't be sent to the server.
+     */
+    public void send(final String destination, final String body) throws IOException {
+        sendFrame("SEND", Collections.singletonMap("destination", destination), body);
+    }
+
+    /**
+     * Waits for the next frame from the server.
+     *
+     * @return The frame, or null if the server closed the connection.
+     * @throws IOException Thrown if the connection failed or was closed by another thread.
+     */
+    public Frame receive() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != 0) {
+            // Skip the new lines between frames, which are also used as heart beats
+            if (buffer.size() == 0 && (b == '\n' || b == '\r')) continue;
+            buffer.write(b);
+        }
+        if (b == -1) return null;
+
+        final String frame = buffer.toString(ENCODING);
+        int bodyStart = frame.indexOf("\n\n");
+        int headersEnd = bodyStart;
+        if (bodyStart == -1) {
+            headersEnd = frame.length();
+            bodyStart = frame.length();
+        } else {
+            bodyStart += 2;
+        }
+
+        final String[] lines = frame.substring(0, headersEnd).split("\r?\n");
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            // Repeated headers use the first value
+            if (colon > 0 && !headers.containsKey(lines[i].substring(0, colon))) {
+                headers.put(lines[i].substring(0, colon), lines[i].substring(colon + 1));
+            }
+        }
+
+        return new Frame(lines[0].trim(), headers, frame.substring(bodyStart));
+    }
+
+    /**
+     * Disconnects from the server. This can be called from another thread to stop a thread waiting on {@link #receive()}.
+     */
+    public void close() {
+        try {
+            sendFrame("DISCONNECT", Collections.<String, String>emptyMap(), null);
+        } catch (IOException e) {
+            // The connection has already been lost, so there's nothing to disconnect
+        }
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing can be done if the socket fails to close
+        }
+    }
+
+    private synchronized void sendFrame(final String command, final Map<String, String> headers,
+            final String body) throws IOException {
+        final StringBuilder frame = new StringBuilder(command).append('\n');
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            frame.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+        }
+        frame.append('\n');
+        if (body != null) {
+            frame.append(body);
+        }
+
+        out.write(frame.toString().getBytes(ENCODING));
+        out.write(0);
+        out.flush();
+    }
+
+    /**
+     * A single frame received from the server.
+     */
+    public static class Frame {
+        private final String command;
+        private final Map<String, String> headers;
+        private final String body;
+
+        public Frame(final String command, final Map<String, String> headers, final String body) {
+            this.command = command;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}
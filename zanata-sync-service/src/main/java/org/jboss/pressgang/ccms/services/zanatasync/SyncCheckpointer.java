@@ -0,0 +1,169 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.jboss.pressgang.ccms.zanata.ETagCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically saves the ETag cache and sync state to disk while a sync is running, so that a sync that is killed or crashes
+ * part way through doesn't lose everything it has learnt. The data is also saved if the JVM is shutdown before the sync finishes.
+ */
+public class SyncCheckpointer {
+    private static final Logger log = LoggerFactory.getLogger(SyncCheckpointer.class);
+
+    private final ETagCache eTagCache;
+    private final File eTagCacheFile;
+    private final ReadWriteLock eTagCacheLock;
+    private final SyncStateStore syncStateStore;
+    private final long interval;
+    private ScheduledExecutorService executor = null;
+    private Thread shutdownHook = null;
+
+    /**
+     * @param eTagCache      The ETag cache to save.
+     * @param eTagCacheFile  The file to save the ETag cache to.
+     * @param eTagCacheLock  The lock that guards the ETag cache, or null if the cache isn't modified while it's being saved.
+     * @param syncStateStore The sync state to save, or null if the sync state isn't being tracked.
+     * @param interval       The time in seconds between each checkpoint.
+     */
+    public SyncCheckpointer(final ETagCache eTagCache, final File eTagCacheFile, final ReadWriteLock eTagCacheLock,
+            final SyncStateStore syncStateStore, final long interval) {
+        this.eTagCache = eTagCache;
+        this.eTagCacheFile = eTagCacheFile;
+        this.eTagCacheLock = eTagCacheLock;
+        this.syncStateStore = syncStateStore;
+        this.interval = interval;
+    }
+
+    /**
+     * Starts taking checkpoints in the background.
+     */
+    public synchronized void start() {
+        if (executor != null) return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("sync-checkpoint"));
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkpoint();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                log.info("Saving the sync checkpoint before shutting down");
+                checkpoint();
+            }
+        }, "sync-checkpoint-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stops taking checkpoints, and saves a final one.
+     */
+    public synchronized void stop() {
+        if (executor == null) return;
+
+        executor.shutdownNow();
+        executor = null;
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, so the hook will take care of it
+        }
+        shutdownHook = null;
+
+        checkpoint();
+    }
+
+    /**
+     * Saves the ETag cache and sync state to disk.
+     */
+    public synchronized void checkpoint() {
+        final long start = System.currentTimeMillis();
+        try {
+            saveETagCache(eTagCache, eTagCacheFile, eTagCacheLock);
+        } catch (Exception e) {
+            log.error("Failed to save the ETag Cache to file", e);
+        }
+
+        if (syncStateStore != null && syncStateStore.isModified()) {
+            try {
+                syncStateStore.save();
+            } catch (Exception e) {
+                log.error("Failed to save the sync state to file", e);
+            }
+        }
+        log.debug("Saved the sync checkpoint in {}ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Saves an ETag cache to file. The cache is written to a temporary file first and then replaced using {@link CheckpointFiles},
+     * so a crash part way through will never leave a partially written or missing cache behind.
+     *
+     * @param eTagCache     The ETag cache to save.
+     * @param file          The file to save the cache to.
+     * @param eTagCacheLock The lock that guards the ETag cache, or null if the cache isn't modified while it's being saved. The
+     *                      write side of the lock is held while the cache is written, so that REST calls can't change it.
+     * @throws IOException Thrown if the cache couldn't be written to file.
+     */
+    public static void saveETagCache(final ETagCache eTagCache, final File file, final ReadWriteLock eTagCacheLock)
+            throws IOException {
+        final File parentDir = file.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile(file.getName(), ".tmp", parentDir);
+        try {
+            if (eTagCacheLock == null) {
+                eTagCache.save(tempFile);
+            } else {
+                eTagCacheLock.writeLock().lock();
+                try {
+                    eTagCache.save(tempFile);
+                } finally {
+                    eTagCacheLock.writeLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        try {
+            CheckpointFiles.replace(tempFile, file);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+}
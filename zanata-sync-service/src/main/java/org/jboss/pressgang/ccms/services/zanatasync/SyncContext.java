@@ -0,0 +1,324 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import org.jboss.pressgang.ccms.provider.StringConstantProvider;
+import org.jboss.pressgang.ccms.wrapper.StringConstantWrapper;
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.jboss.pressgang.ccms.zanata.ZanataInterface;
+import org.zanata.common.LocaleId;
+
+/**
+ * Holds the resources that are shared between all the sync classes for a sync run.
+ */
+public class SyncContext {
+    /**
+     * The default number of Zanata IDs to sync, and download existing translated topics for, at a time.
+     */
+    public static final int DEFAULT_DOWNLOAD_CHUNK_SIZE = 250;
+
+    private ExecutorService localeExecutor = null;
+    private int maxPendingFetches = 1;
+    private SourceDocumentCache sourceDocumentCache = new SourceDocumentCache(0);
+    private TopicRevisionCache topicRevisionCache = new TopicRevisionCache(0);
+    private SyncStateStore syncStateStore = null;
+    private boolean fullSync = false;
+    private int downloadChunkSize = DEFAULT_DOWNLOAD_CHUNK_SIZE;
+    private ExecutorService pipelineExecutor = null;
+    private Semaphore pipelinePermits = new Semaphore(0);
+    private int pipelineQueueSize = 0;
+    private int persistBatchSize = 0;
+    private ExecutorService topicLookupExecutor = null;
+    private SyncMetrics metrics = new SyncMetrics();
+    private long persistFlushInterval = 0;
+    private final Map<Integer, StringConstantWrapper> stringConstants = new ConcurrentHashMap<Integer, StringConstantWrapper>();
+    // Weak keys, so the snapshots of interfaces that are no longer used can be garbage collected
+    private final Map<ZanataInterface, ZanataLocaleSet> zanataLocales = new WeakHashMap<ZanataInterface, ZanataLocaleSet>();
+    private final Map<ZanataInterface, ZanataDetails> zanataDetails = new WeakHashMap<ZanataInterface, ZanataDetails>();
+
+    /**
+     * @return The executor used to fetch the translations for multiple locales at once, or null if locales should be fetched
+     *         one at a time.
+     */
+    public ExecutorService getLocaleExecutor() {
+        return localeExecutor;
+    }
+
+    public void setLocaleExecutor(final ExecutorService localeExecutor) {
+        this.localeExecutor = localeExecutor;
+    }
+
+    /**
+     * @return The maximum number of translation fetches a single sync should have submitted to the locale executor at once.
+     */
+    public int getMaxPendingFetches() {
+        return maxPendingFetches;
+    }
+
+    public void setMaxPendingFetches(final int maxPendingFetches) {
+        this.maxPendingFetches = maxPendingFetches;
+    }
+
+    /**
+     * @return The cache of prepared source documents, shared between all the topic sync classes.
+     */
+    public SourceDocumentCache getSourceDocumentCache() {
+        return sourceDocumentCache;
+    }
+
+    public void setSourceDocumentCache(final SourceDocumentCache sourceDocumentCache) {
+        this.sourceDocumentCache = sourceDocumentCache;
+    }
+
+    /**
+     * @return The cache of historical topic revisions, shared between all the sync classes.
+     */
+    public TopicRevisionCache getTopicRevisionCache() {
+        return topicRevisionCache;
+    }
+
+    public void setTopicRevisionCache(final TopicRevisionCache topicRevisionCache) {
+        this.topicRevisionCache = topicRevisionCache;
+    }
+
+    /**
+     * @return The store of what was synced by previous runs, or null if the sync state isn't being tracked.
+     */
+    public SyncStateStore getSyncStateStore() {
+        return syncStateStore;
+    }
+
+    public void setSyncStateStore(final SyncStateStore syncStateStore) {
+        this.syncStateStore = syncStateStore;
+    }
+
+    /**
+     * @return True if every translation should be synced, even if it is unchanged since the last sync.
+     */
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+    public void setFullSync(final boolean fullSync) {
+        this.fullSync = fullSync;
+    }
+
+    /**
+     * @return The number of Zanata IDs to sync, and download existing translated topics for, at a time.
+     */
+    public int getDownloadChunkSize() {
+        return downloadChunkSize;
+    }
+
+    public void setDownloadChunkSize(final int downloadChunkSize) {
+        this.downloadChunkSize = downloadChunkSize;
+    }
+
+    /**
+     * @return The executor used to run the background stages of the topic sync pipeline, or null if the pipeline is disabled.
+     */
+    public ExecutorService getPipelineExecutor() {
+        return pipelineExecutor;
+    }
+
+    public void setPipelineExecutor(final ExecutorService pipelineExecutor) {
+        this.pipelineExecutor = pipelineExecutor;
+    }
+
+    /**
+     * @return The permits that limit how many topic sync pipelines can run at once, so that the pipeline executor always has a
+     *         free thread for each background stage.
+     */
+    public Semaphore getPipelinePermits() {
+        return pipelinePermits;
+    }
+
+    public void setPipelinePermits(final Semaphore pipelinePermits) {
+        this.pipelinePermits = pipelinePermits;
+    }
+
+    /**
+     * @return The maximum number of items that can be waiting between each stage of the topic sync pipeline.
+     */
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    public void setPipelineQueueSize(final int pipelineQueueSize) {
+        this.pipelineQueueSize = pipelineQueueSize;
+    }
+
+    /**
+     * @return The number of translated topics to save to PressGang in a single request, or 0 to save each one as it's synced.
+     */
+    public int getPersistBatchSize() {
+        return persistBatchSize;
+    }
+
+    public void setPersistBatchSize(final int persistBatchSize) {
+        this.persistBatchSize = persistBatchSize;
+    }
+
+    /**
+     * @return The maximum time, in milliseconds, that a translated topic should wait to be saved in a batch.
+     */
+    public long getPersistFlushInterval() {
+        return persistFlushInterval;
+    }
+
+    public void setPersistFlushInterval(final long persistFlushInterval) {
+        this.persistFlushInterval = persistFlushInterval;
+    }
+
+    /**
+     * @return The executor used to download the topics of a content spec concurrently, or null if each topic should be
+     *         downloaded one at a time.
+     */
+    public ExecutorService getTopicLookupExecutor() {
+        return topicLookupExecutor;
+    }
+
+    public void setTopicLookupExecutor(final ExecutorService topicLookupExecutor) {
+        this.topicLookupExecutor = topicLookupExecutor;
+    }
+
+    /**
+     * @return The timings and counts for the sync run.
+     */
+    public SyncMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(final SyncMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the snapshot of the locales that can be synced for a Zanata interface. If the interface hasn't been registered using
+     * {@link #updateZanataLocales(ZanataInterface)}, then its current locales are used.
+     *
+     * @param zanataInterface The Zanata interface to get the locales for.
+     * @return The current locale snapshot for the interface.
+     */
+    public synchronized ZanataLocaleSet getZanataLocales(final ZanataInterface zanataInterface) {
+        final ZanataLocaleSet localeSet = zanataLocales.get(zanataInterface);
+        return localeSet == null ? updateZanataLocales(zanataInterface) : localeSet;
+    }
+
+    /**
+     * Takes a new snapshot of the locales for a Zanata interface. This must be called whenever the locales of the interfaces
+     * locale manager are changed.
+     *
+     * @param zanataInterface The Zanata interface whose locales changed.
+     * @return The new locale snapshot for the interface.
+     */
+    public synchronized ZanataLocaleSet updateZanataLocales(final ZanataInterface zanataInterface) {
+        final ZanataLocaleSet current = zanataLocales.get(zanataInterface);
+        final List<LocaleId> locales = zanataInterface.getZanataLocales();
+        final ZanataLocaleSet updated = current == null ? new ZanataLocaleSet(1, locales) : current.update(locales);
+        zanataLocales.put(zanataInterface, updated);
+        return updated;
+    }
+
+    /**
+     * Gets a string constant, only downloading it from PressGang the first time it's used until the constants are cleared.
+     *
+     * @param stringConstantProvider The provider to download the string constant with.
+     * @param id                     The id of the string constant.
+     * @return The string constant.
+     */
+    public StringConstantWrapper getStringConstant(final StringConstantProvider stringConstantProvider, final Integer id) {
+        StringConstantWrapper stringConstant = stringConstants.get(id);
+        if (stringConstant == null) {
+            stringConstant = stringConstantProvider.getStringConstant(id);
+            if (stringConstant != null) {
+                stringConstants.put(id, stringConstant);
+            }
+        }
+        return stringConstant;
+    }
+
+    /**
+     * Clears the string constants, so they are downloaded again the next time they are used.
+     */
+    public void clearStringConstants() {
+        stringConstants.clear();
+    }
+
+    /**
+     * Forgets the locale snapshot for a Zanata interface that is no longer used.
+     *
+     * @param zanataInterface The Zanata interface that is no longer used.
+     */
+    public synchronized void removeZanataLocales(final ZanataInterface zanataInterface) {
+        zanataLocales.remove(zanataInterface);
+    }
+
+    /**
+     * Gets the details of the Zanata project version that a Zanata interface was created for.
+     *
+     * @param zanataInterface The Zanata interface to get the details for.
+     * @return The Zanata details, or null if they weren't registered with {@link #setZanataDetails(ZanataInterface, ZanataDetails)}.
+     */
+    public synchronized ZanataDetails getZanataDetails(final ZanataInterface zanataInterface) {
+        return zanataDetails.get(zanataInterface);
+    }
+
+    /**
+     * Registers the details of the Zanata project version that a Zanata interface was created for.
+     *
+     * @param zanataInterface The Zanata interface.
+     * @param details         The Zanata details the interface was created for.
+     */
+    public synchronized void setZanataDetails(final ZanataInterface zanataInterface, final ZanataDetails details) {
+        zanataDetails.put(zanataInterface, details);
+    }
+
+    /**
+     * Forgets the details for a Zanata interface that is no longer used.
+     *
+     * @param zanataInterface The Zanata interface that is no longer used.
+     */
+    public synchronized void removeZanataDetails(final ZanataInterface zanataInterface) {
+        zanataDetails.remove(zanataInterface);
+    }
+
+    /**
+     * Releases any resources held by the context.
+     */
+    public void shutdown() {
+        if (localeExecutor != null) {
+            localeExecutor.shutdownNow();
+        }
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdownNow();
+        }
+        if (topicLookupExecutor != null) {
+            topicLookupExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the sync service running, and reruns the sync on a schedule or when it's triggered. Keeping the process alive means the
+ * provider factory, caches, Zanata interfaces and warmed up code are all reused between runs.
+ * <p/>
+ * A sync can be triggered by creating the trigger file, which is deleted once the sync starts, or by sending a command to the
+ * local trigger port. The port accepts one command per connection:
+ * <ul>
+ * <li>sync - Run a sync as soon as possible.</li>
+ * <li>status - Show whether a sync is running, and when the last one finished.</li>
+ * <li>stop - Stop the daemon once any running sync has finished.</li>
+ * </ul>
+ * Triggers that arrive while a sync is running are merged into a single sync that runs once the current one finishes.
+ */
+public class SyncDaemon {
+    private static final Logger log = LoggerFactory.getLogger(SyncDaemon.class);
+    private static final long TRIGGER_FILE_POLL_INTERVAL = 1000;
+
+    private final Runnable sync;
+    private final long interval;
+    private final File triggerFile;
+    private final int triggerPort;
+    private boolean triggered = false;
+    private boolean running = false;
+    private boolean stopped = false;
+    private long runCount = 0;
+    private Date lastRunFinished = null;
+    private ServerSocket serverSocket = null;
+
+    /**
+     * @param sync        The sync to run.
+     * @param interval    The time in milliseconds between the start of each scheduled sync, or 0 to only sync when triggered.
+     * @param triggerFile The file that triggers a sync when it's created, or null to not watch for a file.
+     * @param triggerPort The local port to listen for commands on, or 0 to not listen for commands.
+     */
+    public SyncDaemon(final Runnable sync, final long interval, final File triggerFile, final int triggerPort) {
+        this.sync = sync;
+        this.interval = interval;
+        this.triggerFile = triggerFile;
+        this.triggerPort = triggerPort;
+    }
+
+    /**
+     * Runs syncs until the daemon is stopped. The first sync is run straight away.
+     *
+     * @throws IOException Thrown if the trigger port can't be bound.
+     */
+    public void run() throws IOException {
+        if (triggerPort > 0) {
+            startListening();
+        }
+
+        try {
+            long nextRun = System.currentTimeMillis();
+            while (waitForNextRun(nextRun)) {
+                final long start = System.currentTimeMillis();
+                runSync();
+                if (interval > 0) {
+                    // Don't try to catch up on missed runs if a sync took longer than the interval
+                    nextRun = Math.max(start + interval, System.currentTimeMillis());
+                } else {
+                    nextRun = Long.MAX_VALUE;
+                }
+            }
+        } finally {
+            stopListening();
+        }
+
+        log.info("Stopped the sync daemon after " + runCount + " syncs");
+    }
+
+    /**
+     * Requests a sync to be run as soon as possible.
+     */
+    public synchronized void trigger() {
+        triggered = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the daemon once any running sync has finished.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * @return A description of the current state of the daemon.
+     */
+    public synchronized String getStatus() {
+        return (running ? "running" : "idle") + ", " + runCount + " syncs, last finished " + (lastRunFinished == null ? "never" :
+                lastRunFinished) + (triggered ? ", sync queued" : "");
+    }
+
+    protected synchronized boolean waitForNextRun(final long nextRun) {
+        while (!stopped) {
+            checkTriggerFile();
+            if (triggered || System.currentTimeMillis() >= nextRun) {
+                triggered = false;
+                running = true;
+                return true;
+            }
+
+            // Wake up regularly to check the trigger file
+            final long waitTime = nextRun - System.currentTimeMillis();
+            try {
+                wait(triggerFile == null ? waitTime : Math.min(waitTime, TRIGGER_FILE_POLL_INTERVAL));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+
+        return false;
+    }
+
+    protected void runSync() {
+        log.info("Starting sync run " + (runCount + 1));
+        final long start = System.currentTimeMillis();
+        try {
+            sync.run();
+        } catch (Exception e) {
+            // Keep the daemon running, so the next run can try again
+            log.error("The sync run failed", e);
+        } finally {
+            synchronized (this) {
+                running = false;
+                runCount++;
+                lastRunFinished = new Date();
+            }
+            log.info("Finished sync run " + runCount + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private void checkTriggerFile() {
+        if (triggerFile != null && triggerFile.exists()) {
+            if (triggerFile.delete()) {
+                log.info("Sync triggered by " + triggerFile.getAbsolutePath());
+                triggered = true;
+            } else {
+                log.error("Unable to delete the trigger file " + triggerFile.getAbsolutePath() + ", so it is being ignored");
+            }
+        }
+    }
+
+    private void startListening() throws IOException {
+        serverSocket = new ServerSocket(triggerPort, 5, InetAddress.getByName(null));
+        final Thread listener = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        handleCommand(serverSocket.accept());
+                    } catch (SocketException e) {
+                        // The socket was closed
+                    } catch (IOException e) {
+                        log.error("Failed to handle a sync daemon command", e);
+                    }
+                }
+            }
+        }, "sync-daemon-listener");
+        listener.setDaemon(true);
+        listener.start();
+
+        log.info("Listening for sync daemon commands on localhost:" + serverSocket.getLocalPort());
+    }
+
+    private void stopListening() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the sync daemon socket", e);
+            }
+        }
+    }
+
+    private void handleCommand(final Socket socket) throws IOException {
+        try {
+            socket.setSoTimeout(5000);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            final Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            final String line = reader.readLine();
+            final String command = line == null ? "" : line.trim();
+
+            final String response;
+            if ("sync".equalsIgnoreCase(command)) {
+                log.info("Sync triggered by a command");
+                trigger();
+                response = "OK sync queued";
+            } else if ("status".equalsIgnoreCase(command)) {
+                response = "OK " + getStatus();
+            } else if ("stop".equalsIgnoreCase(command)) {
+                log.info("Stop requested by a command");
+                stop();
+                response = "OK stopping";
+            } else {
+                response = "ERROR unknown command, expected sync, status or stop";
+            }
+
+            writer.write(response + "\n");
+            writer.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -19,7 +19,8 @@
 
 package org.jboss.pressgang.ccms.services.zanatasync;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -43,11 +44,16 @@ public class SyncMaster extends BaseZanataSync {
 
     public SyncMaster(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
             final ServerSettingsWrapper serverSettings) {
-        super(providerFactory, zanataInterface);
+        this(providerFactory, zanataInterface, serverSettings, new SyncContext());
+    }
+
+    public SyncMaster(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
+            final ServerSettingsWrapper serverSettings, final SyncContext syncContext) {
+        super(providerFactory, zanataInterface, syncContext);
         try {
-            topicSync = new TopicSync(providerFactory, zanataInterface, serverSettings);
-            contentSpecSync = new ContentSpecSync(providerFactory, zanataInterface);
-            contentSpecTopicSync = new ContentSpecTopicSync(providerFactory, zanataInterface, serverSettings);
+            topicSync = new TopicSync(providerFactory, zanataInterface, serverSettings, syncContext);
+            contentSpecSync = new ContentSpecSync(providerFactory, zanataInterface, syncContext);
+            contentSpecTopicSync = new ContentSpecTopicSync(providerFactory, zanataInterface, serverSettings, syncContext);
         } catch (final Exception ex) {
             log.error("", ex);
         }
@@ -61,35 +67,55 @@ public class SyncMaster extends BaseZanataSync {
     @SuppressWarnings("deprecation")
     public void processZanataResources(final Set<String> zanataIds) {
         // Get a list of the locales available to sync with.
-        final List<LocaleId> locales = getZanataInterface().getZanataLocales();
+        final List<LocaleId> locales = getZanataLocales().getLocales();
 
         processZanataResources(zanataIds, locales);
     }
 
+    @Override
+    public void setStatistics(final ZanataStatisticsSnapshot statistics) {
+        super.setStatistics(statistics);
+        if (topicSync != null) topicSync.setStatistics(statistics);
+        if (contentSpecSync != null) contentSpecSync.setStatistics(statistics);
+        if (contentSpecTopicSync != null) contentSpecTopicSync.setStatistics(statistics);
+    }
+
     /**
      * Sync the translated resources
      *
      * @param zanataIds
      */
-    @SuppressWarnings("deprecation")
-    public void processZanataResources(final Set<String> zanataIds, final List<LocaleId> locales) {
-        final Set<String> contentSpecZanataIds = new HashSet<String>();
-        final Set<String> contentSpecTopicZanataIds = new HashSet<String>();
-        final Set<String> topicZanataIds = new HashSet<String>();
+    @Override
+    public void processZanataIds(final Collection<ZanataId> zanataIds, final List<LocaleId> locales) {
+        // Get the Zanata statistics once for the whole project version, so that unchanged translations can be skipped without
+        // asking Zanata for them
+        if (getStatistics() == null && getSyncContext().getSyncStateStore() != null && !getSyncContext().isFullSync()) {
+            setStatistics(ZanataStatisticsSnapshot.fetch(getZanataInterface(), getZanataDetails(), locales));
+        }
+
+        final List<ZanataId> contentSpecZanataIds = new ArrayList<ZanataId>();
+        final List<ZanataId> contentSpecTopicZanataIds = new ArrayList<ZanataId>();
+        final List<ZanataId> topicZanataIds = new ArrayList<ZanataId>();
 
         // iterate over the list and separate the Topic and Content Specs
-        for (final String zanataId : zanataIds) {
-            if (zanataId.startsWith("CS")) {
-                contentSpecZanataIds.add(zanataId);
-            } else if (zanataId.matches("^\\d+-\\d+-\\d+$")) {
-                contentSpecTopicZanataIds.add(zanataId);
-            } else {
-                topicZanataIds.add(zanataId);
+        for (final ZanataId zanataId : zanataIds) {
+            switch (zanataId.getType()) {
+                case CONTENT_SPEC:
+                    contentSpecZanataIds.add(zanataId);
+                    break;
+                case CONTENT_SPEC_TOPIC:
+                    contentSpecTopicZanataIds.add(zanataId);
+                    break;
+                case TOPIC:
+                    topicZanataIds.add(zanataId);
+                    break;
+                default:
+                    log.info("Skipping " + zanataId + " as it isn't a valid Zanata ID");
             }
         }
 
-        topicSync.processZanataResources(topicZanataIds, locales);
-        contentSpecTopicSync.processZanataResources(contentSpecTopicZanataIds, locales);
-        contentSpecSync.processZanataResources(contentSpecZanataIds, locales);
+        topicSync.processZanataIds(topicZanataIds, locales);
+        contentSpecTopicSync.processZanataIds(contentSpecTopicZanataIds, locales);
+        contentSpecSync.processZanataIds(contentSpecZanataIds, locales);
     }
 }
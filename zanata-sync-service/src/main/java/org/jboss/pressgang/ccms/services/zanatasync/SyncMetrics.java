@@ -0,0 +1,253 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the timings and counts for each phase of a sync run, so that it's possible to see where the time is being spent. All
+ * the sync classes in a run share the same metrics, through the sync context.
+ */
+public class SyncMetrics {
+    /**
+     * Fetching translations from Zanata.
+     */
+    public static final String ZANATA_FETCH = "zanata.fetch";
+    /**
+     * Downloading the existing translated topics and content specs from PressGang.
+     */
+    public static final String PRESSGANG_FETCH = "pressgang.fetch";
+    /**
+     * Downloading the topics referenced by a content spec, to find its Zanata IDs.
+     */
+    public static final String TOPIC_LOOKUP = "pressgang.topicLookup";
+    /**
+     * Merging the Zanata translations into the translated topic XML.
+     */
+    public static final String MERGE = "merge";
+    /**
+     * Saving translated topics and content specs to PressGang.
+     */
+    public static final String PERSIST = "persist";
+    /**
+     * Syncing a whole content spec.
+     */
+    public static final String CONTENT_SPEC = "contentSpec";
+
+    public static final String TRANSLATIONS_FETCHED = "translations.fetched";
+    public static final String TRANSLATIONS_NOT_MODIFIED = "translations.notModified";
+    public static final String TRANSLATIONS_UNCHANGED = "translations.unchanged";
+    public static final String TRANSLATIONS_CHANGED = "translations.changed";
+    public static final String TRANSLATIONS_SKIPPED = "translations.skipped";
+    public static final String TOPICS_SAVED = "translatedTopics.saved";
+    public static final String TOPICS_UNCHANGED = "translatedTopics.unchanged";
+    public static final String TOPICS_FAILED = "translatedTopics.failed";
+    public static final String CONTENT_SPECS_FAILED = "contentSpecs.failed";
+    public static final String CONTENT_SPECS_SKIPPED = "contentSpecs.skipped";
+    public static final String MERGES_SKIPPED = "translatedTopics.mergeSkipped";
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Records how long a phase took.
+     *
+     * @param phase      The name of the phase.
+     * @param startNanos The value of {@link System#nanoTime()} when the phase started.
+     */
+    public void recordTime(final String phase, final long startNanos) {
+        getTimer(phase).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param name The name of the counter.
+     */
+    public void increment(final String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds an amount to a counter.
+     *
+     * @param name   The name of the counter.
+     * @param amount The amount to add.
+     */
+    public void add(final String name, final long amount) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong(0);
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(amount);
+    }
+
+    /**
+     * @param name The name of the counter.
+     * @return The current value of the counter, or 0 if nothing has been counted.
+     */
+    public long getCount(final String name) {
+        final AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @param phase The name of the phase.
+     * @return The timer for the phase, created if it doesn't exist.
+     */
+    public Timer getTimer(final String phase) {
+        Timer timer = timers.get(phase);
+        if (timer == null) {
+            final Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(phase, newTimer);
+            if (timer == null) {
+                timer = newTimer;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return The metrics as a JSON document.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"uptimeMs\": ").append(System.currentTimeMillis() - startTime).append(",\n");
+
+        // Timers
+        json.append("  \"timers\": {");
+        boolean first = true;
+        for (final Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    \"").append(entry.getKey()).append("\": ");
+            entry.getValue().appendJson(json);
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n");
+
+        // Counters
+        json.append("  \"counters\": {");
+        first = true;
+        for (final Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().get());
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n  },\n");
+
+        // Rates
+        final long fetched = getCount(TRANSLATIONS_FETCHED);
+        final long changed = getCount(TRANSLATIONS_CHANGED);
+        json.append("  \"rates\": {\n");
+        json.append("    \"notModified\": ").append(ratio(getCount(TRANSLATIONS_NOT_MODIFIED), fetched)).append(",\n");
+        json.append("    \"unchanged\": ").append(ratio(getCount(TRANSLATIONS_UNCHANGED), fetched)).append(",\n");
+        json.append("    \"changed\": ").append(ratio(changed, fetched)).append("\n");
+        json.append("  }\n");
+
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Writes the metrics to a file as JSON.
+     *
+     * @param file The file to write to.
+     * @throws IOException Thrown if the file can't be written.
+     */
+    public void writeJson(final File file) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String ratio(final long value, final long total) {
+        return total == 0 ? "0.0" : String.format("%.4f", (double) value / total);
+    }
+
+    /**
+     * The latency of a phase, with a histogram of how long each call took.
+     */
+    public static class Timer {
+        /**
+         * The upper bounds of each histogram bucket, in milliseconds. Anything slower goes into a final overflow bucket.
+         */
+        private static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000};
+
+        private final long[] bucketCounts = new long[BUCKETS.length + 1];
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        public synchronized void record(final long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            bucketCounts[bucket]++;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalTime() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+        public synchronized long getMaxTime() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+        protected synchronized void appendJson(final StringBuilder json) {
+            json.append("{\"count\": ").append(count);
+            json.append(", \"totalMs\": ").append(TimeUnit.NANOSECONDS.toMillis(totalNanos));
+            json.append(", \"meanMs\": ").append(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count));
+            json.append(", \"maxMs\": ").append(TimeUnit.NANOSECONDS.toMillis(maxNanos));
+            json.append(", \"histogram\": {");
+            for (int i = 0; i < bucketCounts.length; i++) {
+                if (i > 0) json.append(", ");
+                json.append("\"").append(i < BUCKETS.length ? "le" + BUCKETS[i] + "ms" : "over").append("\": ").append(bucketCounts[i]);
+            }
+            json.append("}}");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import org.jboss.resteasy.annotations.interception.ClientInterceptor;
+import org.jboss.resteasy.client.ClientResponse;
+import org.jboss.resteasy.spi.interception.ClientExecutionContext;
+import org.jboss.resteasy.spi.interception.ClientExecutionInterceptor;
+
+/**
+ * A RESTEasy client interceptor that counts the REST calls, and the response bytes, for each host that is talked to.
+ */
+@ClientInterceptor
+public class SyncMetricsInterceptor implements ClientExecutionInterceptor {
+    private final SyncMetrics metrics;
+
+    public SyncMetricsInterceptor(final SyncMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ClientResponse execute(final ClientExecutionContext ctx) throws Exception {
+        final String host = ZanataRateLimiters.getHost(ctx.getRequest().getUri());
+        final ClientResponse response = ctx.proceed();
+
+        metrics.increment("requests." + host);
+        metrics.increment("responses." + host + "." + response.getStatus());
+
+        // Only count the bytes if the server said how big the response is, since the body hasn't been read yet
+        final Object contentLength = response.getHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                metrics.add("bytes." + host, Long.parseLong(contentLength.toString()));
+            } catch (NumberFormatException e) {
+                // Ignore invalid lengths
+            }
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small HTTP server, bound to the loopback address only, that serves the current sync metrics as JSON from "/metrics".
+ */
+public class SyncMetricsServer {
+    private static final Logger log = LoggerFactory.getLogger(SyncMetricsServer.class);
+
+    private final SyncMetrics metrics;
+    private final int port;
+    private HttpServer server;
+
+    /**
+     * @param metrics The metrics to serve.
+     * @param port    The local port to listen on.
+     */
+    public SyncMetricsServer(final SyncMetrics metrics, final int port) {
+        this.metrics = metrics;
+        this.port = port;
+    }
+
+    /**
+     * Starts listening for requests.
+     *
+     * @throws IOException Thrown if the port can't be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) return;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] body = metrics.toJson().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(body);
+                } finally {
+                    os.close();
+                }
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+
+        log.info("Serving the sync metrics at http://localhost:" + port + "/metrics");
+    }
+
+    /**
+     * Stops listening for requests.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
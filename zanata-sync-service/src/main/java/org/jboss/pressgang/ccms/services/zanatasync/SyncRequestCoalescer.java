@@ -0,0 +1,190 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
+
+/**
+ * Collects requests to sync Zanata resources, and syncs them in batches. The first request starts a window, and all the requests
+ * that arrive before the window closes are merged, so a resource that changes many times in quick succession is only synced
+ * once. The batches are synced one at a time, on a single background thread, and requests that arrive while a batch is syncing
+ * are collected into the next batch.
+ */
+public abstract class SyncRequestCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(SyncRequestCoalescer.class);
+
+    private final long window;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+            "sync-coalescer"));
+    private Map<String, PendingSync> pending = new LinkedHashMap<String, PendingSync>();
+    private boolean scheduled = false;
+    private long received = 0;
+    private long failed = 0;
+
+    /**
+     * @param window The time in milliseconds to collect requests for before syncing them.
+     */
+    protected SyncRequestCoalescer(final long window) {
+        this.window = window;
+    }
+
+    /**
+     * Syncs a batch of resources for a content spec.
+     *
+     * @param contentSpecId The content spec the resources belong to, or null if the content spec should be found from each of the
+     *                      Zanata IDs.
+     * @param zanataIds     The Zanata IDs of the resources to sync.
+     * @param locales       The locales to sync, or null to sync all of the content specs locales.
+     * @return True if all the resources synced without failing.
+     */
+    protected abstract boolean sync(final String contentSpecId, final Set<String> zanataIds, final List<LocaleId> locales);
+
+    /**
+     * Requests a Zanata resource to be synced.
+     *
+     * @param contentSpecId The content spec the resource belongs to, or null if it should be found from the Zanata ID.
+     * @param zanataId      The Zanata ID of the resource.
+     * @param locale        The locale that changed, or null if all locales should be synced.
+     */
+    public synchronized void add(final String contentSpecId, final String zanataId, final LocaleId locale) {
+        received++;
+
+        PendingSync pendingSync = pending.get(contentSpecId);
+        if (pendingSync == null) {
+            pendingSync = new PendingSync();
+            pending.put(contentSpecId, pendingSync);
+        }
+        pendingSync.add(zanataId, locale);
+
+        // Start the window if this is the first request since the last batch
+        if (!scheduled && !executor.isShutdown()) {
+            try {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+                scheduled = true;
+            } catch (RejectedExecutionException e) {
+                // The coalescer was shutdown after the check above, so the request will be discarded
+            }
+        }
+    }
+
+    /**
+     * @return The number of requests received so far.
+     */
+    public synchronized long getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * @return The number of content spec batches that failed to sync so far.
+     */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * Stops accepting new batches, and waits for the current batch and any batch whose window has already started to finish
+     * syncing. Requests that arrive while the last batch is syncing, or after the coalescer has been shutdown, are discarded.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                log.warn("Discarding the sync requests for " + pending.size() + " content specs");
+            }
+        }
+    }
+
+    /**
+     * Syncs everything that has been requested so far.
+     */
+    protected void flush() {
+        final Map<String, PendingSync> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<String, PendingSync>();
+            scheduled = false;
+        }
+
+        for (final Map.Entry<String, PendingSync> entry : batch.entrySet()) {
+            final PendingSync pendingSync = entry.getValue();
+            final String description = entry.getKey() == null ? "" : " for content spec " + entry.getKey();
+            log.info("Syncing " + pendingSync.zanataIds.size() + " changed resources" + description);
+            boolean success = false;
+            try {
+                success = sync(entry.getKey(), pendingSync.zanataIds, pendingSync.allLocales ? null : new ArrayList<LocaleId>(
+                        pendingSync.locales));
+                if (!success) {
+                    log.error("Failed to sync the changed resources" + description);
+                }
+            } catch (Exception e) {
+                log.error("Failed to sync the changed resources" + description, e);
+            }
+
+            if (!success) {
+                synchronized (this) {
+                    failed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The resources and locales requested for a single content spec. The locales are merged across all the resources, as syncing
+     * an unchanged locale is cheap compared to syncing each resource on its own.
+     */
+    private static class PendingSync {
+        private final Set<String> zanataIds = new LinkedHashSet<String>();
+        private final Set<LocaleId> locales = new LinkedHashSet<LocaleId>();
+        private boolean allLocales = false;
+
+        private void add(final String zanataId, final LocaleId locale) {
+            zanataIds.add(zanataId);
+            if (locale == null) {
+                allLocales = true;
+            } else {
+                locales.add(locale);
+            }
+        }
+    }
+}
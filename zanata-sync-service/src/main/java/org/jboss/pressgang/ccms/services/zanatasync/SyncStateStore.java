@@ -0,0 +1,489 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.zanata.common.LocaleId;
+import org.zanata.rest.dto.resource.TextFlowTarget;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * A local, file based store of what was last synced for each Zanata ID and locale. It is used to skip any PressGang work for
+ * translations that are identical to the ones that were synced by a previous run.
+ * <p/>
+ * Each translation is stored against the Zanata server, project and version it was synced from, as the same Zanata ID and locale
+ * will exist in every version of a project. Along with the hash of the translated content, the ETag of the translations and the
+ * signature of the Zanata statistics for the document and locale are stored (see {@link ZanataStatisticsSnapshot}). A translation
+ * whose statistics signature hasn't changed can be skipped without asking Zanata for it at all.
+ * <p/>
+ * The store is a plain text file with one tab separated entry per line. Translations are stored in the form
+ * {@code T server project version zanataId locale translationPercentage contentHash lastSyncedTime eTag statisticsSignature
+ * mergeFingerprint}, where the last three columns may be empty. Content specs are stored in the form
+ * {@code C server project version contentSpecId statisticsSignature lastSyncedTime}. Lines in any other form, including those
+ * written before the project and version were stored, are ignored so the translations are just synced again.
+ */
+public class SyncStateStore {
+    private static final String ENCODING = "UTF-8";
+    private static final char SEPARATOR = '\t';
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    private static final String TRANSLATION_TYPE = "T";
+    private static final String CONTENT_SPEC_TYPE = "C";
+    private static final int TRANSLATION_COLUMNS = 12;
+    private static final int CONTENT_SPEC_COLUMNS = 7;
+
+    private final File file;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    // The scoped Zanata IDs that have at least one entry, so they can be checked without scanning every entry
+    private final Set<String> zanataIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, ContentSpecEntry> contentSpecs = new ConcurrentHashMap<String, ContentSpecEntry>();
+    private volatile boolean modified = false;
+
+    public SyncStateStore(final File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the stored state from file, replacing anything currently held in the store. If the file doesn't exist then the store
+     * will be left empty.
+     *
+     * @throws IOException Thrown if the file exists, but can't be read.
+     */
+    public void load() throws IOException {
+        entries.clear();
+        zanataIds.clear();
+        contentSpecs.clear();
+        final File readableFile = CheckpointFiles.getReadableFile(file);
+        if (!readableFile.exists()) return;
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(readableFile), ENCODING));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Keep any trailing empty columns, so the column count can be checked
+                final String[] vars = line.split(String.valueOf(SEPARATOR), -1);
+
+                try {
+                    if (vars.length == TRANSLATION_COLUMNS && TRANSLATION_TYPE.equals(vars[0])) {
+                        final String scope = createScopeKey(vars[1], vars[2], vars[3]);
+                        final Integer percentage = vars[6].isEmpty() ? null : Integer.parseInt(vars[6]);
+                        final Entry entry = new Entry(percentage, vars[7], Long.parseLong(vars[8]), emptyToNull(vars[9]),
+                                emptyToNull(vars[10]), emptyToNull(vars[11]));
+                        entries.put(createKey(scope, vars[4], vars[5]), entry);
+                        zanataIds.add(createKey(scope, vars[4]));
+                    } else if (vars.length == CONTENT_SPEC_COLUMNS && CONTENT_SPEC_TYPE.equals(vars[0])) {
+                        final String scope = createScopeKey(vars[1], vars[2], vars[3]);
+                        contentSpecs.put(createKey(scope, vars[4]), new ContentSpecEntry(vars[5], Long.parseLong(vars[6])));
+                    }
+                } catch (NumberFormatException e) {
+                    // Ignore any corrupt lines, as the translation will just be synced again
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        modified = false;
+    }
+
+    /**
+     * Saves the state to file. The state is written to a temporary file first and then replaced using {@link CheckpointFiles}, so
+     * a crash part way through will never leave a partially written or missing store behind.
+     *
+     * @throws IOException Thrown if the state can't be written to file.
+     */
+    public synchronized void save() throws IOException {
+        // Clear the flag before the entries are written, so that anything recorded while writing is saved by the next save
+        modified = false;
+
+        final File parentDir = file.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile(file.getName(), ".tmp", parentDir);
+        boolean saved = false;
+        try {
+            writeEntries(tempFile);
+
+            CheckpointFiles.replace(tempFile, file);
+            saved = true;
+        } finally {
+            if (!saved) {
+                // Don't leave the partial file behind, and make sure the next save tries again
+                tempFile.delete();
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Writes all the entries to a file.
+     *
+     * @param outputFile The file to write the entries to.
+     * @throws IOException Thrown if the entries can't be written to the file.
+     */
+    private void writeEntries(final File outputFile) throws IOException {
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), ENCODING));
+        try {
+            for (final Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                writer.write(TRANSLATION_TYPE);
+                writer.write(SEPARATOR);
+                writer.write(mapEntry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(entry.getTranslationPercentage() == null ? "" : entry.getTranslationPercentage().toString());
+                writer.write(SEPARATOR);
+                writer.write(entry.getContentHash());
+                writer.write(SEPARATOR);
+                writer.write(Long.toString(entry.getLastSynced()));
+                writer.write(SEPARATOR);
+                writer.write(nullToEmpty(entry.getETag()));
+                writer.write(SEPARATOR);
+                writer.write(nullToEmpty(entry.getStatisticsSignature()));
+                writer.write(SEPARATOR);
+                writer.write(nullToEmpty(entry.getMergeFingerprint()));
+                writer.newLine();
+            }
+            for (final Map.Entry<String, ContentSpecEntry> mapEntry : contentSpecs.entrySet()) {
+                writer.write(CONTENT_SPEC_TYPE);
+                writer.write(SEPARATOR);
+                writer.write(mapEntry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(mapEntry.getValue().getStatisticsSignature());
+                writer.write(SEPARATOR);
+                writer.write(Long.toString(mapEntry.getValue().getLastSynced()));
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return True if the state has changed since it was last loaded or saved.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the stored state for a translation.
+     *
+     * @param scope    The details of the Zanata project version the translation belongs to.
+     * @param zanataId The Zanata ID of the resource.
+     * @param locale   The locale of the translation.
+     * @return The stored state, or null if the translation hasn't been synced before.
+     */
+    public Entry get(final ZanataDetails scope, final String zanataId, final LocaleId locale) {
+        return entries.get(createKey(createScopeKey(scope), zanataId, locale.toString()));
+    }
+
+    /**
+     * Checks if any locale of a Zanata resource has been synced before.
+     *
+     * @param scope    The details of the Zanata project version the resource belongs to.
+     * @param zanataId The Zanata ID of the resource.
+     * @return True if the store holds at least one locale for the resource.
+     */
+    public boolean contains(final ZanataDetails scope, final String zanataId) {
+        return zanataIds.contains(createKey(createScopeKey(scope), zanataId));
+    }
+
+    /**
+     * Checks if a translation is the same as when it was last synced.
+     *
+     * @param scope       The details of the Zanata project version the translation belongs to.
+     * @param zanataId    The Zanata ID of the resource.
+     * @param locale      The locale of the translation.
+     * @param contentHash The hash of the translations that have just been fetched from Zanata.
+     * @return True if the translation was synced before with exactly the same content.
+     */
+    public boolean isUnchanged(final ZanataDetails scope, final String zanataId, final LocaleId locale, final String contentHash) {
+        final Entry entry = get(scope, zanataId, locale);
+        return entry != null && entry.getContentHash().equals(contentHash);
+    }
+
+    /**
+     * Checks if the Zanata statistics of a translation are the same as when it was last synced, in which case the translation
+     * doesn't need to be fetched from Zanata.
+     *
+     * @param scope               The details of the Zanata project version the translation belongs to.
+     * @param zanataId            The Zanata ID of the resource.
+     * @param locale              The locale of the translation.
+     * @param statisticsSignature The current statistics signature of the translation, or null if it isn't known.
+     * @return True if the translation was synced before with the same statistics signature.
+     */
+    public boolean isUpToDate(final ZanataDetails scope, final String zanataId, final LocaleId locale,
+            final String statisticsSignature) {
+        if (statisticsSignature == null) return false;
+
+        final Entry entry = get(scope, zanataId, locale);
+        return entry != null && statisticsSignature.equals(entry.getStatisticsSignature());
+    }
+
+    /**
+     * Records that a translation has been successfully synced.
+     *
+     * @param scope                 The details of the Zanata project version the translation belongs to.
+     * @param zanataId              The Zanata ID of the resource.
+     * @param locale                The locale of the translation.
+     * @param translationPercentage The translation percentage that was synced, if known.
+     * @param fetchedTranslation    The translation that was synced.
+     */
+    public void record(final ZanataDetails scope, final String zanataId, final LocaleId locale, final Integer translationPercentage,
+            final FetchedTranslation fetchedTranslation) {
+        final String scopeKey = createScopeKey(scope);
+        entries.put(createKey(scopeKey, zanataId, locale.toString()), new Entry(translationPercentage,
+                fetchedTranslation.getContentHash(), System.currentTimeMillis(), fetchedTranslation.getETag(),
+                fetchedTranslation.getStatisticsSignature(), fetchedTranslation.getMergeFingerprint()));
+        zanataIds.add(createKey(scopeKey, zanataId));
+        modified = true;
+    }
+
+    /**
+     * Records that a translation was found to be unchanged since it was last synced, either because Zanata reported it hadn't
+     * been modified or because its content hash matched. The content of the existing entry is kept, but the ETag and statistics
+     * signature are updated so the translation can be skipped without a Zanata request next time. If the translation has no
+     * entry, then one is created with an unknown content hash.
+     *
+     * @param scope               The details of the Zanata project version the translation belongs to.
+     * @param zanataId            The Zanata ID of the resource.
+     * @param locale              The locale of the translation.
+     * @param eTag                The ETag of the translation, or null to keep the stored ETag.
+     * @param statisticsSignature The current statistics signature of the translation, if known.
+     */
+    public void recordUnchanged(final ZanataDetails scope, final String zanataId, final LocaleId locale, final String eTag,
+            final String statisticsSignature) {
+        final String scopeKey = createScopeKey(scope);
+        final String key = createKey(scopeKey, zanataId, locale.toString());
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            entries.put(key, new Entry(null, "", System.currentTimeMillis(), eTag, statisticsSignature, null));
+            zanataIds.add(createKey(scopeKey, zanataId));
+        } else {
+            entries.put(key, new Entry(entry.getTranslationPercentage(), entry.getContentHash(), entry.getLastSynced(),
+                    eTag == null ? entry.getETag() : eTag, statisticsSignature, entry.getMergeFingerprint()));
+        }
+        modified = true;
+    }
+
+    /**
+     * Gets the statistics signature of a content spec's project version, from when all of the content spec's translations were
+     * last synced.
+     *
+     * @param scope         The details of the Zanata project version the content spec is translated in.
+     * @param contentSpecId The id, and optionally revision, of the content spec.
+     * @return The stored statistics signature, or null if the content spec hasn't been completely synced before.
+     */
+    public String getContentSpecSignature(final ZanataDetails scope, final String contentSpecId) {
+        final ContentSpecEntry entry = contentSpecs.get(createKey(createScopeKey(scope), contentSpecId));
+        return entry == null ? null : entry.getStatisticsSignature();
+    }
+
+    /**
+     * Records that every translation of a content spec has been synced.
+     *
+     * @param scope               The details of the Zanata project version the content spec is translated in.
+     * @param contentSpecId       The id, and optionally revision, of the content spec.
+     * @param statisticsSignature The statistics signature of the project version when the content spec was synced.
+     */
+    public void recordContentSpec(final ZanataDetails scope, final String contentSpecId, final String statisticsSignature) {
+        contentSpecs.put(createKey(createScopeKey(scope), contentSpecId), new ContentSpecEntry(statisticsSignature,
+                System.currentTimeMillis()));
+        modified = true;
+    }
+
+    /**
+     * Creates a hash of the translated content in a Translations Resource. Only the data that is synced into PressGang (the
+     * translated strings and their state) is included.
+     *
+     * @param translationsResource The translations to hash.
+     * @return A hex encoded MD5 hash of the translated content.
+     */
+    public static String hashTranslations(final TranslationsResource translationsResource) {
+        final MessageDigest digest = createDigest();
+
+        final List<TextFlowTarget> textFlowTargets = translationsResource.getTextFlowTargets();
+        try {
+            for (final TextFlowTarget textFlowTarget : textFlowTargets) {
+                digest.update(String.valueOf(textFlowTarget.getResId()).getBytes(ENCODING));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(textFlowTarget.getState()).getBytes(ENCODING));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(textFlowTarget.getContent()).getBytes(ENCODING));
+                digest.update((byte) '\n');
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        return toHex(digest);
+    }
+
+    /**
+     * @return A new digest, of the same type used to hash the translations.
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Completes a digest and hex encodes the hash.
+     *
+     * @param digest The digest to complete.
+     * @return The hex encoded hash.
+     */
+    public static String toHex(final MessageDigest digest) {
+        final byte[] hash = digest.digest();
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_CHARS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_CHARS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static String createScopeKey(final ZanataDetails scope) {
+        return scope == null ? createScopeKey("", "", "") : createScopeKey(nullToEmpty(scope.getServer()),
+                nullToEmpty(scope.getProject()), nullToEmpty(scope.getVersion()));
+    }
+
+    private static String createScopeKey(final String server, final String project, final String version) {
+        return server + SEPARATOR + project + SEPARATOR + version;
+    }
+
+    private static String createKey(final String... parts) {
+        final StringBuilder key = new StringBuilder();
+        for (final String part : parts) {
+            if (key.length() != 0) key.append(SEPARATOR);
+            key.append(part);
+        }
+        return key.toString();
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(final String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * The state of a single translation, at the time it was last synced.
+     */
+    public static class Entry {
+        private final Integer translationPercentage;
+        private final String contentHash;
+        private final long lastSynced;
+        private final String eTag;
+        private final String statisticsSignature;
+        private final String mergeFingerprint;
+
+        public Entry(final Integer translationPercentage, final String contentHash, final long lastSynced, final String eTag,
+                final String statisticsSignature, final String mergeFingerprint) {
+            this.translationPercentage = translationPercentage;
+            this.contentHash = contentHash;
+            this.lastSynced = lastSynced;
+            this.eTag = eTag;
+            this.statisticsSignature = statisticsSignature;
+            this.mergeFingerprint = mergeFingerprint;
+        }
+
+        public Integer getTranslationPercentage() {
+            return translationPercentage;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getLastSynced() {
+            return lastSynced;
+        }
+
+        /**
+         * @return The ETag Zanata returned for the translation, or null if it wasn't recorded.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return The signature of the Zanata statistics for the translation, or null if it wasn't recorded.
+         */
+        public String getStatisticsSignature() {
+            return statisticsSignature;
+        }
+
+        /**
+         * @return The fingerprint of the strings that were merged into the translated topic, or null if it wasn't recorded.
+         */
+        public String getMergeFingerprint() {
+            return mergeFingerprint;
+        }
+    }
+
+    /**
+     * The state of a content spec, at the time all of its translations were last synced.
+     */
+    private static class ContentSpecEntry {
+        private final String statisticsSignature;
+        private final long lastSynced;
+
+        private ContentSpecEntry(final String statisticsSignature, final long lastSynced) {
+            this.statisticsSignature = statisticsSignature;
+            this.lastSynced = lastSynced;
+        }
+
+        public String getStatisticsSignature() {
+            return statisticsSignature;
+        }
+
+        public long getLastSynced() {
+            return lastSynced;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zanata.rest.dto.resource.TextFlowTarget;
+import org.zanata.rest.dto.resource.TranslationsResource;
+
+/**
+ * An index of the translated TextFlowTargets in a TranslationsResource, keyed by the id of the TextFlow they translate. This
+ * allows the TextFlows of the original resource to be joined to their translations without scanning every target for every flow.
+ */
+public class TextFlowTargetIndex {
+    private final Map<String, TextFlowTarget> targets;
+
+    /**
+     * Builds the index for a Translations Resource. Targets that have no translated content are ignored, and if multiple targets
+     * exist for the same TextFlow then the first one is used.
+     *
+     * @param translationsResource The translations to index.
+     */
+    public TextFlowTargetIndex(final TranslationsResource translationsResource) {
+        final List<TextFlowTarget> textFlowTargets = translationsResource.getTextFlowTargets();
+        targets = new HashMap<String, TextFlowTarget>(Math.max(16, (int) (textFlowTargets.size() / 0.75f) + 1));
+
+        for (final TextFlowTarget textFlowTarget : textFlowTargets) {
+            if (textFlowTarget.getResId() != null && !textFlowTarget.getContent().isEmpty() && !targets.containsKey(
+                    textFlowTarget.getResId())) {
+                targets.put(textFlowTarget.getResId(), textFlowTarget);
+            }
+        }
+    }
+
+    /**
+     * Gets the translation for a TextFlow.
+     *
+     * @param textFlowId The id of the TextFlow to get the translation for.
+     * @return The translated TextFlowTarget, or null if the TextFlow hasn't been translated.
+     */
+    public TextFlowTarget getTarget(final String textFlowId) {
+        return targets.get(textFlowId);
+    }
+
+    /**
+     * @return The number of translated TextFlows in the index.
+     */
+    public int size() {
+        return targets.size();
+    }
+}
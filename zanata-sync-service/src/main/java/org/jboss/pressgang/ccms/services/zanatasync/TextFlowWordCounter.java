@@ -0,0 +1,110 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TextFlow;
+
+/**
+ * Counts and caches the number of words in each TextFlow of a Zanata Resource, so that the translation percentage can be worked
+ * out for each locale without counting the source words again.
+ */
+public class TextFlowWordCounter {
+    private final Resource resource;
+    private final Map<String, Integer> wordCounts;
+    private final int totalWordCount;
+
+    public TextFlowWordCounter(final Resource resource) {
+        this.resource = resource;
+
+        final List<TextFlow> textFlows = resource.getTextFlows();
+        wordCounts = new HashMap<String, Integer>(Math.max(16, (int) (textFlows.size() / 0.75f) + 1));
+
+        int total = 0;
+        for (final TextFlow textFlow : textFlows) {
+            final int count = countWords(textFlow.getContent());
+            if (!wordCounts.containsKey(textFlow.getId())) {
+                wordCounts.put(textFlow.getId(), count);
+            }
+            total += count;
+        }
+        totalWordCount = total;
+    }
+
+    /**
+     * @param resource The resource to check.
+     * @return True if the counts were generated from the exact same resource instance.
+     */
+    public boolean isFor(final Resource resource) {
+        return this.resource == resource;
+    }
+
+    /**
+     * Gets the number of words in a TextFlow.
+     *
+     * @param textFlow The TextFlow to get the word count for.
+     * @return The number of words in the TextFlows content.
+     */
+    public int getWordCount(final TextFlow textFlow) {
+        final Integer count = wordCounts.get(textFlow.getId());
+        return count == null ? countWords(textFlow.getContent()) : count;
+    }
+
+    /**
+     * @return The total number of words in all the TextFlows of the resource.
+     */
+    public int getTotalWordCount() {
+        return totalWordCount;
+    }
+
+    /**
+     * Counts the words in a string. This returns exactly the same value as {@code content.split(" ").length}, without having to
+     * create the array of words.
+     *
+     * @param content The content to count the words for.
+     * @return The number of space separated words in the content.
+     */
+    public static int countWords(final String content) {
+        int spaces = 0;
+        int spacesBeforeLastWord = -1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == ' ') {
+                spaces++;
+            } else {
+                spacesBeforeLastWord = spaces;
+            }
+        }
+
+        if (spaces == 0) {
+            // split() returns the original string when there are no matches
+            return 1;
+        } else if (spacesBeforeLastWord == -1) {
+            // The content is only spaces, so split() removes all the trailing empty strings
+            return 0;
+        } else {
+            // Trailing spaces don't create any extra words
+            return spacesBeforeLastWord + 1;
+        }
+    }
+}
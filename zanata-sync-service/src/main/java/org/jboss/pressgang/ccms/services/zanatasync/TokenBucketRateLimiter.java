@@ -0,0 +1,122 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket rate limiter. Tokens are added to the bucket at a fixed rate up to the burst size, and each call takes a
+ * single token. If the bucket is empty then the caller has to wait until its token is available, so callers are let through in
+ * the order they arrived.
+ */
+public class TokenBucketRateLimiter implements ZanataRateLimiter {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double permitsPerSecond;
+    private final double burstSize;
+    private double availableTokens;
+    private long lastRefillTime;
+
+    private final AtomicLong acquiredCount = new AtomicLong(0);
+    private final AtomicLong waitedCount = new AtomicLong(0);
+    private final AtomicLong totalWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+
+    /**
+     * @param permitsPerSecond The number of calls allowed per second, on average.
+     * @param burstSize        The maximum number of calls that can be made in a row without waiting.
+     */
+    public TokenBucketRateLimiter(final double permitsPerSecond, final int burstSize) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("The permits per second must be greater than 0");
+        }
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("The burst size must be at least 1");
+        }
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSize = burstSize;
+        availableTokens = burstSize;
+        lastRefillTime = System.nanoTime();
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        final long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+
+            waitedCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            long currentMax;
+            while ((currentMax = maxWaitNanos.get()) < waitNanos && !maxWaitNanos.compareAndSet(currentMax, waitNanos)) {
+                // Another thread updated the max, so try again
+            }
+        }
+        acquiredCount.incrementAndGet();
+    }
+
+    /**
+     * Takes a token from the bucket, going into debt if none are available.
+     *
+     * @return The time in nanoseconds that the caller has to wait before its token is available.
+     */
+    private synchronized long reserve() {
+        final long now = System.nanoTime();
+        availableTokens = Math.min(burstSize, availableTokens + (now - lastRefillTime) / NANOS_PER_SECOND * permitsPerSecond);
+        lastRefillTime = now;
+
+        availableTokens -= 1;
+        if (availableTokens >= 0) {
+            return 0;
+        } else {
+            return (long) Math.ceil(-availableTokens / permitsPerSecond * NANOS_PER_SECOND);
+        }
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurstSize() {
+        return (int) burstSize;
+    }
+
+    @Override
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    @Override
+    public long getWaitedCount() {
+        return waitedCount.get();
+    }
+
+    @Override
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    @Override
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.pressgang.ccms.provider.TopicProvider;
+import org.jboss.pressgang.ccms.wrapper.TopicWrapper;
+
+/**
+ * A bounded, least recently used cache of historical topic revisions, shared between all the sync classes for the whole run. The
+ * topic revision itself never changes once it has been saved, so the same revision only needs to be downloaded once no matter how
+ * many content specs include it. However the topics are downloaded with their translated topics expanded, and those are added to
+ * and updated by each sync, so the cache should be cleared before starting a new sync. Requests for the latest revision of a topic
+ * are never cached.
+ * <p/>
+ * A download that is in progress is cached as well, so threads that ask for the same topic revision at the same time wait for the
+ * one download instead of starting their own. The cached topics are never handed out directly, as the sync classes attach them to
+ * the translated topics they build. Each caller gets its own copy instead, so one thread can't change a topic another is using.
+ */
+public class TopicRevisionCache {
+    private final int maxSize;
+    private final Map<String, Future<TopicWrapper>> topics;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * @param maxSize The maximum number of topic revisions to hold in the cache.
+     */
+    public TopicRevisionCache(final int maxSize) {
+        this.maxSize = maxSize;
+        topics = new LinkedHashMap<String, Future<TopicWrapper>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Future<TopicWrapper>> eldest) {
+                return size() > TopicRevisionCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a topic revision from the cache, downloading it if it hasn't been downloaded before. If another thread is already
+     * downloading the topic revision, then this waits for that download to finish.
+     *
+     * @param topicProvider The provider to download the topic with, if it isn't in the cache.
+     * @param topicId       The id of the topic.
+     * @param topicRevision The revision of the topic, or null for the latest revision.
+     * @return A copy of the topic revision that the caller is free to use and modify, or null if it doesn't exist.
+     */
+    public TopicWrapper getTopic(final TopicProvider topicProvider, final Integer topicId, final Integer topicRevision) {
+        // The latest revision can change at any time, so it can't be cached
+        if (maxSize <= 0 || topicRevision == null) {
+            return topicProvider.getTopic(topicId, topicRevision);
+        }
+
+        final String key = topicId + "-" + topicRevision;
+        final FutureTask<TopicWrapper> download;
+        Future<TopicWrapper> future;
+        synchronized (topics) {
+            future = topics.get(key);
+            if (future == null) {
+                download = new FutureTask<TopicWrapper>(new Callable<TopicWrapper>() {
+                    @Override
+                    public TopicWrapper call() throws Exception {
+                        return topicProvider.getTopic(topicId, topicRevision);
+                    }
+                });
+                future = download;
+                topics.put(key, future);
+            } else {
+                download = null;
+            }
+        }
+
+        if (download == null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+
+            // Download outside of the lock, so other threads aren't held up waiting on the network
+            download.run();
+        }
+
+        final TopicWrapper topic;
+        try {
+            topic = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading topic " + key, e);
+        } catch (ExecutionException e) {
+            // Don't cache the failure, so the next request tries again
+            remove(key, future);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        if (topic == null) {
+            remove(key, future);
+            return null;
+        } else {
+            return topic.clone(true);
+        }
+    }
+
+    /**
+     * Removes a download from the cache, if it hasn't already been replaced.
+     *
+     * @param key    The key of the topic revision.
+     * @param future The download to remove.
+     */
+    private void remove(final String key, final Future<TopicWrapper> future) {
+        synchronized (topics) {
+            if (topics.get(key) == future) {
+                topics.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all the topic revisions from the cache. The hit and miss counts are kept.
+     */
+    public void clear() {
+        synchronized (topics) {
+            topics.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (topics) {
+            return topics.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.pressgang.ccms.provider.TopicProvider;
+import org.jboss.pressgang.ccms.wrapper.TopicWrapper;
+
+/**
+ * Loads topic revisions from PressGang, making sure each topic revision is only downloaded once no matter how many times it is
+ * requested. Topic revisions can be requested up front, so that they are downloaded concurrently by an executor while the caller
+ * works through the results.
+ */
+public class TopicRevisionLoader {
+    private final TopicProvider topicProvider;
+    private final TopicRevisionCache topicCache;
+    private final ExecutorService executor;
+    private final Map<String, Future<TopicWrapper>> topics = new HashMap<String, Future<TopicWrapper>>();
+
+    /**
+     * @param topicProvider The provider to download the topics with.
+     * @param topicCache    The cache of topic revisions that have been downloaded by earlier syncs.
+     * @param executor      The executor to download the topics with, or null to download each topic when it is first needed.
+     */
+    public TopicRevisionLoader(final TopicProvider topicProvider, final TopicRevisionCache topicCache, final ExecutorService executor) {
+        this.topicProvider = topicProvider;
+        this.topicCache = topicCache;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts downloading a topic revision, if it hasn't already been requested.
+     *
+     * @param topicId       The id of the topic.
+     * @param topicRevision The revision of the topic, or null for the latest revision.
+     */
+    public synchronized void request(final Integer topicId, final Integer topicRevision) {
+        final String key = getKey(topicId, topicRevision);
+        if (!topics.containsKey(key)) {
+            final Callable<TopicWrapper> task = new Callable<TopicWrapper>() {
+                @Override
+                public TopicWrapper call() throws Exception {
+                    return topicCache.getTopic(topicProvider, topicId, topicRevision);
+                }
+            };
+
+            if (executor == null) {
+                topics.put(key, new FutureTask<TopicWrapper>(task));
+            } else {
+                topics.put(key, executor.submit(LoggingContext.wrap(task)));
+            }
+        }
+    }
+
+    /**
+     * Gets a topic revision, waiting for it to be downloaded if it was requested earlier.
+     *
+     * @param topicId       The id of the topic.
+     * @param topicRevision The revision of the topic, or null for the latest revision.
+     * @return The topic revision.
+     */
+    public TopicWrapper getTopic(final Integer topicId, final Integer topicRevision) {
+        final Future<TopicWrapper> future;
+        synchronized (this) {
+            request(topicId, topicRevision);
+            future = topics.get(getKey(topicId, topicRevision));
+        }
+
+        if (future instanceof FutureTask && !future.isDone()) {
+            ((FutureTask<TopicWrapper>) future).run();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading topic " + getKey(topicId, topicRevision), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return The number of distinct topic revisions that have been requested.
+     */
+    public synchronized int size() {
+        return topics.size();
+    }
+
+    /**
+     * Cancels any downloads that haven't finished.
+     */
+    public synchronized void cancel() {
+        for (final Future<TopicWrapper> future : topics.values()) {
+            future.cancel(true);
+        }
+    }
+
+    protected String getKey(final Integer topicId, final Integer topicRevision) {
+        return topicId + "-" + topicRevision;
+    }
+}
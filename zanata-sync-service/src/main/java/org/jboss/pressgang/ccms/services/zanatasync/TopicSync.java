@@ -21,14 +21,26 @@ package org.jboss.pressgang.ccms.services.zanatasync;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import org.jboss.pressgang.ccms.contentspec.structures.XMLFormatProperties;
 import org.jboss.pressgang.ccms.contentspec.utils.EntityUtilities;
@@ -54,6 +66,7 @@ import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
 import org.jboss.pressgang.ccms.wrapper.collection.CollectionWrapper;
 import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
 import org.jboss.pressgang.ccms.zanata.NotModifiedException;
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
 import org.jboss.pressgang.ccms.zanata.ZanataInterface;
 import org.jboss.pressgang.ccms.zanata.ZanataTranslation;
 import org.slf4j.Logger;
@@ -67,18 +80,24 @@ import org.zanata.rest.dto.resource.TextFlowTarget;
 import org.zanata.rest.dto.resource.TranslationsResource;
 
 public class TopicSync extends BaseZanataSync {
-    private static int MAX_DOWNLOAD_SIZE = 250;
     private static final Logger log = LoggerFactory.getLogger(TopicSync.class);
     protected final XMLFormatProperties xmlFormatProperties = new XMLFormatProperties();
     private final int contentSpecTagId;
+    private TextFlowWordCounter wordCounter = null;
+    private TranslatedTopicBatcher translatedTopicBatcher = null;
 
     public TopicSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
             final ServerSettingsWrapper serverSettings) {
-        super(providerFactory, zanataInterface);
+        this(providerFactory, zanataInterface, serverSettings, new SyncContext());
+    }
+
+    public TopicSync(final DataProviderFactory providerFactory, final ZanataInterface zanataInterface,
+            final ServerSettingsWrapper serverSettings, final SyncContext syncContext) {
+        super(providerFactory, zanataInterface, syncContext);
 
         contentSpecTagId = serverSettings.getEntities().getContentSpecTagId();
-        final StringConstantWrapper xmlElementsProperties = providerFactory.getProvider(StringConstantProvider.class)
-                .getStringConstant(serverSettings.getEntities().getXmlFormattingStringConstantId());
+        final StringConstantWrapper xmlElementsProperties = syncContext.getStringConstant(providerFactory.getProvider(
+                StringConstantProvider.class), serverSettings.getEntities().getXmlFormattingStringConstantId());
 
         /*
          * Get the XML formatting details. These are used to pretty-print the XML when it is converted into a String.
@@ -100,136 +119,532 @@ public class TopicSync extends BaseZanataSync {
     }
 
     @Override
-    public void processZanataResources(final Set<String> zanataIds, final List<LocaleId> locales) {
-        if (zanataIds == null || zanataIds.isEmpty() || locales == null || locales.isEmpty()) {
+    public void processZanataIds(final Collection<ZanataId> allZanataIds, final List<LocaleId> locales) {
+        if (allZanataIds == null || allZanataIds.isEmpty() || locales == null || locales.isEmpty()) {
             return;
         }
 
         // Validate and remove any invalid zanata ids
-        validateZanataIds(zanataIds);
+        final List<ZanataId> zanataIds = validateZanataIds(allZanataIds);
 
-        final TranslatedTopicProvider translatedTopicProvider = getProviderFactory().getProvider(TranslatedTopicProvider.class);
-        final double resourceSize = zanataIds.size() * locales.size();
+        final double resourceSize = zanataIds.size();
         double resourceCount = 0;
 
-        // Get all the existing translated topics for the zanata ids
-        Map<String, Map<LocaleId, TranslatedTopicWrapper>> allTranslatedTopics = null;
+        /*
+         * Stream the zanata ids through in chunks. Each chunk is fetched from Zanata, has its existing translated topics downloaded
+         * and is synced before the next chunk starts, so the memory used is bound by the chunk size rather than the project size.
+         */
+        final int chunkSize = Math.max(1, getSyncContext().getDownloadChunkSize());
+        final List<ZanataId> chunk = new ArrayList<ZanataId>(Math.min(chunkSize, zanataIds.size()));
+        final Iterator<ZanataId> iter = zanataIds.iterator();
+
+        // Save the translated topics in batches if requested
+        if (getSyncContext().getPersistBatchSize() > 1) {
+            translatedTopicBatcher = new TranslatedTopicBatcher(getProviderFactory().getProvider(TranslatedTopicProvider.class),
+                    getSyncContext().getSyncStateStore(), getZanataDetails(), getMetrics(), getSyncContext().getPersistBatchSize(),
+                    getSyncContext().getPersistFlushInterval(), TranslatedTopicBatcher.DEFAULT_MAX_RETRIES);
+            translatedTopicBatcher.start();
+        }
+
         try {
-            allTranslatedTopics = getTranslatedTopics(zanataIds, locales);
+            while (iter.hasNext()) {
+                chunk.add(iter.next());
+                if (chunk.size() == chunkSize || !iter.hasNext()) {
+                    final long progress = Math.round(resourceCount / resourceSize * 100.0);
+                    setProgress(progress);
+                    resourceCount += chunk.size();
+
+                    processZanataResourceChunk(chunk, locales, progress);
+                    chunk.clear();
+                }
+            }
+        } finally {
+            if (translatedTopicBatcher != null) {
+                // Stop the background flushes and save anything still waiting
+                translatedTopicBatcher.stop();
+                log.info("Saved " + translatedTopicBatcher.getSavedCount() + " translated topics in batches. " +
+                        translatedTopicBatcher.getFailedCount() + " translated topics failed to save.");
+                translatedTopicBatcher = null;
+            }
+        }
+
+        log.info("100% Finished synchronising all Topic translations");
+    }
+
+    /**
+     * Syncs a chunk of Zanata resources. The translations are fetched from Zanata first, so that the existing translated topics
+     * only need to be downloaded from PressGang for the resources that have changed.
+     *
+     * @param zanataIds The Zanata IDs in the chunk.
+     * @param locales   The locales to sync.
+     * @param progress  The sync progress at the start of the chunk.
+     */
+    protected void processZanataResourceChunk(final List<ZanataId> zanataIds, final List<LocaleId> locales, final long progress) {
+        // Only use a pipeline if the pipeline executor has threads free for its stages, otherwise fall back to syncing in order
+        final Semaphore pipelinePermits = getSyncContext().getPipelinePermits();
+        if (getSyncContext().getPipelineExecutor() != null && pipelinePermits.tryAcquire()) {
+            try {
+                // Overlap the translation fetches, source fetches, merging and saving of the resources
+                new TopicSyncPipeline(this, getSyncContext().getPipelineExecutor(), getSyncContext().getPipelineQueueSize()).process(
+                        zanataIds, locales, progress);
+            } finally {
+                pipelinePermits.release();
+            }
+            return;
+        }
+
+        // Get the translations that have changed since they were last synced
+        final Map<ZanataId, Map<LocaleId, FetchedTranslation>> changedTranslations = fetchChangedTranslations(zanataIds, locales,
+                progress);
+        if (changedTranslations.isEmpty()) {
+            return;
+        }
+
+        // Get all the existing translated topics for the changed zanata ids
+        final Map<String, Map<LocaleId, TranslatedTopicWrapper>> allTranslatedTopics;
+        try {
+            allTranslatedTopics = getTranslatedTopics(changedTranslations.keySet(), locales);
         } catch (Exception e) {
-            log.debug("Failed to download all the existing translated topics", e);
+            log.error("Failed to download the existing translated topics", e);
             return;
         }
 
-        for (final String zanataId : zanataIds) {
+        for (final Map.Entry<ZanataId, Map<LocaleId, FetchedTranslation>> entry : changedTranslations.entrySet()) {
+            final ZanataId zanataId = entry.getKey();
             try {
-                // The original Zanata Document Text Resources. This will be populated later.
-                Resource originalTextResource = null;
+                syncZanataResource(zanataId, entry.getValue(), allTranslatedTopics.get(zanataId.toString()), progress);
+            } catch (final Exception ex) {
+                // Error with the resource
+                log.error("Failed to sync Zanata ID " + zanataId, ex);
+            }
+        }
+    }
 
-                final Map<LocaleId, TranslatedTopicWrapper> translatedTopics = allTranslatedTopics.get(zanataId);
-                for (final LocaleId locale : locales) {
-                    try {
-                        // Work out progress
-                        long localeProgress = Math.round(resourceCount / resourceSize * 100.0);
-                        setProgress(localeProgress);
-                        resourceCount++;
-
-                        // Check that the locale is still valid. ie It hasn't been removed in the locale manager
-                        if (!getZanataInterface().getZanataLocales().contains(locale)) {
-                            continue;
-                        }
+    /**
+     * Downloads the existing translated topics for a set of changed Zanata resources.
+     *
+     * @param zanataIds The Zanata IDs of the changed resources.
+     * @param locales   The locales to download the translated topics for.
+     * @return The existing translated topics for each Zanata ID and locale.
+     */
+    protected Map<String, Map<LocaleId, TranslatedTopicWrapper>> getTranslatedTopics(final Collection<ZanataId> zanataIds,
+            final List<LocaleId> locales) {
+        final Set<String> changedZanataIds = new LinkedHashSet<String>();
+        for (final ZanataId zanataId : zanataIds) {
+            changedZanataIds.add(zanataId.toString());
+        }
+        return getTranslatedTopics(changedZanataIds, locales);
+    }
+
+    /**
+     * Fetches the translations for a set of Zanata resources, and filters out any that haven't changed since they were last
+     * synced. Translations whose Zanata statistics haven't changed since they were last synced aren't fetched at all.
+     *
+     * @param zanataIds The Zanata IDs to fetch the translations for.
+     * @param locales   The locales to fetch.
+     * @param progress  The current sync progress, used for logging.
+     * @return The changed translations for each Zanata ID, in the same order as the ids and locales.
+     */
+    protected Map<ZanataId, Map<LocaleId, FetchedTranslation>> fetchChangedTranslations(final List<ZanataId> zanataIds,
+            final List<LocaleId> locales, final long progress) {
+        final Map<ZanataId, Map<LocaleId, FetchedTranslation>> retValue = new LinkedHashMap<ZanataId,
+                Map<LocaleId, FetchedTranslation>>();
+        try {
+            fetchChangedTranslations(zanataIds, locales, progress, new ChangedTranslationHandler() {
+                @Override
+                public void changed(final ZanataId zanataId, final Map<LocaleId, FetchedTranslation> translations) {
+                    retValue.put(zanataId, translations);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-                        log.info(localeProgress + "% Synchronising " + zanataId + " for locale " + locale.toString());
+        return retValue;
+    }
 
-                        // Find a translation
-                        final TranslationsResource translationsResource;
-                        try {
-                            translationsResource = getZanataInterface().getTranslations(zanataId, locale);
-                        } catch (NotModifiedException e) {
-                            // The translation hasn't been modified so move to the next locale
-                            log.info(localeProgress + "% No changes were found for " + zanataId + " locale " + locale);
-                            continue;
-                        }
+    /**
+     * Fetches the translations for a set of Zanata resources, and passes on each resource that has changed since it was last
+     * synced as soon as its locales have been checked. Translations whose Zanata statistics haven't changed since they were last
+     * synced aren't fetched at all.
+     *
+     * @param zanataIds The Zanata IDs to fetch the translations for.
+     * @param locales   The locales to fetch.
+     * @param progress  The current sync progress, used for logging.
+     * @param handler   The handler to pass the changed translations of each resource to, in the same order as the ids.
+     * @throws InterruptedException Thrown if the thread was interrupted while waiting on a fetch or the handler.
+     */
+    protected void fetchChangedTranslations(final List<ZanataId> zanataIds, final List<LocaleId> locales, final long progress,
+            final ChangedTranslationHandler handler) throws InterruptedException {
+        final SyncStateStore stateStore = getSyncContext().getSyncStateStore();
+        final boolean skipUnchanged = stateStore != null && !getSyncContext().isFullSync();
+        final ZanataDetails zanataDetails = getZanataDetails();
 
-                        // Check that a translation exists
-                        if (translationsResource != null) {
-                            if (originalTextResource == null) {
-                                // find the original resource
-                                originalTextResource = getZanataInterface().getZanataResource(zanataId);
-                            }
+        /*
+         * Only fetch a few resources ahead of the one being checked, so that the number of fetches waiting on the locale executor,
+         * and the translations they hold on to, stays bounded no matter how large the chunk is.
+         */
+        final int maxPendingIds = Math.max(1, getSyncContext().getMaxPendingFetches() / Math.max(1, locales.size()));
+        final Map<ZanataId, Map<LocaleId, Future<FetchedTranslation>>> pendingTranslationFutures = new LinkedHashMap<ZanataId,
+                Map<LocaleId, Future<FetchedTranslation>>>();
+        final Iterator<ZanataId> zanataIdIter = zanataIds.iterator();
 
-                            // The translated topic to store the results
-                            final TranslatedTopicWrapper translatedTopic;
-                            if (translatedTopics != null && translatedTopics.containsKey(locale)) {
-                                translatedTopic = translatedTopics.get(locale);
-                            } else {
-                                translatedTopic = createTranslatedTopic(zanataId, locale);
-                            }
-                            boolean newTranslation = translatedTopic.getId() == null;
-
-                            if (translatedTopic != null) {
-                                boolean changed = false;
-
-                                // Sync the changes to XML
-                                if (syncTranslatedTopic(translatedTopic, originalTextResource, translationsResource)) {
-                                    changed = true;
-                                }
-
-                                // Only save the data if the content has changed
-                                if (newTranslation || changed) {
-                                    // Apply anything that may have changed
-                                    translatedTopic.setXml(translatedTopic.getXml());
-                                    translatedTopic.setTranslatedTopicStrings(translatedTopic.getTranslatedTopicStrings());
-                                    translatedTopic.setTranslationPercentage(translatedTopic.getTranslationPercentage());
-
-                                    // Save all the changed Translated Topic Datas
-                                    if (newTranslation) {
-                                        translatedTopicProvider.createTranslatedTopic(translatedTopic);
-                                    } else {
-                                        translatedTopicProvider.updateTranslatedTopic(translatedTopic);
-                                    }
-
-                                    log.info(localeProgress + "% Finished synchronising translations for " + zanataId + " locale " +
-                                            locale);
-                                } else {
-                                    log.info(localeProgress + "% No changes were found for " + zanataId + " locale " + locale);
-                                }
+        try {
+            while (true) {
+                // Top up the fetches that are running ahead
+                while (pendingTranslationFutures.size() < maxPendingIds && zanataIdIter.hasNext()) {
+                    final ZanataId zanataId = zanataIdIter.next();
+                    if (pendingTranslationFutures.containsKey(zanataId)) {
+                        continue;
+                    }
+
+                    // Don't ask Zanata for anything if the statistics show that no locale has changed since the last sync
+                    final List<LocaleId> outOfDateLocales = getOutOfDateLocales(zanataId, locales);
+                    if (outOfDateLocales.isEmpty()) {
+                        log.info(progress + "% No changes were found for " + zanataId + " since the last sync");
+                    } else {
+                        pendingTranslationFutures.put(zanataId, fetchTranslations(zanataId, outOfDateLocales));
+                    }
+                }
+                if (pendingTranslationFutures.isEmpty()) {
+                    break;
+                }
+
+                // Take the oldest pending resource
+                final Iterator<Map.Entry<ZanataId, Map<LocaleId, Future<FetchedTranslation>>>> pendingIter =
+                        pendingTranslationFutures.entrySet().iterator();
+                final Map.Entry<ZanataId, Map<LocaleId, Future<FetchedTranslation>>> entry = pendingIter.next();
+                pendingIter.remove();
+
+                final ZanataId zanataId = entry.getKey();
+                final Map<LocaleId, FetchedTranslation> changed = new LinkedHashMap<LocaleId, FetchedTranslation>();
+
+                for (final Map.Entry<LocaleId, Future<FetchedTranslation>> localeEntry : entry.getValue().entrySet()) {
+                    final LocaleId locale = localeEntry.getKey();
+                    try {
+                        // Find a translation
+                        final FetchedTranslation fetchedTranslation = getTranslationsResult(localeEntry.getValue());
+                        getMetrics().increment(SyncMetrics.TRANSLATIONS_FETCHED);
+
+                        if (fetchedTranslation == null) {
+                            log.info(progress + "% No translations found for " + zanataId + " locale " + locale);
+                        } else if (fetchedTranslation.isNotModified()) {
+                            // The translation hasn't been modified so move to the next locale
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_NOT_MODIFIED);
+                            log.info(progress + "% No changes were found for " + zanataId + " locale " + locale);
+                            if (skipUnchanged) {
+                                stateStore.recordUnchanged(zanataDetails, zanataId.toString(), locale, fetchedTranslation.getETag(),
+                                        fetchedTranslation.getStatisticsSignature());
                             }
+                        } else if (skipUnchanged && stateStore.isUnchanged(zanataDetails, zanataId.toString(), locale,
+                                fetchedTranslation.getContentHash())) {
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_UNCHANGED);
+                            log.info(progress + "% No changes were found for " + zanataId + " locale " + locale + " since the last " +
+                                    "sync");
+                            stateStore.recordUnchanged(zanataDetails, zanataId.toString(), locale, fetchedTranslation.getETag(),
+                                    fetchedTranslation.getStatisticsSignature());
                         } else {
-                            log.info(localeProgress + "% No translations found for " + zanataId + " locale " + locale);
+                            getMetrics().increment(SyncMetrics.TRANSLATIONS_CHANGED);
+                            changed.put(locale, fetchedTranslation);
                         }
+                    } catch (final InterruptedException e) {
+                        throw e;
                     } catch (final Exception ex) {
                         // Error with the locale
-                        log.error("Failed to sync Locale " + locale.toString() + " for Zanata ID " + zanataId, ex);
+                        log.error("Failed to retrieve Locale " + locale.toString() + " for Zanata ID " + zanataId, ex);
                     }
                 }
+
+                if (!changed.isEmpty()) {
+                    handler.changed(zanataId, changed);
+                }
+            }
+        } finally {
+            // Make sure nothing is left running if the chunk failed part way through
+            for (final Map<LocaleId, Future<FetchedTranslation>> translationFutures : pendingTranslationFutures.values()) {
+                for (final Future<FetchedTranslation> future : translationFutures.values()) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs the changed translations of a single Zanata resource into PressGang.
+     *
+     * @param zanataId         The Zanata ID of the resource.
+     * @param translations     The changed translations for each locale.
+     * @param translatedTopics The existing translated topics for each locale, or null if none exist.
+     * @param progress         The current sync progress, used for logging.
+     */
+    protected void syncZanataResource(final ZanataId zanataId, final Map<LocaleId, FetchedTranslation> translations,
+            final Map<LocaleId, TranslatedTopicWrapper> translatedTopics, final long progress) {
+        // find the original resource. This is shared between all locales.
+        final Resource originalTextResource = getZanataInterface().getZanataResource(zanataId.toString());
+
+        for (final Map.Entry<LocaleId, FetchedTranslation> entry : translations.entrySet()) {
+            final LocaleId locale = entry.getKey();
+            final FetchedTranslation fetchedTranslation = entry.getValue();
+            try {
+                log.info(progress + "% Synchronising " + zanataId + " for locale " + locale.toString());
+
+                // The translated topic to store the results
+                final TranslatedTopicWrapper translatedTopic = getOrCreateTranslatedTopic(zanataId, locale, translatedTopics);
+
+                if (translatedTopic != null) {
+                    final boolean save = mergeTranslation(zanataId, locale, translatedTopic, originalTextResource, fetchedTranslation);
+                    persistTranslation(zanataId, locale, translatedTopic, fetchedTranslation, save, progress);
+                }
             } catch (final Exception ex) {
-                // Error with the resource
-                log.error("Failed to sync Zanata ID " + zanataId, ex);
+                // Error with the locale
+                log.error("Failed to sync Locale " + locale.toString() + " for Zanata ID " + zanataId, ex);
             }
         }
+    }
 
-        log.info("100% Finished synchronising all Topic translations");
+    /**
+     * Gets the existing translated topic for a locale, or creates a new one if it doesn't exist.
+     *
+     * @param zanataId         The Zanata ID of the resource.
+     * @param locale           The locale of the translated topic.
+     * @param translatedTopics The existing translated topics for each locale, or null if none exist.
+     * @return The translated topic to store the results in.
+     */
+    protected TranslatedTopicWrapper getOrCreateTranslatedTopic(final ZanataId zanataId, final LocaleId locale,
+            final Map<LocaleId, TranslatedTopicWrapper> translatedTopics) {
+        if (translatedTopics != null && translatedTopics.containsKey(locale)) {
+            return translatedTopics.get(locale);
+        } else {
+            return createTranslatedTopic(zanataId, locale);
+        }
+    }
+
+    /**
+     * Merges the translations fetched from Zanata into a translated topic.
+     *
+     * @param zanataId             The Zanata ID of the resource.
+     * @param locale               The locale of the translated topic.
+     * @param translatedTopic      The translated topic to merge the translations into.
+     * @param originalTextResource The original resource pushed to Zanata.
+     * @param fetchedTranslation   The translations fetched from Zanata.
+     * @return True if the translated topic needs to be saved.
+     * @throws SAXException Thrown if the XML in the historical topic has invalid XML and can't be parsed.
+     */
+    protected boolean mergeTranslation(final ZanataId zanataId, final LocaleId locale, final TranslatedTopicWrapper translatedTopic,
+            final Resource originalTextResource, final FetchedTranslation fetchedTranslation) throws SAXException {
+        boolean newTranslation = translatedTopic.getId() == null;
+        boolean changed = false;
+
+        // Sync the changes to XML
+        final long start = System.nanoTime();
+        try {
+            if (syncTranslatedTopic(translatedTopic, originalTextResource, fetchedTranslation, getPreviousMergeFingerprint(zanataId,
+                    locale))) {
+                changed = true;
+            }
+        } finally {
+            getMetrics().recordTime(SyncMetrics.MERGE, start);
+        }
+
+        return newTranslation || changed;
+    }
+
+    /**
+     * Saves a merged translated topic to PressGang if it changed, and records that the translation has been synced.
+     *
+     * @param zanataId           The Zanata ID of the resource.
+     * @param locale             The locale of the translated topic.
+     * @param translatedTopic    The merged translated topic.
+     * @param fetchedTranslation The translations that were merged.
+     * @param save               Whether the translated topic needs to be saved.
+     * @param progress           The current sync progress, used for logging.
+     */
+    protected void persistTranslation(final ZanataId zanataId, final LocaleId locale, final TranslatedTopicWrapper translatedTopic,
+            final FetchedTranslation fetchedTranslation, final boolean save, final long progress) {
+        final TranslatedTopicProvider translatedTopicProvider = getProviderFactory().getProvider(TranslatedTopicProvider.class);
+        final SyncStateStore stateStore = getSyncContext().getSyncStateStore();
+
+        // Only save the data if the content has changed
+        if (save) {
+            // Apply anything that may have changed
+            translatedTopic.setXml(translatedTopic.getXml());
+            translatedTopic.setTranslatedTopicStrings(translatedTopic.getTranslatedTopicStrings());
+            translatedTopic.setTranslationPercentage(translatedTopic.getTranslationPercentage());
+
+            // Queue the translated topic to be saved with the rest of its batch. The batcher records the state once it's saved.
+            if (translatedTopicBatcher != null) {
+                translatedTopicBatcher.add(zanataId.toString(), locale, translatedTopic, fetchedTranslation);
+                log.info(progress + "% Finished synchronising translations for " + zanataId + " locale " + locale);
+                return;
+            }
+
+            // Save all the changed Translated Topic Datas
+            final long start = System.nanoTime();
+            try {
+                if (translatedTopic.getId() == null) {
+                    translatedTopicProvider.createTranslatedTopic(translatedTopic);
+                } else {
+                    translatedTopicProvider.updateTranslatedTopic(translatedTopic);
+                }
+            } catch (RuntimeException e) {
+                getMetrics().increment(SyncMetrics.TOPICS_FAILED);
+                throw e;
+            } finally {
+                getMetrics().recordTime(SyncMetrics.PERSIST, start);
+            }
+            getMetrics().increment(SyncMetrics.TOPICS_SAVED);
+
+            log.info(progress + "% Finished synchronising translations for " + zanataId + " locale " + locale);
+        } else {
+            getMetrics().increment(SyncMetrics.TOPICS_UNCHANGED);
+            log.info(progress + "% No changes were found for " + zanataId + " locale " + locale);
+        }
+
+        // Remember what was synced, so it can be skipped next time
+        if (stateStore != null) {
+            stateStore.record(getZanataDetails(), zanataId.toString(), locale, translatedTopic.getTranslationPercentage(),
+                    fetchedTranslation);
+        }
+    }
+
+    /**
+     * Starts fetching the translations of a Zanata resource for a set of locales. If the sync context has a locale executor, then
+     * all the locales are fetched concurrently, otherwise each locale is fetched when its result is first requested.
+     * <p/>
+     * Each fetch also hashes the translations and captures the ETag Zanata returned, so that work is done on the locale executor.
+     *
+     * @param zanataId The Zanata ID of the resource to fetch the translations for.
+     * @param locales  The locales to fetch the translations for.
+     * @return A map of locales to their pending translations, in the same order as the locales. Locales that are no longer
+     *         valid in the locale manager are not included.
+     */
+    protected Map<LocaleId, Future<FetchedTranslation>> fetchTranslations(final ZanataId zanataId, final List<LocaleId> locales) {
+        final ExecutorService executor = getSyncContext().getLocaleExecutor();
+        final ZanataLocaleSet zanataLocales = getZanataLocales();
+        final Map<LocaleId, Future<FetchedTranslation>> retValue = new LinkedHashMap<LocaleId, Future<FetchedTranslation>>();
+
+        for (final LocaleId locale : locales) {
+            // Check that the locale is still valid. ie It hasn't been removed in the locale manager
+            if (!zanataLocales.contains(locale)) {
+                continue;
+            }
+
+            // Use the statistics from before the fetch, so a change made while fetching is picked up by the next sync
+            final String statisticsSignature = getStatisticsSignature(zanataId, locale);
+            final Callable<FetchedTranslation> task = new Callable<FetchedTranslation>() {
+                @Override
+                public FetchedTranslation call() throws Exception {
+                    final long start = System.nanoTime();
+                    final TranslationsResource translationsResource;
+                    try {
+                        translationsResource = getZanataInterface().getTranslations(zanataId.toString(), locale);
+                    } catch (NotModifiedException e) {
+                        return FetchedTranslation.notModified(ETagCacheLockInterceptor.getLastETag(), statisticsSignature);
+                    } finally {
+                        getMetrics().recordTime(SyncMetrics.ZANATA_FETCH, start);
+                    }
+
+                    if (translationsResource == null) {
+                        return null;
+                    } else {
+                        return new FetchedTranslation(translationsResource, SyncStateStore.hashTranslations(translationsResource),
+                                ETagCacheLockInterceptor.getLastETag(), statisticsSignature);
+                    }
+                }
+            };
+
+            if (executor == null) {
+                retValue.put(locale, new FutureTask<FetchedTranslation>(task));
+            } else {
+                retValue.put(locale, executor.submit(LoggingContext.wrap(task)));
+            }
+        }
+
+        return retValue;
+    }
+
+    /**
+     * Waits for a pending translation fetch to complete, running it on the current thread if it hasn't been started.
+     *
+     * @param future The pending translation fetch.
+     * @return The fetched translations, or null if no translations exist.
+     * @throws Exception Any exception thrown while fetching the translations.
+     */
+    protected FetchedTranslation getTranslationsResult(final Future<FetchedTranslation> future) throws Exception {
+        if (future instanceof FutureTask && !future.isDone()) {
+            ((FutureTask<FetchedTranslation>) future).run();
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            } else {
+                throw e;
+            }
+        }
     }
 
     /**
      * Validate and remove any invalid zanata ids
      *
-     * @param zanataIds The set of zanata ids to be validated
+     * @param zanataIds The zanata ids to be validated
+     * @return The valid zanata ids, in the same order.
      */
-    protected void validateZanataIds(final Set<String> zanataIds) {
-        final Iterator<String> iter = zanataIds.iterator();
-        while (iter.hasNext()) {
-            final String zanataId = iter.next();
-            if (!zanataId.matches("^\\d+-\\d+(-\\d+)?$")) {
+    protected List<ZanataId> validateZanataIds(final Collection<ZanataId> zanataIds) {
+        final List<ZanataId> retValue = new ArrayList<ZanataId>(zanataIds.size());
+        for (final ZanataId zanataId : zanataIds) {
+            if (zanataId.isTopic()) {
+                retValue.add(zanataId);
+            } else {
                 log.info("Skipping " + zanataId + " as it isn't a Translated Topic");
-                iter.remove();
             }
         }
+        return retValue;
     }
 
     protected boolean syncTranslatedTopic(final TranslatedTopicWrapper translatedTopic, final Resource originalTextResource,
             final TranslationsResource translationsResource) throws SAXException {
+        return syncTranslatedTopic(translatedTopic, originalTextResource, new FetchedTranslation(translationsResource, null), null);
+    }
+
+    /**
+     * Gets the fingerprint of the strings that were merged the last time a translation was synced. Nothing is returned when doing
+     * a full sync, so that every translated topic is rebuilt.
+     *
+     * @param zanataId The Zanata ID of the resource.
+     * @param locale   The locale of the translation.
+     * @return The previous merge fingerprint, or null if it isn't known.
+     */
+    protected String getPreviousMergeFingerprint(final ZanataId zanataId, final LocaleId locale) {
+        final SyncStateStore stateStore = getSyncContext().getSyncStateStore();
+        if (stateStore == null || getSyncContext().isFullSync()) {
+            return null;
+        }
+
+        final SyncStateStore.Entry entry = stateStore.get(getZanataDetails(), zanataId.toString(), locale);
+        return entry == null ? null : entry.getMergeFingerprint();
+    }
+
+    /**
+     * Merges the translations into a translated topic's XML and strings.
+     * <p/>
+     * A fingerprint of the (text flow id, translation, fuzzy) values being merged is stored on the fetched translation. If it
+     * matches the fingerprint from the last sync, then the translated topic already holds the same strings and its XML is not
+     * rebuilt. This is common when only the review state of some strings changed in Zanata.
+     *
+     * @param translatedTopic      The translated topic to merge the translations into.
+     * @param originalTextResource The original resource pushed to Zanata.
+     * @param fetchedTranslation   The translations fetched from Zanata.
+     * @param previousFingerprint  The fingerprint from the last sync of the translated topic, or null to always rebuild the XML.
+     * @return True if the translated topic changed.
+     * @throws SAXException Thrown if the XML in the historical topic has invalid XML and can't be parsed.
+     */
+    protected boolean syncTranslatedTopic(final TranslatedTopicWrapper translatedTopic, final Resource originalTextResource,
+            final FetchedTranslation fetchedTranslation, final String previousFingerprint) throws SAXException {
+        final TranslationsResource translationsResource = fetchedTranslation.getTranslationsResource();
+        final MessageDigest fingerprintDigest = SyncStateStore.createDigest();
         boolean changed = false;
 
         // Set the current xml of the translated topic data so we can see if it has changed
@@ -238,24 +653,31 @@ public class TopicSync extends BaseZanataSync {
         // a mapping of the original strings to their translations
         final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
 
-        final List<TextFlowTarget> textFlowTargets = translationsResource.getTextFlowTargets();
+        final TextFlowTargetIndex textFlowTargets = new TextFlowTargetIndex(translationsResource);
         final List<TextFlow> textFlows = originalTextResource.getTextFlows();
+        final TextFlowWordCounter wordCounter = getWordCounter(originalTextResource);
 
         double wordCount = 0;
-        double totalWordCount = 0;
+        double totalWordCount = wordCounter.getTotalWordCount();
 
         // map the translation to the original resource
         for (final TextFlow textFlow : textFlows) {
-            for (final TextFlowTarget textFlowTarget : textFlowTargets) {
-                if (textFlowTarget.getResId().equals(textFlow.getId()) && !textFlowTarget.getContent().isEmpty()) {
-                    translationDetails.put(textFlow.getContent(), new ZanataTranslation(textFlowTarget));
-                    wordCount += textFlow.getContent().split(" ").length;
-                    break;
-                }
+            final TextFlowTarget textFlowTarget = textFlowTargets.getTarget(textFlow.getId());
+            if (textFlowTarget != null) {
+                final ZanataTranslation translation = new ZanataTranslation(textFlowTarget);
+                translationDetails.put(textFlow.getContent(), translation);
+                wordCount += wordCounter.getWordCount(textFlow);
+                updateFingerprint(fingerprintDigest, textFlow.getId(), translation.getTranslation(), translation.isFuzzy());
             }
-            totalWordCount += textFlow.getContent().split(" ").length;
         }
 
+        // The translated topic id and source document settings are included, so a recreated topic or changed condition is rebuilt
+        updateFingerprint(fingerprintDigest, String.valueOf(translatedTopic.getId()), translatedTopic.getTranslatedXMLCondition(),
+                false);
+        updateFingerprint(fingerprintDigest, translatedTopic.getCustomEntities(), null, false);
+        final String fingerprint = SyncStateStore.toHex(fingerprintDigest);
+        fetchedTranslation.setMergeFingerprint(fingerprint);
+
         // Set the translation completion status
         int translationPercentage = (int) (wordCount / totalWordCount * 100.0f);
         if (translatedTopic.getTranslationPercentage() == null || translationPercentage != translatedTopic.getTranslationPercentage()) {
@@ -267,6 +689,10 @@ public class TopicSync extends BaseZanataSync {
         if (translatedTopic.hasTag(contentSpecTagId)) {
             // Ignore syncing Content Specs
             return false;
+        } else if (fingerprint.equals(previousFingerprint) && translatedTopic.getId() != null && translatedTopic.getXml() != null) {
+            // The same strings were merged last time, so the XML won't change
+            getMetrics().increment(SyncMetrics.MERGES_SKIPPED);
+            return changed;
         } else {
             if (processTranslatedTopicXML(translatedTopic, translationDetails)) {
                 changed = true;
@@ -281,6 +707,36 @@ public class TopicSync extends BaseZanataSync {
         return changed;
     }
 
+    /**
+     * Adds a single merged string to a merge fingerprint.
+     */
+    private static void updateFingerprint(final MessageDigest digest, final String id, final String translation, final boolean fuzzy) {
+        try {
+            digest.update(String.valueOf(id).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(translation).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update((byte) (fuzzy ? '1' : '0'));
+            digest.update((byte) '\n');
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gets the word counts for a resource. The counts for the last resource are kept, since the same resource is synced for
+     * every locale.
+     *
+     * @param originalTextResource The original Zanata resource to get the word counts for.
+     * @return The word counts for the resource.
+     */
+    protected TextFlowWordCounter getWordCounter(final Resource originalTextResource) {
+        if (wordCounter == null || !wordCounter.isFor(originalTextResource)) {
+            wordCounter = new TextFlowWordCounter(originalTextResource);
+        }
+        return wordCounter;
+    }
+
     /**
      * Get all the Translated Topics for a list of Zanata Ids and Locales.
      *
@@ -290,49 +746,41 @@ public class TopicSync extends BaseZanataSync {
      */
     protected Map<String, Map<LocaleId, TranslatedTopicWrapper>> getTranslatedTopics(final Set<String> zanataIds,
             final List<LocaleId> locales) {
-        log.info("Downloading all the existing translated topics from PressGang...");
+        log.info("Downloading the existing translated topics for " + zanataIds.size() + " Zanata IDs from PressGang...");
         final TranslatedTopicProvider translatedTopicProvider = getProviderFactory().getProvider(TranslatedTopicProvider.class);
+        final int chunkSize = Math.max(1, getSyncContext().getDownloadChunkSize());
 
         // Get the translated topics in the CCMS
-        final List<TranslatedTopicWrapper> allTranslatedTopics = new ArrayList<TranslatedTopicWrapper>();
         final RESTTranslatedTopicQueryBuilderV1 queryBuilder = new RESTTranslatedTopicQueryBuilderV1();
         for (final LocaleId localeId : locales) {
             queryBuilder.setLocale(localeId.toString(), CommonFilterConstants.MATCH_LOCALE_STATE);
         }
 
-        if (zanataIds.size() > MAX_DOWNLOAD_SIZE) {
-            int start = 0;
-            while (start < zanataIds.size()) {
-                final List<String> subList = new LinkedList<String>(zanataIds)
-                        .subList(start, Math.min(start + MAX_DOWNLOAD_SIZE, zanataIds.size()));
-                queryBuilder.setZanataIds(subList);
+        // Page through the zanata ids, adding each page of translated topics to the return value as it arrives
+        final Map<String, Map<LocaleId, TranslatedTopicWrapper>> retValue = new HashMap<String, Map<LocaleId, TranslatedTopicWrapper>>();
+        final List<String> page = new ArrayList<String>(Math.min(chunkSize, zanataIds.size()));
+        final Iterator<String> iter = zanataIds.iterator();
+        while (iter.hasNext()) {
+            page.add(iter.next());
+            if (page.size() == chunkSize || !iter.hasNext()) {
+                queryBuilder.setZanataIds(new ArrayList<String>(page));
+                final long start = System.nanoTime();
                 final CollectionWrapper<TranslatedTopicWrapper> translatedTopics = translatedTopicProvider
                         .getTranslatedTopicsWithQuery(queryBuilder.getQuery());
+                getMetrics().recordTime(SyncMetrics.PRESSGANG_FETCH, start);
                 if (translatedTopics != null) {
-                    allTranslatedTopics.addAll(translatedTopics.getItems());
+                    for (final TranslatedTopicWrapper transTopic : translatedTopics.getItems()) {
+                        final String zanataId = transTopic.getZanataId();
+                        if (!retValue.containsKey(zanataId)) {
+                            retValue.put(zanataId, new HashMap<LocaleId, TranslatedTopicWrapper>());
+                        }
+                        retValue.get(zanataId).put(LocaleId.fromJavaName(transTopic.getLocale().getTranslationValue()), transTopic);
+                    }
                 }
-
-                start += MAX_DOWNLOAD_SIZE;
-            }
-        } else {
-            queryBuilder.setZanataIds(zanataIds);
-            final CollectionWrapper<TranslatedTopicWrapper> translatedTopics = translatedTopicProvider
-                    .getTranslatedTopicsWithQuery(queryBuilder.getQuery());
-            if (translatedTopics != null) {
-                allTranslatedTopics.addAll(translatedTopics.getItems());
+                page.clear();
             }
         }
 
-        // Populate the return value
-        final Map<String, Map<LocaleId, TranslatedTopicWrapper>> retValue = new HashMap<String, Map<LocaleId, TranslatedTopicWrapper>>();
-        for (final TranslatedTopicWrapper transTopic : allTranslatedTopics) {
-            final String zanataId = transTopic.getZanataId();
-            if (!retValue.containsKey(zanataId)) {
-                retValue.put(zanataId, new HashMap<LocaleId, TranslatedTopicWrapper>());
-            }
-            retValue.get(zanataId).put(LocaleId.fromJavaName(transTopic.getLocale().getTranslationValue()), transTopic);
-        }
-
         return retValue;
     }
 
@@ -343,18 +791,17 @@ public class TopicSync extends BaseZanataSync {
      * @param locale   The Locale for the new Translated Topic.
      * @return A new Translated Topic for the specified Zanata ID and Locale.
      */
-    protected TranslatedTopicWrapper createTranslatedTopic(final String zanataId, final LocaleId locale) {
+    protected TranslatedTopicWrapper createTranslatedTopic(final ZanataId zanataId, final LocaleId locale) {
         final TranslatedTopicProvider translatedTopicProvider = getProviderFactory().getProvider(TranslatedTopicProvider.class);
         final TopicProvider topicProvider = getProviderFactory().getProvider(TopicProvider.class);
         final LocaleProvider localeProvider = getProviderFactory().getProvider(LocaleProvider.class);
 
         // Get the id and revision from the zanata id
-        final String[] zanataNameSplit = zanataId.split("-");
-        final Integer topicId = Integer.parseInt(zanataNameSplit[0]);
-        final Integer topicRevision = Integer.parseInt(zanataNameSplit[1]);
+        final Integer topicId = zanataId.getId();
+        final Integer topicRevision = zanataId.getRevision();
 
         // We need the historical topic here as well.
-        final TopicWrapper historicalTopic = topicProvider.getTopic(topicId, topicRevision);
+        final TopicWrapper historicalTopic = getSyncContext().getTopicRevisionCache().getTopic(topicProvider, topicId, topicRevision);
 
         final TranslatedTopicWrapper translatedTopic = translatedTopicProvider.newTranslatedTopic();
         translatedTopic.setLocale(EntityUtilities.findTranslationLocaleFromString(localeProvider, locale.toString()));
@@ -378,13 +825,49 @@ public class TopicSync extends BaseZanataSync {
     protected boolean processTranslatedTopicXML(final TranslatedTopicWrapper translatedTopic,
             final Map<String, ZanataTranslation> translationDetails) throws SAXException {
         // Get a Document from the stored historical XML
+        final Document xml = getSourceDocument(translatedTopic);
+
+        return processTranslatedTopicXML(translatedTopic, xml, translationDetails);
+    }
+
+    /**
+     * Gets the prepared source document for a translated topic, from the shared cache if the same topic revision has already been
+     * prepared with the same condition and custom entities.
+     *
+     * @param translatedTopic The translated topic to get the source document for.
+     * @return A source document that the caller is free to modify.
+     * @throws org.xml.sax.SAXException Thrown if the XML in the historical topic has invalid XML and can't be parsed.
+     */
+    protected Document getSourceDocument(final TranslatedTopicWrapper translatedTopic) throws SAXException {
+        final SourceDocumentCache cache = getSyncContext().getSourceDocumentCache();
+        final SourceDocumentCache.Key key = new SourceDocumentCache.Key(getClass().getName(), translatedTopic.getTopicId(),
+                translatedTopic.getTopicRevision(), translatedTopic.getTranslatedXMLCondition(), translatedTopic.getCustomEntities());
+
+        final Document cachedXML = cache.get(key);
+        if (cachedXML != null) {
+            return cachedXML;
+        } else {
+            final Document xml = prepareSourceDocument(translatedTopic);
+            cache.put(key, xml);
+            return xml;
+        }
+    }
+
+    /**
+     * Parses the historical topic XML for a translated topic, and prepares it to have the translations applied.
+     *
+     * @param translatedTopic The translated topic to prepare the source document for.
+     * @return The prepared source document.
+     * @throws org.xml.sax.SAXException Thrown if the XML in the historical topic has invalid XML and can't be parsed.
+     */
+    protected Document prepareSourceDocument(final TranslatedTopicWrapper translatedTopic) throws SAXException {
         final Document xml = TopicUtilities
                 .convertXMLStringToDocument(translatedTopic.getTopic().getXml(), translatedTopic.getTopic().getXmlFormat());
 
         // Process any conditions
         DocBookUtilities.processConditions(translatedTopic.getTranslatedXMLCondition(), xml);
 
-        return processTranslatedTopicXML(translatedTopic, xml, translationDetails);
+        return xml;
     }
 
     /**
@@ -409,51 +892,47 @@ public class TopicSync extends BaseZanataSync {
         boolean changed = false;
 
         if (xml != null) {
-            final List<StringToNodeCollection> stringToNodeCollectionsV3 = DocBookUtilities.getTranslatableStringsV3(xml, false);
-            final List<StringToNodeCollection> stringToNodeCollectionsV2 = DocBookUtilities.getTranslatableStringsV2(xml, false);
-            final List<StringToNodeCollection> stringToNodeCollectionsV1 = DocBookUtilities.getTranslatableStringsV1(xml, false);
-
             // Used to hold the list of StringToNode's that match the translations pulled form Zanata
             final List<StringToNodeCollection> stringToNodeCollections = new ArrayList<StringToNodeCollection>();
-            // Used to hold a duplicate list of StringToNode's so we can remove the originals from the above List
-            final List<StringToNodeCollection> tempStringToNodeCollection = new ArrayList<StringToNodeCollection>();
-
-            // V3 Method
-            processNodes(stringToNodeCollectionsV3, translationDetails, stringToNodeCollections, tempStringToNodeCollection);
-            // V2 Method
-            processNodes(stringToNodeCollectionsV2, translationDetails, stringToNodeCollections, tempStringToNodeCollection);
-            // V1 Method
-            processNodes(stringToNodeCollectionsV1, translationDetails, stringToNodeCollections, tempStringToNodeCollection);
+            /*
+             * Used to check if a StringToNode has already been matched, without having to scan the above List. StringToNodeCollection
+             * only overrides equals() to compare the translation strings, so the translation strings are used as the keys.
+             */
+            final Set<String> matchedStrings = new HashSet<String>();
+            // Used to hold a duplicate set of StringToNode's so we can remove the originals from the above List
+            final Map<String, StringToNodeCollection> tempStringToNodeCollection = new LinkedHashMap<String, StringToNodeCollection>();
+
+            // Match the V3, V2 and then V1 strings, in that order of preference
+            for (final List<StringToNodeCollection> sourceStringToNodeCollections : getTranslatableStrings(xml)) {
+                processNodes(sourceStringToNodeCollections, translationDetails, stringToNodeCollections, matchedStrings,
+                        tempStringToNodeCollection);
+            }
 
             // Remove or update any existing translation strings
             if (translatedTopic.getTranslatedTopicStrings() != null && translatedTopic.getTranslatedTopicStrings().getItems() != null) {
                 for (final TranslatedTopicStringWrapper existingString : translatedTopic.getTranslatedTopicStrings().getItems()) {
                     boolean found = false;
 
-                    for (final StringToNodeCollection original : stringToNodeCollections) {
-                        final String originalText = original.getTranslationString();
+                    final String originalText = existingString.getOriginalString();
+                    final ZanataTranslation translation = matchedStrings.contains(originalText) ? translationDetails.get(originalText)
+                            : null;
 
-                        if (originalText.equals(existingString.getOriginalString())) {
-                            final ZanataTranslation translation = translationDetails.get(originalText);
+                    // Ensure that the Translation still exists in zanata
+                    if (translation != null) {
+                        found = true;
+                        tempStringToNodeCollection.remove(originalText);
 
-                            // Ensure that the Translation still exists in zanata
-                            if (translation != null) {
-                                found = true;
-                                tempStringToNodeCollection.remove(original);
+                        // Check the translations still match
+                        if (!translation.getTranslation().equals(existingString.getTranslatedString()) ||
+                                translation.isFuzzy() != existingString.isFuzzy()) {
+                            changed = true;
 
-                                // Check the translations still match
-                                if (!translation.getTranslation().equals(existingString.getTranslatedString()) ||
-                                        translation.isFuzzy() != existingString.isFuzzy()) {
-                                    changed = true;
+                            existingString.setTranslatedString(translation.getTranslation());
+                            existingString.setFuzzy(translation.isFuzzy());
 
-                                    existingString.setTranslatedString(translation.getTranslation());
-                                    existingString.setFuzzy(translation.isFuzzy());
-
-                                    translatedTopicStrings.addUpdateItem(existingString);
-                                } else {
-                                    translatedTopicStrings.addItem(existingString);
-                                }
-                            }
+                            translatedTopicStrings.addUpdateItem(existingString);
+                        } else {
+                            translatedTopicStrings.addItem(existingString);
                         }
                     }
 
@@ -467,7 +946,7 @@ public class TopicSync extends BaseZanataSync {
             }
 
             // Save the new strings to TranslatedTopicString entities
-            for (final StringToNodeCollection original : tempStringToNodeCollection) {
+            for (final StringToNodeCollection original : tempStringToNodeCollection.values()) {
                 final String originalText = original.getTranslationString();
                 final ZanataTranslation translation = translationDetails.get(originalText);
 
@@ -510,31 +989,45 @@ public class TopicSync extends BaseZanataSync {
         return changed;
     }
 
+    /**
+     * Gets the translatable strings for all the supported translation versions, ordered from the newest version (V3) to the
+     * oldest (V1). Strings from newer versions should be preferred when the versions overlap. All three versions are extracted in
+     * a single walk of the document.
+     *
+     * @param xml The XML document to get the translatable strings from.
+     * @return The translatable strings for each version.
+     */
+    protected List<List<StringToNodeCollection>> getTranslatableStrings(final Document xml) {
+        return TranslatableStringExtractor.extract(xml);
+    }
+
     /**
      * Process the string to node collections, to find any translations that exist for the original source content.
      *
      * @param sourceStringToNodeCollections The source string to nodes to check against.
      * @param translationDetails The translations to check against.
      * @param stringToNodeCollections A list of string to node collections that will be added to when new source nodes are matched.
+     * @param matchedStrings The translation strings of the string to node collections that have already been matched.
      * @param tempStringToNodeCollection
      */
     private void processNodes(final List<StringToNodeCollection> sourceStringToNodeCollections,
             final Map<String, ZanataTranslation> translationDetails, final List<StringToNodeCollection> stringToNodeCollections,
-            final List<StringToNodeCollection> tempStringToNodeCollection) {
+            final Set<String> matchedStrings, final Map<String, StringToNodeCollection> tempStringToNodeCollection) {
         // Add any StringToNode's that match the original translations
         for (final StringToNodeCollection stringToNodeCollection : sourceStringToNodeCollections) {
+            final String source = stringToNodeCollection.getTranslationString();
+
             // Make sure the node hasn't already been processed
-            if (!stringToNodeCollections.contains(stringToNodeCollection)) {
-                final String source = stringToNodeCollection.getTranslationString();
-                final String alternate = getAlternateSourceString(source);
-                final String zanataSource = findTranslationSource(translationDetails, source, alternate);
+            if (!matchedStrings.contains(source)) {
+                final String zanataSource = findTranslationSource(translationDetails, source);
 
                 if (zanataSource != null) {
                     stringToNodeCollections.add(stringToNodeCollection);
-                    tempStringToNodeCollection.add(stringToNodeCollection);
+                    matchedStrings.add(source);
+                    tempStringToNodeCollection.put(source, stringToNodeCollection);
 
-                    // If the string equalled the alternate, add it to the translation details
-                    if (zanataSource.equals(alternate)) {
+                    // If the string matched the alternate, add it to the translation details
+                    if (!zanataSource.equals(source)) {
                         final ZanataTranslation translation = translationDetails.get(zanataSource);
                         translationDetails.put(source, translation);
                     }
@@ -544,22 +1037,22 @@ public class TopicSync extends BaseZanataSync {
     }
 
     /**
-     * Finds the Zanata source string from the list translations fetched from Zanata for a PressGang input string.
+     * Finds the Zanata source string from the list translations fetched from Zanata for a PressGang input string. An exact match
+     * for the source is always preferred, and the alternate source string is only generated if there is no exact match.
      *
-     * @param translationDetails
-     * @param source
-     * @param alternate
-     * @return
+     * @param translationDetails The translations to check against.
+     * @param source             The PressGang source string.
+     * @return The key in the translation details that matches the source, or null if no translation exists.
      */
-    private String findTranslationSource(final Map<String, ZanataTranslation> translationDetails, final String source,
-            final String alternate) {
-        for (final String originalString : translationDetails.keySet()) {
-            if (originalString.equals(source) || originalString.equals(alternate)) {
-                return originalString;
-            }
+    protected String findTranslationSource(final Map<String, ZanataTranslation> translationDetails, final String source) {
+        if (source == null) {
+            return null;
+        } else if (translationDetails.containsKey(source)) {
+            return source;
+        } else {
+            final String alternate = getAlternateSourceString(source);
+            return translationDetails.containsKey(alternate) ? alternate : null;
         }
-
-        return null;
     }
 
     /**
@@ -569,7 +1062,7 @@ public class TopicSync extends BaseZanataSync {
      * @param source The source string to get an alternate version of.
      * @return The alternate source string
      */
-    private String getAlternateSourceString(final String source) {
+    protected String getAlternateSourceString(final String source) {
         if (source == null) {
             return null;
         } else {
@@ -628,4 +1121,16 @@ public class TopicSync extends BaseZanataSync {
         }
         return translations;
     }
+
+    /**
+     * Receives the translations of each Zanata resource that has changed since it was last synced.
+     */
+    protected interface ChangedTranslationHandler {
+        /**
+         * @param zanataId     The Zanata ID of the changed resource.
+         * @param translations The changed translations for each locale.
+         * @throws InterruptedException Thrown if the thread was interrupted while handling the translations.
+         */
+        void changed(ZanataId zanataId, Map<LocaleId, FetchedTranslation> translations) throws InterruptedException;
+    }
 }
@@ -0,0 +1,372 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
+import org.zanata.rest.dto.resource.Resource;
+
+/**
+ * Syncs a chunk of Zanata resources using a staged pipeline, so that the network calls on one side overlap with the merging and
+ * saving on the other. The stages are connected by bounded queues, so a slow stage applies backpressure to the stage before it and
+ * the memory used stays flat.
+ * <ol>
+ * <li>Fetch translations: Gets the translations from Zanata, using the locale executor, and passes on the resources that have
+ * changed. (background thread)</li>
+ * <li>Fetch source: Gets the existing translated topics for the changed resources that are waiting, the original Zanata resource
+ * and the historical topics for any new translated topics. (background thread)</li>
+ * <li>Merge: Applies the Zanata translations to the translated topics. (calling thread)</li>
+ * <li>Persist: Saves the changed translated topics to PressGang. (background thread)</li>
+ * </ol>
+ */
+public class TopicSyncPipeline {
+    private static final Logger log = LoggerFactory.getLogger(TopicSyncPipeline.class);
+
+    private static final ChangedResource END_OF_CHANGES = new ChangedResource(null, null);
+    private static final PreparedResource END_OF_RESOURCES = new PreparedResource(null, null, null, null);
+    private static final MergedTranslation END_OF_TRANSLATIONS = new MergedTranslation(null, null, null, null, false);
+
+    private final TopicSync topicSync;
+    private final ExecutorService executor;
+    private final int queueSize;
+
+    /**
+     * @param topicSync The topic sync that does the actual work for each stage.
+     * @param executor  The executor to run the background stages on. It must be able to run at least three tasks at once.
+     * @param queueSize The maximum number of items that can be waiting between each stage.
+     */
+    public TopicSyncPipeline(final TopicSync topicSync, final ExecutorService executor, final int queueSize) {
+        this.topicSync = topicSync;
+        this.executor = executor;
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Syncs the translations for a chunk of Zanata resources.
+     *
+     * @param zanataIds The Zanata IDs in the chunk.
+     * @param locales   The locales to sync.
+     * @param progress  The current sync progress, used for logging.
+     */
+    public void process(final List<ZanataId> zanataIds, final List<LocaleId> locales, final long progress) {
+        final BlockingQueue<ChangedResource> changedQueue = new ArrayBlockingQueue<ChangedResource>(queueSize);
+        final BlockingQueue<PreparedResource> preparedQueue = new ArrayBlockingQueue<PreparedResource>(queueSize);
+        final BlockingQueue<MergedTranslation> mergedQueue = new ArrayBlockingQueue<MergedTranslation>(queueSize);
+
+        final Future<?> fetchTranslationsFuture = executor.submit(LoggingContext.wrap(new Runnable() {
+            @Override
+            public void run() {
+                fetchTranslations(zanataIds, locales, changedQueue, progress);
+            }
+        }));
+        final Future<?> fetchFuture = executor.submit(LoggingContext.wrap(new Runnable() {
+            @Override
+            public void run() {
+                fetch(changedQueue, locales, preparedQueue);
+            }
+        }));
+        final Future<?> persistFuture = executor.submit(LoggingContext.wrap(new Runnable() {
+            @Override
+            public void run() {
+                persist(mergedQueue, progress);
+            }
+        }));
+
+        try {
+            try {
+                merge(preparedQueue, mergedQueue, progress);
+            } finally {
+                // Let the persist stage know that nothing else is coming
+                mergedQueue.put(END_OF_TRANSLATIONS);
+            }
+
+            persistFuture.get();
+        } catch (InterruptedException e) {
+            log.error("Interrupted while syncing the Zanata resources");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to save the translated topics", e.getCause());
+        } finally {
+            fetchTranslationsFuture.cancel(true);
+            fetchFuture.cancel(true);
+            persistFuture.cancel(true);
+        }
+    }
+
+    /**
+     * The fetch translations stage. Gets the translations for each Zanata ID, and passes on the ones that have changed.
+     */
+    protected void fetchTranslations(final List<ZanataId> zanataIds, final List<LocaleId> locales,
+            final BlockingQueue<ChangedResource> changedQueue, final long progress) {
+        try {
+            try {
+                topicSync.fetchChangedTranslations(zanataIds, locales, progress, new TopicSync.ChangedTranslationHandler() {
+                    @Override
+                    public void changed(final ZanataId zanataId, final Map<LocaleId, FetchedTranslation> translations)
+                            throws InterruptedException {
+                        changedQueue.put(new ChangedResource(zanataId, translations));
+                    }
+                });
+            } finally {
+                // Let the fetch source stage know that nothing else is coming
+                changedQueue.put(END_OF_CHANGES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The fetch source stage. Gets the original resource and the translated topics for each changed Zanata ID. The existing
+     * translated topics are downloaded for all the changed resources that are waiting at once, so PressGang is asked for them
+     * in as few requests as the translation fetches allow.
+     */
+    protected void fetch(final BlockingQueue<ChangedResource> changedQueue, final List<LocaleId> locales,
+            final BlockingQueue<PreparedResource> preparedQueue) {
+        try {
+            try {
+                final List<ChangedResource> changes = new ArrayList<ChangedResource>(queueSize + 1);
+                boolean finished = false;
+                while (!finished) {
+                    // Wait for the next changed resource, then take any others that are already waiting
+                    changes.add(changedQueue.take());
+                    changedQueue.drainTo(changes);
+                    if (changes.get(changes.size() - 1) == END_OF_CHANGES) {
+                        changes.remove(changes.size() - 1);
+                        finished = true;
+                    }
+
+                    if (!changes.isEmpty()) {
+                        prepareResources(changes, locales, preparedQueue);
+                        changes.clear();
+                    }
+                }
+            } finally {
+                // Let the merge stage know that nothing else is coming
+                preparedQueue.put(END_OF_RESOURCES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the original resource and the translated topics for a group of changed Zanata IDs.
+     */
+    protected void prepareResources(final List<ChangedResource> changes, final List<LocaleId> locales,
+            final BlockingQueue<PreparedResource> preparedQueue) throws InterruptedException {
+        // Get all the existing translated topics for the changed zanata ids
+        final Map<String, Map<LocaleId, TranslatedTopicWrapper>> allTranslatedTopics;
+        try {
+            final List<ZanataId> zanataIds = new ArrayList<ZanataId>(changes.size());
+            for (final ChangedResource change : changes) {
+                zanataIds.add(change.getZanataId());
+            }
+            allTranslatedTopics = topicSync.getTranslatedTopics(zanataIds, locales);
+        } catch (Exception e) {
+            log.error("Failed to download the existing translated topics", e);
+            return;
+        }
+
+        for (final ChangedResource change : changes) {
+            final ZanataId zanataId = change.getZanataId();
+            try {
+                // find the original resource. This is shared between all locales.
+                final Resource originalTextResource = topicSync.getZanataInterface().getZanataResource(zanataId.toString());
+
+                // Get or create the translated topic for each locale
+                final Map<LocaleId, TranslatedTopicWrapper> translatedTopics = new LinkedHashMap<LocaleId,
+                        TranslatedTopicWrapper>();
+                for (final LocaleId locale : change.getTranslations().keySet()) {
+                    try {
+                        final TranslatedTopicWrapper translatedTopic = topicSync.getOrCreateTranslatedTopic(zanataId, locale,
+                                allTranslatedTopics.get(zanataId.toString()));
+                        if (translatedTopic != null) {
+                            translatedTopics.put(locale, translatedTopic);
+                        }
+                    } catch (final Exception ex) {
+                        // Error with the locale
+                        log.error("Failed to sync Locale " + locale.toString() + " for Zanata ID " + zanataId, ex);
+                    }
+                }
+
+                preparedQueue.put(new PreparedResource(zanataId, originalTextResource, change.getTranslations(), translatedTopics));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (final Exception ex) {
+                // Error with the resource
+                log.error("Failed to sync Zanata ID " + zanataId, ex);
+            }
+        }
+    }
+
+    /**
+     * The merge stage. Applies the translations to each translated topic.
+     */
+    protected void merge(final BlockingQueue<PreparedResource> preparedQueue, final BlockingQueue<MergedTranslation> mergedQueue,
+            final long progress) throws InterruptedException {
+        PreparedResource prepared;
+        while ((prepared = preparedQueue.take()) != END_OF_RESOURCES) {
+            for (final Map.Entry<LocaleId, TranslatedTopicWrapper> entry : prepared.getTranslatedTopics().entrySet()) {
+                final LocaleId locale = entry.getKey();
+                final FetchedTranslation fetchedTranslation = prepared.getTranslations().get(locale);
+                try {
+                    log.info(progress + "% Synchronising " + prepared.getZanataId() + " for locale " + locale.toString());
+
+                    final boolean save = topicSync.mergeTranslation(prepared.getZanataId(), locale, entry.getValue(),
+                            prepared.getOriginalTextResource(), fetchedTranslation);
+                    mergedQueue.put(new MergedTranslation(prepared.getZanataId(), locale, entry.getValue(), fetchedTranslation, save));
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (final Exception ex) {
+                    // Error with the locale
+                    log.error("Failed to sync Locale " + locale.toString() + " for Zanata ID " + prepared.getZanataId(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The persist stage. Saves each changed translated topic.
+     */
+    protected void persist(final BlockingQueue<MergedTranslation> mergedQueue, final long progress) {
+        try {
+            MergedTranslation merged;
+            while ((merged = mergedQueue.take()) != END_OF_TRANSLATIONS) {
+                try {
+                    topicSync.persistTranslation(merged.getZanataId(), merged.getLocale(), merged.getTranslatedTopic(),
+                            merged.getFetchedTranslation(), merged.isSave(), progress);
+                } catch (final Exception ex) {
+                    // Error with the locale
+                    log.error("Failed to sync Locale " + merged.getLocale().toString() + " for Zanata ID " + merged.getZanataId(), ex);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A Zanata resource whose translations have changed, ready to have its PressGang data fetched.
+     */
+    protected static class ChangedResource {
+        private final ZanataId zanataId;
+        private final Map<LocaleId, FetchedTranslation> translations;
+
+        public ChangedResource(final ZanataId zanataId, final Map<LocaleId, FetchedTranslation> translations) {
+            this.zanataId = zanataId;
+            this.translations = translations;
+        }
+
+        public ZanataId getZanataId() {
+            return zanataId;
+        }
+
+        public Map<LocaleId, FetchedTranslation> getTranslations() {
+            return translations;
+        }
+    }
+
+    /**
+     * A Zanata resource that has had all its PressGang and Zanata data fetched, ready to be merged.
+     */
+    protected static class PreparedResource {
+        private final ZanataId zanataId;
+        private final Resource originalTextResource;
+        private final Map<LocaleId, FetchedTranslation> translations;
+        private final Map<LocaleId, TranslatedTopicWrapper> translatedTopics;
+
+        public PreparedResource(final ZanataId zanataId, final Resource originalTextResource,
+                final Map<LocaleId, FetchedTranslation> translations, final Map<LocaleId, TranslatedTopicWrapper> translatedTopics) {
+            this.zanataId = zanataId;
+            this.originalTextResource = originalTextResource;
+            this.translations = translations;
+            this.translatedTopics = translatedTopics;
+        }
+
+        public ZanataId getZanataId() {
+            return zanataId;
+        }
+
+        public Resource getOriginalTextResource() {
+            return originalTextResource;
+        }
+
+        public Map<LocaleId, FetchedTranslation> getTranslations() {
+            return translations;
+        }
+
+        public Map<LocaleId, TranslatedTopicWrapper> getTranslatedTopics() {
+            return translatedTopics;
+        }
+    }
+
+    /**
+     * A translated topic that has had the Zanata translations merged into it, ready to be saved.
+     */
+    protected static class MergedTranslation {
+        private final ZanataId zanataId;
+        private final LocaleId locale;
+        private final TranslatedTopicWrapper translatedTopic;
+        private final FetchedTranslation fetchedTranslation;
+        private final boolean save;
+
+        public MergedTranslation(final ZanataId zanataId, final LocaleId locale, final TranslatedTopicWrapper translatedTopic,
+                final FetchedTranslation fetchedTranslation, final boolean save) {
+            this.zanataId = zanataId;
+            this.locale = locale;
+            this.translatedTopic = translatedTopic;
+            this.fetchedTranslation = fetchedTranslation;
+            this.save = save;
+        }
+
+        public ZanataId getZanataId() {
+            return zanataId;
+        }
+
+        public LocaleId getLocale() {
+            return locale;
+        }
+
+        public TranslatedTopicWrapper getTranslatedTopic() {
+            return translatedTopic;
+        }
+
+        public FetchedTranslation getFetchedTranslation() {
+            return fetchedTranslation;
+        }
+
+        public boolean isSave() {
+            return save;
+        }
+    }
+}
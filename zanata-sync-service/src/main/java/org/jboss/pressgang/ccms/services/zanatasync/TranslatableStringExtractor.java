@@ -0,0 +1,348 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.google.code.regexp.Matcher;
+import org.jboss.pressgang.ccms.utils.common.DocBookUtilities;
+import org.jboss.pressgang.ccms.utils.common.XMLUtilities;
+import org.jboss.pressgang.ccms.utils.structures.StringToNodeCollection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Extracts the translatable strings from a topic for all three versions of the extraction rules in a single walk of the document.
+ * The strings are the same as the ones returned by {@link DocBookUtilities#getTranslatableStringsV3(Document, boolean)} and the
+ * deprecated V2 and V1 methods, with duplicates merged. However the elements that none of the versions extract strings from are
+ * only visited once, and whether an element contains translatable elements is worked out once per node, instead of again at every
+ * level above it.
+ * <p/>
+ * Each version either extracts strings from a node, or just looks for strings in its children. So the walk keeps track of which
+ * versions are still looking at each node, and the versions that are extracting strings from the same node each build their own
+ * string as the children are visited.
+ */
+public class TranslatableStringExtractor {
+    private static final int V1 = 1;
+    private static final int V2 = 2;
+    private static final int V3 = 4;
+    private static final int ALL_VERSIONS = V1 | V2 | V3;
+    private static final int[] VERSIONS = {V1, V2, V3};
+
+    private static final Set<String> TRANSLATABLE_ELEMENTS = new HashSet<String>(DocBookUtilities.TRANSLATABLE_ELEMENTS);
+    private static final Set<String> TRANSLATABLE_ELEMENTS_OLD = new HashSet<String>(DocBookUtilities.TRANSLATABLE_ELEMENTS_OLD);
+    private static final Set<String> INLINE_ELEMENTS = new HashSet<String>(DocBookUtilities.INLINE_ELEMENTS);
+    private static final Set<String> VERBATIM_ELEMENTS = new HashSet<String>(DocBookUtilities.VERBATIM_ELEMENTS);
+    private static final Set<String> TRANSLATABLE_IF_STANDALONE_ELEMENTS = new HashSet<String>(
+            DocBookUtilities.TRANSLATABLE_IF_STANDALONE_ELEMENTS);
+    private static final Pattern WHITESPACE_ONLY = Pattern.compile("^\\s+$");
+
+    private final Map<String, StringToNodeCollection> v1Strings = new LinkedHashMap<String, StringToNodeCollection>();
+    private final Map<String, StringToNodeCollection> v2Strings = new LinkedHashMap<String, StringToNodeCollection>();
+    private final Map<String, StringToNodeCollection> v3Strings = new LinkedHashMap<String, StringToNodeCollection>();
+    private final Map<Node, Integer> containsTranslatableElements = new IdentityHashMap<Node, Integer>();
+
+    private TranslatableStringExtractor() {
+    }
+
+    /**
+     * Gets the translatable strings for all the supported translation versions.
+     *
+     * @param xml The XML document to get the translatable strings from.
+     * @return The V3, V2 and V1 translatable strings, in that order.
+     */
+    public static List<List<StringToNodeCollection>> extract(final Document xml) {
+        final TranslatableStringExtractor extractor = new TranslatableStringExtractor();
+
+        final NodeList nodes = xml.getDocumentElement().getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            extractor.visit(nodes.item(i), false, false, ALL_VERSIONS);
+        }
+
+        final List<List<StringToNodeCollection>> retValue = new ArrayList<List<StringToNodeCollection>>(3);
+        retValue.add(new ArrayList<StringToNodeCollection>(extractor.v3Strings.values()));
+        retValue.add(new ArrayList<StringToNodeCollection>(extractor.v2Strings.values()));
+        retValue.add(new ArrayList<StringToNodeCollection>(extractor.v1Strings.values()));
+        return retValue;
+    }
+
+    /**
+     * Visits a node for the versions that are still looking for strings at this point in the document.
+     *
+     * @param node           The node to visit.
+     * @param parentInline   Whether the node is inside an inline element.
+     * @param parentVerbatim Whether the node is inside a verbatim element.
+     * @param versions       The versions that are looking for strings in the node.
+     */
+    private void visit(final Node node, final boolean parentInline, final boolean parentVerbatim, final int versions) {
+        final String nodeName = node.getNodeName();
+        final String parentName = node.getParentNode() == null ? null : node.getParentNode().getNodeName();
+        final boolean inline = parentInline || INLINE_ELEMENTS.contains(nodeName);
+        final boolean verbatim = parentVerbatim || VERBATIM_ELEMENTS.contains(nodeName);
+        final boolean standalone = TRANSLATABLE_IF_STANDALONE_ELEMENTS.contains(nodeName);
+
+        // Work out which versions extract strings from this node. The rest just look for strings in the children.
+        int extracting = 0;
+        if (isExtracted(TRANSLATABLE_ELEMENTS_OLD.contains(nodeName), standalone, TRANSLATABLE_ELEMENTS_OLD.contains(parentName),
+                inline)) {
+            extracting |= versions & (V1 | V2);
+        }
+        if (isExtracted(TRANSLATABLE_ELEMENTS.contains(nodeName), standalone, TRANSLATABLE_ELEMENTS.contains(parentName), inline)) {
+            extracting |= versions & V3;
+        }
+        final int searching = versions & ~extracting;
+
+        final NodeList children = node.getChildNodes();
+        final int childrenLength = children.getLength();
+        if (extracting != 0 && childrenLength == 0) {
+            addLeafStrings(node, verbatim, extracting);
+            return;
+        }
+
+        final PendingString[] pending = new PendingString[VERSIONS.length];
+        for (int v = 0; v < VERSIONS.length; v++) {
+            if ((extracting & VERSIONS[v]) != 0) {
+                pending[v] = new PendingString();
+            }
+        }
+
+        for (int i = 0; i < childrenLength; i++) {
+            final Node child = children.item(i);
+            final String childName = child.getNodeName();
+            final boolean last = i == childrenLength - 1;
+            int childVersions = searching;
+
+            if (extracting != 0) {
+                final int contains = getContainsTranslatableElements(child);
+                final boolean childInline = INLINE_ELEMENTS.contains(childName);
+                final boolean childVerbatim = verbatim || VERBATIM_ELEMENTS.contains(childName);
+                String childText = null;
+
+                if (pending[0] != null) {
+                    if ((contains & V1) != 0) {
+                        flush(V1, pending[0]);
+                        childVersions |= V1;
+                    } else {
+                        childText = XMLUtilities.convertNodeToString(child, true, false);
+                        pending[0].append(childVerbatim ? childText : cleanTranslationText(childText, i == 0, last), child);
+                    }
+                }
+
+                if (pending[1] != null) {
+                    if (((contains & V2) != 0 || TRANSLATABLE_ELEMENTS_OLD.contains(childName)) && !childInline) {
+                        flush(V2, pending[1]);
+                        childVersions |= V2;
+                    } else {
+                        if (childText == null) {
+                            childText = XMLUtilities.convertNodeToString(child, true, false);
+                        }
+                        final String text = childVerbatim ? childText : cleanTranslationText(childText,
+                                pending[1].removeWhitespaceFromStart, last);
+                        if (!text.isEmpty() && !WHITESPACE_ONLY.matcher(text).matches()) {
+                            pending[1].append(text, child);
+                            pending[1].removeWhitespaceFromStart = false;
+                        }
+                    }
+                }
+
+                if (pending[2] != null) {
+                    if (((contains & V3) != 0 || TRANSLATABLE_ELEMENTS.contains(childName)) && !childInline) {
+                        flush(V3, pending[2]);
+                        childVersions |= V3;
+                    } else {
+                        // V3 keeps the space before self closing elements
+                        final String v3ChildText = XMLUtilities.convertNodeToString(child, true);
+                        final String text = childVerbatim ? v3ChildText : cleanTranslationText(v3ChildText,
+                                pending[2].removeWhitespaceFromStart, last);
+                        if (childVerbatim || !text.isEmpty()) {
+                            if (!childVerbatim && WHITESPACE_ONLY.matcher(text).matches()) {
+                                if (i != 0 && !last) {
+                                    pending[2].text.append(" ");
+                                    pending[2].removeWhitespaceFromStart = false;
+                                }
+                            } else {
+                                pending[2].text.append(text);
+                                pending[2].removeWhitespaceFromStart = false;
+                            }
+                        }
+                        pending[2].nodes.add(child);
+                    }
+                }
+            }
+
+            if (childVersions != 0) {
+                visit(child, inline, verbatim, childVersions);
+            }
+        }
+
+        // Add whatever is left once all the children have been seen
+        for (int v = 0; v < VERSIONS.length; v++) {
+            if (pending[v] != null && !pending[v].nodes.isEmpty()) {
+                addString(VERSIONS[v], pending[v].text.toString(), pending[v].nodes);
+            }
+        }
+    }
+
+    /**
+     * Works out if a version extracts strings from a node, or just looks for strings in its children.
+     */
+    private static boolean isExtracted(final boolean translatable, final boolean standalone, final boolean translatableParent,
+            final boolean inline) {
+        return translatable && !((!standalone || translatableParent) && (standalone || inline));
+    }
+
+    /**
+     * Adds the string for a translatable element that has no children.
+     */
+    private void addLeafStrings(final Node node, final boolean verbatim, final int extracting) {
+        final String nodeText = XMLUtilities.convertNodeToString(node, false);
+        final String cleanedNodeText = cleanTranslationText(nodeText, true, true);
+        final boolean whitespaceOnly = WHITESPACE_ONLY.matcher(cleanedNodeText).matches();
+
+        for (final int version : VERSIONS) {
+            if ((extracting & version) == 0) continue;
+
+            final ArrayList<Node> nodes = new ArrayList<Node>(1);
+            nodes.add(node);
+            if (verbatim) {
+                addString(version, nodeText, nodes);
+            } else if (!cleanedNodeText.isEmpty() && (version == V1 || !whitespaceOnly)) {
+                addString(version, cleanedNodeText, nodes);
+            }
+        }
+    }
+
+    /**
+     * Adds the string that has been built up so far, because the next child needs to be searched for its own strings.
+     */
+    private void flush(final int version, final PendingString pending) {
+        if (pending.nodes.isEmpty()) return;
+
+        String text = pending.text.toString();
+        final Matcher matcher = DocBookUtilities.TRAILING_WHITESPACE_RE_PATTERN.matcher(text);
+        if (matcher.matches()) {
+            text = matcher.group("content");
+        }
+        addString(version, text, pending.nodes);
+
+        pending.text.setLength(0);
+        pending.nodes = new ArrayList<Node>();
+        pending.removeWhitespaceFromStart = true;
+    }
+
+    /**
+     * Adds a string for a version, merging it with any string that has the same text.
+     */
+    private void addString(final int version, final String text, final ArrayList<Node> nodes) {
+        if (text == null || text.isEmpty()) return;
+
+        final Map<String, StringToNodeCollection> strings = version == V1 ? v1Strings : version == V2 ? v2Strings : v3Strings;
+        final StringToNodeCollection existing = strings.get(text);
+        if (existing == null) {
+            strings.put(text, new StringToNodeCollection(text).addNodeCollection(nodes));
+        } else {
+            existing.addNodeCollection(nodes);
+        }
+    }
+
+    /**
+     * Works out which versions consider a node to contain translatable elements. V2 and V3 check all of the nodes descendants,
+     * while V1 only checks the children, grandchildren of grandchildren and so on.
+     *
+     * @param node The node to check.
+     * @return The versions that consider the node to contain translatable elements.
+     */
+    private int getContainsTranslatableElements(final Node node) {
+        final Integer cached = containsTranslatableElements.get(node);
+        if (cached != null) return cached;
+
+        int retValue = 0;
+        final NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            final String childName = child.getNodeName();
+            if (TRANSLATABLE_ELEMENTS_OLD.contains(childName)) {
+                retValue |= V1 | V2;
+            }
+            if (TRANSLATABLE_ELEMENTS.contains(childName)) {
+                retValue |= V3;
+            }
+            retValue |= getContainsTranslatableElements(child) & (V2 | V3);
+
+            final NodeList grandChildren = child.getChildNodes();
+            for (int j = 0; j < grandChildren.getLength() && (retValue & V1) == 0; j++) {
+                retValue |= getContainsTranslatableElements(grandChildren.item(j)) & V1;
+            }
+        }
+
+        containsTranslatableElements.put(node, retValue);
+        return retValue;
+    }
+
+    /**
+     * Cleans the text the same way as the DocBookUtilities extraction methods, by collapsing the new lines, tabs and spaces into a
+     * single space and trimming the result. A single space is kept at the start or end, if it's not being removed and the text
+     * started or ended with whitespace.
+     */
+    private static String cleanTranslationText(final String input, final boolean removeWhitespaceFromStart,
+            final boolean removeWhitespaceFromEnd) {
+        final StringBuilder cleaned = new StringBuilder(input.length());
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\t') {
+                c = ' ';
+            }
+            if (c != ' ' || cleaned.length() == 0 || cleaned.charAt(cleaned.length() - 1) != ' ') {
+                cleaned.append(c);
+            }
+        }
+
+        String retValue = cleaned.toString().trim();
+        if (!removeWhitespaceFromStart && DocBookUtilities.PRECEEDING_WHITESPACE_SIMPLE_RE_PATTERN.matcher(input).matches()) {
+            retValue = " " + retValue;
+        }
+        if (!removeWhitespaceFromEnd && DocBookUtilities.TRAILING_WHITESPACE_SIMPLE_RE_PATTERN.matcher(input).matches()) {
+            retValue = retValue + " ";
+        }
+        return retValue;
+    }
+
+    /**
+     * The string a version is building up from the children of a node.
+     */
+    private static class PendingString {
+        private final StringBuilder text = new StringBuilder();
+        private ArrayList<Node> nodes = new ArrayList<Node>();
+        private boolean removeWhitespaceFromStart = true;
+
+        private void append(final String childText, final Node child) {
+            text.append(childText);
+            nodes.add(child);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.pressgang.ccms.provider.TranslatedTopicProvider;
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.CollectionWrapper;
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
+
+/**
+ * Collects changed translated topics and saves them to PressGang in batches, using a single create and a single update request
+ * per batch instead of one request per translated topic. A batch is flushed when it reaches the batch size, or when the oldest
+ * translated topic in it has been waiting longer than the flush interval. Once {@link #start()} has been called, the flush
+ * interval is also checked in the background, so a partial batch is still saved when no more translated topics are being added.
+ * If a batch request fails, each translated topic in the batch is retried on its own so that one bad topic doesn't stop the rest
+ * from being saved.
+ * <p/>
+ * The waiting translated topics are only locked while a batch is taken from them. The requests, retries and retry delays are
+ * made outside of that lock, so adding a translated topic never waits on a save that is in progress unless it fills a batch.
+ */
+public class TranslatedTopicBatcher {
+    private static final Logger log = LoggerFactory.getLogger(TranslatedTopicBatcher.class);
+
+    /**
+     * The default number of times a translated topic will be retried on its own, after its batch failed to save.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long RETRY_DELAY = 1000L;
+
+    private final TranslatedTopicProvider translatedTopicProvider;
+    private final SyncStateStore stateStore;
+    private final ZanataDetails zanataDetails;
+    private final SyncMetrics metrics;
+    private final int batchSize;
+    private final long flushInterval;
+    private final int maxRetries;
+
+    // Guards the pending translated topics and the time the oldest one was added
+    private final Object pendingLock = new Object();
+    // Makes sure only one batch is saved at a time, so the saves happen in the order the batches were taken
+    private final Object saveLock = new Object();
+    private List<PendingTranslatedTopic> pending = new ArrayList<PendingTranslatedTopic>();
+    private long oldestPendingTime = 0;
+    private final AtomicInteger savedCount = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * @param translatedTopicProvider The provider used to save the translated topics.
+     * @param stateStore              The store to record the synced translations in once they are saved, or null.
+     * @param zanataDetails           The details of the Zanata project version the translations belong to.
+     * @param metrics                 The metrics to record the save timings in.
+     * @param batchSize               The maximum number of translated topics to save in a single request.
+     * @param flushInterval           The maximum time, in milliseconds, that a translated topic should wait before being saved.
+     * @param maxRetries              The number of times to retry a translated topic on its own, if its batch failed.
+     */
+    public TranslatedTopicBatcher(final TranslatedTopicProvider translatedTopicProvider, final SyncStateStore stateStore,
+            final ZanataDetails zanataDetails, final SyncMetrics metrics, final int batchSize, final long flushInterval, final int maxRetries) {
+        this.translatedTopicProvider = translatedTopicProvider;
+        this.stateStore = stateStore;
+        this.zanataDetails = zanataDetails;
+        this.metrics = metrics;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = flushInterval;
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Starts checking in the background for batches that have been waiting longer than the flush interval.
+     */
+    public synchronized void start() {
+        if (executor != null || flushInterval <= 0) return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("translated-topic-flush", true));
+        final long checkInterval = Math.max(1L, flushInterval / 4);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushIfExpired();
+                } catch (final Exception e) {
+                    // Catch everything, as an exception would stop any further checks from being scheduled
+                    log.error("Failed to flush the translated topics waiting to be saved", e);
+                }
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background checks, and saves all the translated topics that are still waiting.
+     */
+    public void stop() {
+        final ScheduledExecutorService stoppedExecutor;
+        synchronized (this) {
+            stoppedExecutor = executor;
+            executor = null;
+        }
+
+        if (stoppedExecutor != null) {
+            // Let a background flush that is already saving finish, rather than interrupting its requests
+            stoppedExecutor.shutdown();
+            try {
+                while (!stoppedExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.info("Waiting for the translated topics being saved in the background");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Queues a translated topic to be saved, flushing the current batch if it is full or has been waiting too long.
+     *
+     * @param zanataId           The Zanata ID the translated topic was synced from.
+     * @param locale             The locale of the translated topic.
+     * @param translatedTopic    The translated topic to save.
+     * @param fetchedTranslation The translations that were merged into the translated topic.
+     */
+    public void add(final String zanataId, final LocaleId locale, final TranslatedTopicWrapper translatedTopic,
+            final FetchedTranslation fetchedTranslation) {
+        final List<PendingTranslatedTopic> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                oldestPendingTime = System.currentTimeMillis();
+            }
+            pending.add(new PendingTranslatedTopic(zanataId, locale, translatedTopic, fetchedTranslation));
+
+            batch = pending.size() >= batchSize || isExpired() ? takePending() : null;
+        }
+
+        if (batch != null) {
+            save(batch);
+        }
+    }
+
+    /**
+     * Saves the current batch if the oldest translated topic in it has been waiting longer than the flush interval.
+     */
+    public void flushIfExpired() {
+        final List<PendingTranslatedTopic> batch;
+        synchronized (pendingLock) {
+            batch = isExpired() ? takePending() : null;
+        }
+
+        if (batch != null) {
+            save(batch);
+        }
+    }
+
+    /**
+     * Saves all the translated topics that are currently waiting.
+     */
+    public void flush() {
+        final List<PendingTranslatedTopic> batch;
+        synchronized (pendingLock) {
+            batch = takePending();
+        }
+
+        save(batch);
+    }
+
+    /**
+     * Must be called while holding the pending lock.
+     */
+    private boolean isExpired() {
+        return flushInterval > 0 && !pending.isEmpty() && System.currentTimeMillis() - oldestPendingTime >= flushInterval;
+    }
+
+    /**
+     * Swaps out the translated topics that are waiting, so they can be saved without holding the pending lock. Must be called
+     * while holding the pending lock.
+     *
+     * @return The translated topics that were waiting.
+     */
+    private List<PendingTranslatedTopic> takePending() {
+        final List<PendingTranslatedTopic> batch = pending;
+        pending = new ArrayList<PendingTranslatedTopic>();
+        return batch;
+    }
+
+    /**
+     * Saves a batch of translated topics that has been taken from the waiting translated topics.
+     *
+     * @param batch The translated topics to save.
+     */
+    protected void save(final List<PendingTranslatedTopic> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Split the batch into the new and existing translated topics, as they need different requests
+        final List<PendingTranslatedTopic> creates = new ArrayList<PendingTranslatedTopic>();
+        final List<PendingTranslatedTopic> updates = new ArrayList<PendingTranslatedTopic>();
+        for (final PendingTranslatedTopic item : batch) {
+            if (item.getTranslatedTopic().getId() == null) {
+                creates.add(item);
+            } else {
+                updates.add(item);
+            }
+        }
+
+        synchronized (saveLock) {
+            saveBatch(creates, true);
+            saveBatch(updates, false);
+        }
+    }
+
+    /**
+     * Saves a batch of translated topics in a single request, falling back to saving each translated topic on its own if the
+     * request fails.
+     *
+     * @param batch  The translated topics to save.
+     * @param create Whether the translated topics are new and should be created, or should be updated.
+     */
+    protected void saveBatch(final List<PendingTranslatedTopic> batch, final boolean create) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            final CollectionWrapper<TranslatedTopicWrapper> translatedTopics = translatedTopicProvider.newTranslatedTopicCollection();
+            for (final PendingTranslatedTopic item : batch) {
+                translatedTopics.addItem(item.getTranslatedTopic());
+            }
+
+            if (create) {
+                translatedTopicProvider.createTranslatedTopics(translatedTopics);
+            } else {
+                translatedTopicProvider.updateTranslatedTopics(translatedTopics);
+            }
+            metrics.recordTime(SyncMetrics.PERSIST, start);
+
+            log.info("Saved a batch of " + batch.size() + " translated topics");
+            for (final PendingTranslatedTopic item : batch) {
+                saved(item);
+            }
+        } catch (final Exception ex) {
+            metrics.recordTime(SyncMetrics.PERSIST, start);
+            log.warn("Failed to save a batch of " + batch.size() + " translated topics. Retrying each translated topic individually.",
+                    ex);
+            for (final PendingTranslatedTopic item : batch) {
+                saveIndividually(item, create);
+            }
+        }
+    }
+
+    /**
+     * Saves a single translated topic, retrying up to the max number of retries if it fails.
+     *
+     * @param item   The translated topic to save.
+     * @param create Whether the translated topic is new and should be created, or should be updated.
+     */
+    protected void saveIndividually(final PendingTranslatedTopic item, final boolean create) {
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            final long start = System.nanoTime();
+            try {
+                if (create) {
+                    translatedTopicProvider.createTranslatedTopic(item.getTranslatedTopic());
+                } else {
+                    translatedTopicProvider.updateTranslatedTopic(item.getTranslatedTopic());
+                }
+                metrics.recordTime(SyncMetrics.PERSIST, start);
+
+                saved(item);
+                return;
+            } catch (final Exception ex) {
+                metrics.recordTime(SyncMetrics.PERSIST, start);
+                if (attempt == maxRetries) {
+                    failedCount.incrementAndGet();
+                    metrics.increment(SyncMetrics.TOPICS_FAILED);
+                    log.error("Failed to save Locale " + item.getLocale() + " for Zanata ID " + item.getZanataId() + " after " +
+                            (attempt + 1) + " attempts", ex);
+                } else {
+                    log.warn("Failed to save Locale " + item.getLocale() + " for Zanata ID " + item.getZanataId() + ". Retrying.");
+                    try {
+                        Thread.sleep(RETRY_DELAY * (attempt + 1));
+                    } catch (InterruptedException e) {
+                        failedCount.incrementAndGet();
+                        metrics.increment(SyncMetrics.TOPICS_FAILED);
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a translated topic was saved, so the translation can be skipped next time.
+     */
+    protected void saved(final PendingTranslatedTopic item) {
+        savedCount.incrementAndGet();
+        metrics.increment(SyncMetrics.TOPICS_SAVED);
+        if (stateStore != null) {
+            stateStore.record(zanataDetails, item.getZanataId(), item.getLocale(),
+                    item.getTranslatedTopic().getTranslationPercentage(), item.getFetchedTranslation());
+        }
+    }
+
+    /**
+     * @return The number of translated topics waiting to be saved.
+     */
+    public int getPendingCount() {
+        synchronized (pendingLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return The number of translated topics that have been saved.
+     */
+    public int getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * @return The number of translated topics that couldn't be saved, even after being retried.
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * A translated topic that is waiting to be saved.
+     */
+    protected static class PendingTranslatedTopic {
+        private final String zanataId;
+        private final LocaleId locale;
+        private final TranslatedTopicWrapper translatedTopic;
+        private final FetchedTranslation fetchedTranslation;
+
+        public PendingTranslatedTopic(final String zanataId, final LocaleId locale, final TranslatedTopicWrapper translatedTopic,
+                final FetchedTranslation fetchedTranslation) {
+            this.zanataId = zanataId;
+            this.locale = locale;
+            this.translatedTopic = translatedTopic;
+            this.fetchedTranslation = fetchedTranslation;
+        }
+
+        public String getZanataId() {
+            return zanataId;
+        }
+
+        public LocaleId getLocale() {
+            return locale;
+        }
+
+        public TranslatedTopicWrapper getTranslatedTopic() {
+            return translatedTopic;
+        }
+
+        public FetchedTranslation getFetchedTranslation() {
+            return fetchedTranslation;
+        }
+    }
+}
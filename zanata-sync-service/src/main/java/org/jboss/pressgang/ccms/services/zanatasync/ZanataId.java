@@ -0,0 +1,171 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+/**
+ * A Zanata resource id that has been split into its parts. The id is parsed once, when it's first read, so the sync
+ * doesn't need to match regular expressions or split the id again each time it needs one of its parts.
+ * <p/>
+ * The supported formats are:
+ * <ul>
+ * <li>Topics: &lt;TopicID&gt;-&lt;TopicRevision&gt;</li>
+ * <li>Content Spec Topics: &lt;TopicID&gt;-&lt;TopicRevision&gt;-&lt;TranslatedCSNodeID&gt;</li>
+ * <li>Content Specs: CS&lt;ContentSpecID&gt;-&lt;ContentSpecRevision&gt;</li>
+ * </ul>
+ */
+public final class ZanataId {
+    private static final String CONTENT_SPEC_PREFIX = "CS";
+
+    public enum Type {
+        TOPIC, CONTENT_SPEC_TOPIC, CONTENT_SPEC, UNKNOWN
+    }
+
+    private final String value;
+    private final Type type;
+    private final int id;
+    private final int revision;
+    private final Integer nodeId;
+
+    private ZanataId(final String value, final Type type, final int id, final int revision, final Integer nodeId) {
+        this.value = value;
+        this.type = type;
+        this.id = id;
+        this.revision = revision;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Parses a Zanata resource id.
+     *
+     * @param value The Zanata resource id.
+     * @return The parsed id. Ids that aren't in one of the supported formats have a type of {@link Type#UNKNOWN}.
+     */
+    public static ZanataId parse(final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The Zanata ID can't be null");
+        }
+
+        final int length = value.length();
+        final boolean contentSpec = value.startsWith(CONTENT_SPEC_PREFIX);
+        int pos = contentSpec ? CONTENT_SPEC_PREFIX.length() : 0;
+
+        // Read up to three numbers separated by dashes
+        final long[] parts = new long[3];
+        int numParts = 0;
+        while (numParts < parts.length) {
+            final int start = pos;
+            long number = 0;
+            while (pos < length) {
+                final char c = value.charAt(pos);
+                if (c < '0' || c > '9') break;
+                number = number * 10 + (c - '0');
+                if (number > Integer.MAX_VALUE) {
+                    return unknown(value);
+                }
+                pos++;
+            }
+
+            // Each part must have at least one digit
+            if (pos == start) {
+                return unknown(value);
+            }
+            parts[numParts++] = number;
+
+            if (pos == length) {
+                break;
+            } else if (value.charAt(pos) == '-') {
+                pos++;
+            } else {
+                return unknown(value);
+            }
+        }
+
+        // Make sure the whole id was read. ie it didn't have a trailing dash or more than three parts
+        if (pos != length) {
+            return unknown(value);
+        }
+
+        if (contentSpec) {
+            return numParts == 2 ? new ZanataId(value, Type.CONTENT_SPEC, (int) parts[0], (int) parts[1], null) : unknown(value);
+        } else if (numParts == 2) {
+            return new ZanataId(value, Type.TOPIC, (int) parts[0], (int) parts[1], null);
+        } else if (numParts == 3) {
+            return new ZanataId(value, Type.CONTENT_SPEC_TOPIC, (int) parts[0], (int) parts[1], (int) parts[2]);
+        } else {
+            return unknown(value);
+        }
+    }
+
+    private static ZanataId unknown(final String value) {
+        return new ZanataId(value, Type.UNKNOWN, -1, -1, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return True if the id is for a topic, or a topic in a content spec.
+     */
+    public boolean isTopic() {
+        return type == Type.TOPIC || type == Type.CONTENT_SPEC_TOPIC;
+    }
+
+    /**
+     * @return The topic or content spec id, or -1 if the id is unknown.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The topic or content spec revision, or -1 if the id is unknown.
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return The translated content spec node id, or null if the id isn't for a topic in a content spec.
+     */
+    public Integer getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ZanataId)) return false;
+        return value.equals(((ZanataId) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    /**
+     * @return The original Zanata resource id.
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -19,37 +19,80 @@
 
 package org.jboss.pressgang.ccms.services.zanatasync;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
+/**
+ * Sorts Zanata IDs by the topic or content spec id at the start of the id, in descending order. Ids that don't start with a
+ * number are sorted last.
+ */
 public class ZanataIdSort implements Comparator<String> {
+    private static final long INVALID_KEY = -1;
+
     @Override
     public int compare(final String o1, final String o2) {
         if (o1 == null && o2 == null) return 0;
         if (o1 == null) return -1;
         if (o2 == null) return 1;
 
-        final String[] vals1 = o1.split("-");
-        final String[] vals2 = o2.split("-");
+        final long id1 = getSortKey(o1);
+        final long id2 = getSortKey(o2);
+        return id1 < id2 ? 1 : (id1 == id2 ? 0 : -1);
+    }
 
-        // Convert the id string to an integer
-        Integer id1 = null;
-        try {
-            id1 = Integer.parseInt(vals1[0]);
-        } catch (NumberFormatException e) {
+    /**
+     * Sorts a collection of Zanata IDs in the same order as the comparator, but only parses each id once. Ids with the same sort
+     * key are kept in the order they were in the original collection.
+     *
+     * @param zanataIds The Zanata IDs to sort. The collection must not contain null values.
+     * @return A new list with the sorted ids.
+     */
+    public static List<String> sort(final Collection<String> zanataIds) {
+        final String[] ids = zanataIds.toArray(new String[zanataIds.size()]);
 
+        /*
+         * Pack the inverted sort key into the high bits and the original position into the low bits, so a primitive sort orders
+         * the ids by descending key and keeps equal keys stable. Keys are in the range -1 to Integer.MAX_VALUE, so the inverted
+         * key fits in 32 bits, and the position fits in the lower 31 bits.
+         */
+        final long[] packed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            packed[i] = ((Integer.MAX_VALUE - getSortKey(ids[i])) << 31) | i;
         }
-        Integer id2 = null;
-        try {
-            id2 = Integer.parseInt(vals2[0]);
-        } catch (NumberFormatException e) {
+        Arrays.sort(packed);
 
+        final List<String> retValue = new ArrayList<String>(ids.length);
+        for (final long value : packed) {
+            retValue.add(ids[(int) (value & Integer.MAX_VALUE)]);
         }
+        return retValue;
+    }
+
+    /**
+     * Gets the number a Zanata ID is sorted by, which is the topic or content spec id before the first dash.
+     *
+     * @param zanataId The Zanata ID.
+     * @return The id at the start of the Zanata ID, or -1 if it isn't a valid number.
+     */
+    protected static long getSortKey(final String zanataId) {
+        final int length = zanataId.length();
+        // Allow a leading plus sign, the same as Integer.parseInt
+        int pos = length > 0 && zanataId.charAt(0) == '+' ? 1 : 0;
 
-        // Handle invalid ids/null values
-        if (id1 == null && id2 == null) return 0;
-        if (id1 == null) return 1;
-        if (id2 == null) return -1;
+        final int start = pos;
+        long value = 0;
+        while (pos < length) {
+            final char c = zanataId.charAt(pos);
+            if (c == '-') break;
+            if (c < '0' || c > '9') return INVALID_KEY;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) return INVALID_KEY;
+            pos++;
+        }
 
-        return id2.compareTo(id1);
+        return pos == start ? INVALID_KEY : value;
     }
 }
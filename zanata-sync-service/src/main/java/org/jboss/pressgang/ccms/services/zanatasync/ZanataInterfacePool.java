@@ -0,0 +1,217 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.jboss.pressgang.ccms.zanata.ZanataInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe pool of Zanata interfaces, one for each server, project and version.
+ * <p/>
+ * Interfaces are created the first time they are requested. When more than one thread asks for the same interface at once, only
+ * one interface is created and the other threads wait for it. The pool is bounded: interfaces that haven't been used for the
+ * idle timeout are removed, and if the pool is still over its maximum size the least recently used interfaces are removed.
+ */
+public abstract class ZanataInterfacePool {
+    private static final Logger log = LoggerFactory.getLogger(ZanataInterfacePool.class);
+
+    /**
+     * The default maximum number of interfaces to keep.
+     */
+    public static final int DEFAULT_MAX_SIZE = 50;
+    /**
+     * The default time in milliseconds that an interface can be unused before it's removed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000L;
+
+    private final ConcurrentMap<ZanataDetails, PooledInterface> interfaces = new ConcurrentHashMap<ZanataDetails, PooledInterface>();
+    private final int maxSize;
+    private final long idleTimeout;
+    private final AtomicLong lastEvictionCheck = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * @param maxSize     The maximum number of interfaces to keep, or 0 for no limit.
+     * @param idleTimeout The time in milliseconds an interface can be unused before it's removed, or 0 to keep unused interfaces.
+     */
+    protected ZanataInterfacePool(final int maxSize, final long idleTimeout) {
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Creates a new interface for the pool.
+     *
+     * @param zanataDetails The Zanata server, project and version for the interface.
+     * @return The new interface.
+     */
+    protected abstract ZanataInterface create(final ZanataDetails zanataDetails);
+
+    /**
+     * Called when an interface is removed from the pool, so anything held for it can be released. The interface may still be in
+     * use by a running sync.
+     *
+     * @param zanataDetails   The Zanata server, project and version of the interface.
+     * @param zanataInterface The interface that was removed.
+     */
+    protected void evicted(final ZanataDetails zanataDetails, final ZanataInterface zanataInterface) {
+    }
+
+    /**
+     * Gets the interface for a Zanata server, project and version, creating it if it doesn't already exist.
+     *
+     * @param zanataDetails The Zanata server, project and version.
+     * @return The interface for the details.
+     */
+    public ZanataInterface get(final ZanataDetails zanataDetails) {
+        evictIdle(false);
+
+        PooledInterface pooled = interfaces.get(zanataDetails);
+        if (pooled == null) {
+            // Copy the details, as they can be changed after the interface has been created
+            final ZanataDetails key = new ZanataDetails(zanataDetails);
+            final PooledInterface newPooled = new PooledInterface(new FutureTask<ZanataInterface>(new Callable<ZanataInterface>() {
+                @Override
+                public ZanataInterface call() throws Exception {
+                    return create(key);
+                }
+            }));
+
+            pooled = interfaces.putIfAbsent(key, newPooled);
+            if (pooled == null) {
+                pooled = newPooled;
+                pooled.task.run();
+                evictOverflow();
+            }
+        }
+
+        pooled.touch();
+        try {
+            return pooled.task.get();
+        } catch (ExecutionException e) {
+            // Don't keep the failure, so the next request can try again
+            interfaces.remove(zanataDetails, pooled);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The number of interfaces in the pool.
+     */
+    public int size() {
+        return interfaces.size();
+    }
+
+    /**
+     * Removes any interfaces that haven't been used for the idle timeout.
+     */
+    public void evictIdle() {
+        evictIdle(true);
+    }
+
+    /**
+     * Removes all the interfaces from the pool.
+     */
+    public void clear() {
+        for (final Map.Entry<ZanataDetails, PooledInterface> entry : interfaces.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    protected void evictIdle(final boolean force) {
+        if (idleTimeout <= 0) return;
+
+        // Only check for idle interfaces every so often, so the checks don't slow down every request
+        final long now = System.currentTimeMillis();
+        final long lastCheck = lastEvictionCheck.get();
+        if (!force && (now - lastCheck < Math.min(idleTimeout, 60 * 1000L) || !lastEvictionCheck.compareAndSet(lastCheck, now))) {
+            return;
+        }
+
+        for (final Map.Entry<ZanataDetails, PooledInterface> entry : interfaces.entrySet()) {
+            if (now - entry.getValue().lastUsed > idleTimeout && remove(entry.getKey(), entry.getValue())) {
+                log.info("Removed the idle Zanata interface for " + entry.getKey().getServer() + " " + entry.getKey().getProject() + " "
+                        + entry.getKey().getVersion());
+            }
+        }
+    }
+
+    protected void evictOverflow() {
+        if (maxSize <= 0) return;
+
+        while (interfaces.size() > maxSize) {
+            // Find the least recently used interface. The pool is small, so a scan is cheap compared to creating an interface.
+            Map.Entry<ZanataDetails, PooledInterface> oldest = null;
+            for (final Map.Entry<ZanataDetails, PooledInterface> entry : interfaces.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = entry;
+                }
+            }
+
+            if (oldest == null) return;
+            remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private boolean remove(final ZanataDetails zanataDetails, final PooledInterface pooled) {
+        if (!interfaces.remove(zanataDetails, pooled)) {
+            return false;
+        }
+
+        // Only notify about interfaces that were actually created
+        if (pooled.task.isDone()) {
+            try {
+                evicted(zanataDetails, pooled.task.get());
+            } catch (Exception e) {
+                // The interface failed to be created, so there's nothing to release
+            }
+        }
+        return true;
+    }
+
+    private static class PooledInterface {
+        private final FutureTask<ZanataInterface> task;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledInterface(final FutureTask<ZanataInterface> task) {
+            this.task = task;
+        }
+
+        private void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+}
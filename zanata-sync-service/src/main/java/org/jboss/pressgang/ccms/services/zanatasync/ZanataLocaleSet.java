@@ -0,0 +1,84 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.zanata.common.LocaleId;
+
+/**
+ * An immutable snapshot of the locales a Zanata interface is allowed to sync. ZanataInterface.getZanataLocales() copies the
+ * locale list on every call and has to be scanned to check if a locale is valid, so the sync loops use a snapshot instead,
+ * which can be shared and checked without any allocation. A new snapshot, with a higher version, is created whenever the
+ * locales of the interface are changed.
+ */
+public final class ZanataLocaleSet {
+    private final long version;
+    private final List<LocaleId> locales;
+    private final Set<LocaleId> localeSet;
+
+    public ZanataLocaleSet(final long version, final Collection<LocaleId> locales) {
+        this.version = version;
+        this.locales = Collections.unmodifiableList(new ArrayList<LocaleId>(locales));
+        this.localeSet = Collections.unmodifiableSet(new HashSet<LocaleId>(locales));
+    }
+
+    /**
+     * @return The version of the snapshot. Each time the locales change, the new snapshot has a higher version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The locales, in the same order as the locale manager.
+     */
+    public List<LocaleId> getLocales() {
+        return locales;
+    }
+
+    public boolean contains(final LocaleId locale) {
+        return localeSet.contains(locale);
+    }
+
+    public int size() {
+        return locales.size();
+    }
+
+    /**
+     * Creates the snapshot that should replace this one when the locales change.
+     *
+     * @param locales The new locales.
+     * @return A new snapshot with the next version.
+     */
+    public ZanataLocaleSet update(final Collection<LocaleId> locales) {
+        return new ZanataLocaleSet(version + 1, locales);
+    }
+
+    @Override
+    public String toString() {
+        return "v" + version + " " + locales;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import org.jboss.resteasy.annotations.interception.ClientInterceptor;
+import org.jboss.resteasy.client.ClientResponse;
+import org.jboss.resteasy.spi.interception.ClientExecutionContext;
+import org.jboss.resteasy.spi.interception.ClientExecutionInterceptor;
+
+/**
+ * A RESTEasy client interceptor that makes every REST call to a known Zanata server wait on that servers rate limiter. Calls to
+ * any other host (ie PressGang) are not limited.
+ */
+@ClientInterceptor
+public class ZanataRateLimitInterceptor implements ClientExecutionInterceptor {
+    private final ZanataRateLimiters rateLimiters;
+
+    public ZanataRateLimitInterceptor(final ZanataRateLimiters rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ClientResponse execute(final ClientExecutionContext ctx) throws Exception {
+        final ZanataRateLimiter limiter = rateLimiters.findLimiter(ctx.getRequest().getUri());
+        if (limiter != null) {
+            limiter.acquire();
+        }
+
+        return ctx.proceed();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+/**
+ * Limits the rate that REST calls can be made against a single Zanata server.
+ */
+public interface ZanataRateLimiter {
+    /**
+     * Blocks until the caller is allowed to make another REST call.
+     *
+     * @throws InterruptedException Thrown if the thread is interrupted while waiting.
+     */
+    void acquire() throws InterruptedException;
+
+    /**
+     * @return The total number of calls that have been allowed through the limiter.
+     */
+    long getAcquiredCount();
+
+    /**
+     * @return The number of calls that had to wait before being allowed through the limiter.
+     */
+    long getWaitedCount();
+
+    /**
+     * @return The total time in milliseconds that callers have spent waiting on the limiter.
+     */
+    long getTotalWaitTime();
+
+    /**
+     * @return The longest time in milliseconds that a single caller has spent waiting on the limiter.
+     */
+    long getMaxWaitTime();
+}
@@ -0,0 +1,122 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the rate limiters for each Zanata server, so that every ZanataInterface and sync worker talking to the same host shares
+ * a single rate budget.
+ */
+public class ZanataRateLimiters {
+    private static final Logger log = LoggerFactory.getLogger(ZanataRateLimiters.class);
+
+    private final ConcurrentMap<String, ZanataRateLimiter> limiters = new ConcurrentHashMap<String, ZanataRateLimiter>();
+    private final double permitsPerSecond;
+    private final int burstSize;
+
+    /**
+     * @param permitsPerSecond The number of REST calls allowed per second against a single Zanata server.
+     * @param burstSize        The number of REST calls that can be made in a row against a single Zanata server without waiting.
+     */
+    public ZanataRateLimiters(final double permitsPerSecond, final int burstSize) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSize = burstSize;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurstSize() {
+        return burstSize;
+    }
+
+    /**
+     * Gets the rate limiter for a Zanata server, creating it if it doesn't already exist.
+     *
+     * @param server The Zanata server url.
+     * @return The rate limiter for the servers host.
+     */
+    public ZanataRateLimiter getLimiter(final String server) {
+        final String host = getHost(server);
+        ZanataRateLimiter limiter = limiters.get(host);
+        if (limiter == null) {
+            final ZanataRateLimiter newLimiter = createLimiter(host);
+            limiter = limiters.putIfAbsent(host, newLimiter);
+            if (limiter == null) {
+                log.info("Rate limiting " + host + " to " + permitsPerSecond + " REST calls per second with a burst of " + burstSize);
+                limiter = newLimiter;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Finds the rate limiter for a url, if its host is a known Zanata server.
+     *
+     * @param url The url being requested.
+     * @return The rate limiter for the urls host, or null if the host isn't a known Zanata server.
+     */
+    public ZanataRateLimiter findLimiter(final String url) {
+        final String host = getHost(url);
+        return host == null ? null : limiters.get(host);
+    }
+
+    /**
+     * Creates a new rate limiter for a host. This can be overridden to use a different rate limiting strategy.
+     *
+     * @param host The host the rate limiter will be used for.
+     * @return A new rate limiter.
+     */
+    protected ZanataRateLimiter createLimiter(final String host) {
+        return new TokenBucketRateLimiter(permitsPerSecond, burstSize);
+    }
+
+    /**
+     * Logs how many calls were made against each Zanata server, and how long the callers spent waiting.
+     */
+    public void logStatistics() {
+        for (final Map.Entry<String, ZanataRateLimiter> entry : limiters.entrySet()) {
+            final ZanataRateLimiter limiter = entry.getValue();
+            log.info("Rate Limiting for " + entry.getKey() + ": " + limiter.getAcquiredCount() + " calls, " + limiter.getWaitedCount()
+                    + " waited, " + limiter.getTotalWaitTime() + "ms total wait, " + limiter.getMaxWaitTime() + "ms max wait");
+        }
+    }
+
+    protected static String getHost(final String url) {
+        if (url == null) {
+            return null;
+        }
+
+        try {
+            return new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
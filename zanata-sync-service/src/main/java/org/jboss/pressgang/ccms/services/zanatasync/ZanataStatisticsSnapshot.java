@@ -0,0 +1,164 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.jboss.pressgang.ccms.zanata.ZanataInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
+import org.zanata.rest.dto.stats.ContainerTranslationStatistics;
+import org.zanata.rest.dto.stats.TranslationStatistics;
+
+/**
+ * A snapshot of the Zanata translation statistics for every document and locale in a project version, which is fetched with a
+ * single request per sync.
+ * <p/>
+ * Each document and locale has a signature made up of its message counts for each translation state and the time it was last
+ * translated. Editing, reviewing or adding a translation changes at least one of those, so a translation whose signature matches
+ * the one stored when it was last synced doesn't need to be fetched from Zanata at all.
+ */
+public class ZanataStatisticsSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(ZanataStatisticsSnapshot.class);
+    private static final char SEPARATOR = '\t';
+
+    // Sorted, so the overall signature doesn't depend on the order Zanata returned the documents in
+    private final Map<String, String> signatures;
+    private final String signature;
+
+    protected ZanataStatisticsSnapshot(final Map<String, String> signatures) {
+        this.signatures = Collections.unmodifiableMap(new TreeMap<String, String>(signatures));
+        signature = createSignature(this.signatures);
+    }
+
+    /**
+     * Fetches the statistics for a project version from Zanata.
+     *
+     * @param zanataInterface The Zanata interface to fetch the statistics with.
+     * @param zanataDetails   The details of the project version.
+     * @param locales         The locales to fetch the statistics for.
+     * @return The statistics snapshot, or null if the statistics couldn't be fetched.
+     */
+    public static ZanataStatisticsSnapshot fetch(final ZanataInterface zanataInterface, final ZanataDetails zanataDetails,
+            final List<LocaleId> locales) {
+        if (zanataDetails == null || locales == null || locales.isEmpty()) {
+            return null;
+        }
+
+        final String[] localeIds = new String[locales.size()];
+        for (int i = 0; i < locales.size(); i++) {
+            localeIds[i] = locales.get(i).toString();
+        }
+
+        try {
+            final ContainerTranslationStatistics statistics = zanataInterface.getProxyFactory().getStatisticsResource().getStatistics(
+                    zanataDetails.getProject(), zanataDetails.getVersion(), true, false, localeIds);
+            return statistics == null ? null : create(statistics);
+        } catch (Exception e) {
+            // Without the statistics every translation just has to be fetched, so it isn't worth failing the sync over
+            log.warn("Failed to fetch the Zanata statistics for " + zanataDetails.getProject() + " version " +
+                    zanataDetails.getVersion(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a snapshot from the detailed statistics of a project version.
+     *
+     * @param statistics The project version statistics, including the statistics for each document.
+     * @return The statistics snapshot.
+     */
+    public static ZanataStatisticsSnapshot create(final ContainerTranslationStatistics statistics) {
+        final Map<String, String> signatures = new HashMap<String, String>();
+        if (statistics.getDetailedStats() != null) {
+            for (final ContainerTranslationStatistics documentStatistics : statistics.getDetailedStats()) {
+                if (documentStatistics.getId() == null || documentStatistics.getStats() == null) continue;
+
+                for (final TranslationStatistics localeStatistics : documentStatistics.getStats()) {
+                    // Only the message counts are used, as the word counts change in the same way
+                    if (localeStatistics.getLocale() == null || (localeStatistics.getUnit() != null && localeStatistics.getUnit() !=
+                            TranslationStatistics.StatUnit.MESSAGE)) continue;
+
+                    signatures.put(createKey(documentStatistics.getId(), localeStatistics.getLocale()), createSignature(
+                            localeStatistics));
+                }
+            }
+        }
+        return new ZanataStatisticsSnapshot(signatures);
+    }
+
+    /**
+     * Gets the statistics signature for a single document and locale.
+     *
+     * @param zanataId The Zanata ID of the document.
+     * @param locale   The locale of the translation.
+     * @return The signature, or null if Zanata didn't return any statistics for the document and locale.
+     */
+    public String getSignature(final String zanataId, final LocaleId locale) {
+        return signatures.get(createKey(zanataId, locale.toString()));
+    }
+
+    /**
+     * @return A signature for the statistics of the whole project version, which changes if any document or locale changes.
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return The number of documents and locales that have statistics.
+     */
+    public int size() {
+        return signatures.size();
+    }
+
+    private static String createKey(final String zanataId, final String locale) {
+        return zanataId + SEPARATOR + locale;
+    }
+
+    private static String createSignature(final TranslationStatistics statistics) {
+        return statistics.getTotal() + ":" + statistics.getUntranslated() + ":" + statistics.getFuzzy() + ":" +
+                statistics.getRejected() + ":" + statistics.getTranslatedOnly() + ":" + statistics.getApproved() + ":" +
+                (statistics.getLastTranslated() == null ? "" : statistics.getLastTranslated());
+    }
+
+    private static String createSignature(final Map<String, String> signatures) {
+        final MessageDigest digest = SyncStateStore.createDigest();
+        try {
+            for (final Map.Entry<String, String> entry : signatures.entrySet()) {
+                digest.update(entry.getKey().getBytes("UTF-8"));
+                digest.update((byte) 0);
+                digest.update(entry.getValue().getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return SyncStateStore.toHex(digest);
+    }
+}
@@ -21,17 +21,28 @@ package org.jboss.pressgang.ccms.services.zanatasync;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.jboss.pressgang.ccms.contentspec.utils.EntityUtilities;
 import org.jboss.pressgang.ccms.provider.ContentSpecProvider;
 import org.jboss.pressgang.ccms.provider.DataProviderFactory;
 import org.jboss.pressgang.ccms.provider.TopicProvider;
+import org.jboss.pressgang.ccms.provider.TranslatedCSNodeProvider;
 import org.jboss.pressgang.ccms.provider.exception.NotFoundException;
 import org.jboss.pressgang.ccms.wrapper.CSInfoNodeWrapper;
 import org.jboss.pressgang.ccms.wrapper.CSNodeWrapper;
@@ -50,17 +61,34 @@ import org.jboss.pressgang.ccms.zanata.ZanataDetails;
 import org.jboss.pressgang.ccms.zanata.ZanataInterface;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.zanata.common.LocaleId;
 import org.zanata.rest.dto.resource.ResourceMeta;
 
 public class ZanataSyncService {
     private static final Logger log = LoggerFactory.getLogger(ZanataSyncService.class);
+    /**
+     * The logging context key used to identify which content spec a log message belongs to.
+     */
+    public static final String MDC_CONTENT_SPEC_KEY = "contentSpec";
+    /**
+     * The number of content specs that can be synced against a single Zanata server at once, when the server isn't rate limited
+     * and no maximum has been set.
+     */
+    public static final int DEFAULT_MAX_SPECS_PER_SERVER = 2;
 
     private final DataProviderFactory providerFactory;
     private final ServerSettingsWrapper serverSettings;
     private final double zanataRESTCallInterval;
     private final ZanataDetails defaultZanataDetails;
-    private final Map<ZanataDetails, ZanataInterface> cachedZanataInterface = new HashMap<ZanataDetails, ZanataInterface>();
+    private volatile ZanataInterfacePool zanataInterfacePool = createZanataInterfacePool(ZanataInterfacePool.DEFAULT_MAX_SIZE,
+            ZanataInterfacePool.DEFAULT_IDLE_TIMEOUT);
+    private final Map<String, Semaphore> serverPermits = new HashMap<String, Semaphore>();
+    private final SyncContext syncContext = new SyncContext();
+    private ZanataRateLimiters rateLimiters = null;
+    private ReplayServer replayServer = null;
+    private int parallelSpecs = 1;
+    private Integer maxSpecsPerServer = null;
 
     public ZanataSyncService(final DataProviderFactory providerFactory, final ServerSettingsWrapper serverSettings,
             double zanataRESTCallInterval) {
@@ -82,11 +110,11 @@ public class ZanataSyncService {
 
         final ZanataInterface zanataInterface = initZanataInterface(defaultZanataDetails);
         final Set<String> zanataResources = getAllZanataResources(zanataInterface);
-        final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings);
+        final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings, syncContext);
 
         // Sync the zanata resources to the CCMS
         zanataSync.processZanataResources(zanataResources,
-                locales == null || locales.isEmpty() ? zanataInterface.getZanataLocales() : locales);
+                locales == null || locales.isEmpty() ? syncContext.getZanataLocales(zanataInterface).getLocales() : locales);
     }
 
     public void syncTopics(final Set<String> topicIds, final List<LocaleId> locales) {
@@ -95,64 +123,631 @@ public class ZanataSyncService {
         }
 
         final ZanataInterface zanataInterface = initZanataInterface(defaultZanataDetails);
-        final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings);
+        final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings, syncContext);
 
         // Sync all the topics
         if (topicIds != null && !topicIds.isEmpty()) {
             // Sync the zanata resources to the CCMS
             zanataSync.processZanataResources(topicIds,
-                    locales == null || locales.isEmpty() ? zanataInterface.getZanataLocales() : locales);
+                    locales == null || locales.isEmpty() ? syncContext.getZanataLocales(zanataInterface).getLocales() : locales);
         }
     }
 
-    public void syncContentSpecs(final Set<String> contentSpecIds, final List<LocaleId> locales) {
-        // Sync each content spec one at a time
-        if (contentSpecIds != null && !contentSpecIds.isEmpty()) {
+    /**
+     * Syncs the translations for a set of content specs. A content spec that fails to sync doesn't stop the others from being
+     * synced.
+     *
+     * @param contentSpecIds The content spec ids, and optionally revisions, to sync. eg "123" or "123-45678".
+     * @param locales        The locales to restrict the sync to, or null to use each content specs locales.
+     * @return True if all the content specs synced without failing.
+     */
+    public boolean syncContentSpecs(final Set<String> contentSpecIds, final List<LocaleId> locales) {
+        if (contentSpecIds == null || contentSpecIds.isEmpty()) {
+            return true;
+        }
+
+        // Any failures are collected here, so that a single failing content spec doesn't stop the rest from being synced
+        final Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+
+        if (parallelSpecs <= 1 || contentSpecIds.size() == 1) {
+            // Sync each content spec one at a time
             for (final String contentSpecIdString : contentSpecIds) {
-                final String[] vars = contentSpecIdString.split("-");
-                final Integer contentSpecId = Integer.parseInt(vars[0]);
-                final Integer contentSpecRevision = vars.length > 1 ? Integer.parseInt(vars[1]) : null;
-
-                final ContentSpecWrapper contentSpec = providerFactory.getProvider(ContentSpecProvider.class).getContentSpec
-                        (contentSpecId, contentSpecRevision);
-                final CSTranslationDetailWrapper translationDetails = contentSpec.getTranslationDetails();
-
-                if (translationDetails != null && translationDetails.getTranslationServer() != null) {
-                    // Initial the zanata details and connection
-                    final ZanataDetails zanataDetails = generateZanataDetailsFromCSTranslationDetail(translationDetails);
-                    final ZanataInterface zanataInterface = initZanataInterface(zanataDetails);
-                    final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings);
-
-                    // Get the content specs zanata resource ids
-                    final Set<String> zanataResources = getContentSpecZanataResource(providerFactory, contentSpecId, contentSpecRevision);
-
-                    if (zanataResources != null && !zanataResources.isEmpty()) {
-                        log.info("Syncing " + zanataResources.size() + " translations for content spec " + contentSpecIdString + ".");
-
-                        // Find the actual locales to use
-                        final List<LocaleId> contentSpecLocales = initLocales(translationDetails.getLocales());
-                        final List<LocaleId> fixedLocales;
-                        if (locales == null || locales.isEmpty()) {
-                            fixedLocales = contentSpecLocales;
-                        } else {
-                            fixedLocales = new ArrayList<LocaleId>();
-                            for (final LocaleId locale : locales) {
-                                if (contentSpecLocales.contains(locale)) {
-                                    fixedLocales.add(locale);
-                                }
-                            }
+                syncContentSpecSafely(contentSpecIdString, locales, failures);
+            }
+        } else {
+            // Sync the content specs using a bounded pool of workers
+            final int numThreads = Math.min(parallelSpecs, contentSpecIds.size());
+            log.info("Syncing " + contentSpecIds.size() + " content specs using " + numThreads + " workers.");
+            final ExecutorService executor = Executors.newFixedThreadPool(numThreads, new NamedThreadFactory("spec-sync"));
+            try {
+                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final String contentSpecIdString : contentSpecIds) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            syncContentSpecSafely(contentSpecIdString, locales, failures);
                         }
+                    }));
+                }
 
-                        // Sync the zanata resources to the CCMS
-                        zanataSync.processZanataResources(zanataResources, fixedLocales);
+                // Wait for all the content specs to finish
+                for (final Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // Failures are recorded by the worker itself, so this should never happen
+                        log.error("", e.getCause());
                     }
+                }
+            } catch (InterruptedException e) {
+                log.error("Interrupted while waiting for the content specs to be synced");
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        logFailureReport(contentSpecIds.size(), failures);
+        return failures.isEmpty();
+    }
+
+    /**
+     * Syncs some of the translations for a single content spec, such as the ones a notification said had changed.
+     *
+     * @param contentSpecIdString The content spec id, and optionally revision, to sync. eg "123" or "123-45678".
+     * @param zanataIds           The Zanata IDs to sync. The ids are synced directly, without finding the rest of the content
+     *                            specs resources, so they must belong to the content specs Zanata project and version.
+     * @param locales             The locales to restrict the sync to, or null to use the content specs locales.
+     * @return True if the content spec synced without failing.
+     */
+    public boolean syncContentSpecResources(final String contentSpecIdString, final Set<String> zanataIds,
+            final List<LocaleId> locales) {
+        final Map<String, Throwable> failures = new HashMap<String, Throwable>();
+        syncContentSpecSafely(contentSpecIdString, zanataIds, locales, failures);
+        return failures.isEmpty();
+    }
+
+    /**
+     * Syncs some Zanata resources without knowing which content specs they belong to, such as the ones a notification said had
+     * changed. Content spec resources belong to the content spec in their id, and content spec topics belong to the content spec of
+     * their translated node. Those are synced the same as {@link #syncContentSpecResources(String, Set, List)}, using the latest
+     * revision of each content spec for the Zanata details. Plain topics are synced using the default Zanata details.
+     *
+     * @param zanataIds The Zanata IDs to sync.
+     * @param locales   The locales to restrict the sync to, or null to use each content specs locales.
+     * @return True if all the resources were found and synced without failing.
+     */
+    public boolean syncResources(final Set<String> zanataIds, final List<LocaleId> locales) {
+        final TranslatedCSNodeProvider translatedCSNodeProvider = providerFactory.getProvider(TranslatedCSNodeProvider.class);
+        final Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+        final Map<String, Set<String>> contentSpecResources = new LinkedHashMap<String, Set<String>>();
+        final Set<String> topicResources = new LinkedHashSet<String>();
+
+        // Find the content spec each resource belongs to
+        for (final String zanataIdString : zanataIds) {
+            final ZanataId zanataId = ZanataId.parse(zanataIdString);
+            String contentSpecIdString = null;
+            try {
+                if (zanataId.getType() == ZanataId.Type.CONTENT_SPEC) {
+                    contentSpecIdString = Integer.toString(zanataId.getId());
+                } else if (zanataId.getType() == ZanataId.Type.CONTENT_SPEC_TOPIC) {
+                    final TranslatedCSNodeWrapper translatedCSNode = translatedCSNodeProvider.getTranslatedCSNode(zanataId.getNodeId());
+                    final TranslatedContentSpecWrapper translatedContentSpec = translatedCSNode.getTranslatedContentSpec();
+                    contentSpecIdString = translatedContentSpec.getContentSpecId().toString();
+                } else if (zanataId.getType() == ZanataId.Type.TOPIC) {
+                    topicResources.add(zanataIdString);
+                    continue;
+                }
+            } catch (Exception e) {
+                log.error("Failed to find the content spec for " + zanataIdString, e);
+                failures.put(zanataIdString, e);
+                continue;
+            }
+
+            if (contentSpecIdString == null) {
+                log.warn("Skipping " + zanataIdString + " because it isn't a valid Zanata ID");
+            } else {
+                if (!contentSpecResources.containsKey(contentSpecIdString)) {
+                    contentSpecResources.put(contentSpecIdString, new LinkedHashSet<String>());
+                }
+                contentSpecResources.get(contentSpecIdString).add(zanataIdString);
+            }
+        }
+
+        for (final Map.Entry<String, Set<String>> entry : contentSpecResources.entrySet()) {
+            syncContentSpecSafely(entry.getKey(), entry.getValue(), locales, failures);
+        }
+
+        if (!topicResources.isEmpty()) {
+            try {
+                syncTopics(topicResources, locales);
+            } catch (Exception e) {
+                log.error("Failed to sync the topics " + topicResources, e);
+                failures.put("topics", e);
+            }
+        }
+
+        return failures.isEmpty();
+    }
+
+    /**
+     * Syncs a single content spec, recording any failure instead of throwing it.
+     *
+     * @param contentSpecIdString The content spec id, and optionally revision, to sync. eg "123" or "123-45678".
+     * @param locales             The locales to restrict the sync to, or null to use the content specs locales.
+     * @param failures            The map to add the failure to, if the content spec fails to sync.
+     */
+    protected void syncContentSpecSafely(final String contentSpecIdString, final List<LocaleId> locales,
+            final Map<String, Throwable> failures) {
+        syncContentSpecSafely(contentSpecIdString, null, locales, failures);
+    }
+
+    /**
+     * Syncs a single content spec, recording any failure instead of throwing it.
+     *
+     * @param contentSpecIdString The content spec id, and optionally revision, to sync. eg "123" or "123-45678".
+     * @param zanataIds           The Zanata IDs to sync, or null to sync all the content specs resources.
+     * @param locales             The locales to restrict the sync to, or null to use the content specs locales.
+     * @param failures            The map to add the failure to, if the content spec fails to sync.
+     */
+    protected void syncContentSpecSafely(final String contentSpecIdString, final Set<String> zanataIds, final List<LocaleId> locales,
+            final Map<String, Throwable> failures) {
+        MDC.put(MDC_CONTENT_SPEC_KEY, "[CS" + contentSpecIdString + "]");
+        final long start = System.nanoTime();
+        try {
+            syncContentSpec(contentSpecIdString, zanataIds, locales);
+        } catch (final Throwable ex) {
+            log.error("Failed to sync content spec " + contentSpecIdString, ex);
+            failures.put(contentSpecIdString, ex);
+            syncContext.getMetrics().increment(SyncMetrics.CONTENT_SPECS_FAILED);
+        } finally {
+            syncContext.getMetrics().recordTime(SyncMetrics.CONTENT_SPEC, start);
+            MDC.remove(MDC_CONTENT_SPEC_KEY);
+        }
+    }
+
+    /**
+     * Syncs all the translations for a single content spec.
+     *
+     * @param contentSpecIdString The content spec id, and optionally revision, to sync. eg "123" or "123-45678".
+     * @param locales             The locales to restrict the sync to, or null to use the content specs locales.
+     */
+    protected void syncContentSpec(final String contentSpecIdString, final List<LocaleId> locales) {
+        syncContentSpec(contentSpecIdString, null, locales);
+    }
+
+    /**
+     * Syncs the translations for a single content spec.
+     *
+     * @param contentSpecIdString The content spec id, and optionally revision, to sync. eg "123" or "123-45678".
+     * @param zanataIds           The Zanata IDs to sync, or null to sync all the content specs resources.
+     * @param locales             The locales to restrict the sync to, or null to use the content specs locales.
+     */
+    protected void syncContentSpec(final String contentSpecIdString, final Set<String> zanataIds, final List<LocaleId> locales) {
+        final String[] vars = contentSpecIdString.split("-");
+        final Integer contentSpecId = Integer.parseInt(vars[0]);
+        final Integer contentSpecRevision = vars.length > 1 ? Integer.parseInt(vars[1]) : null;
+
+        final ContentSpecWrapper contentSpec = providerFactory.getProvider(ContentSpecProvider.class).getContentSpec
+                (contentSpecId, contentSpecRevision);
+        final CSTranslationDetailWrapper translationDetails = contentSpec.getTranslationDetails();
+
+        if (translationDetails != null && translationDetails.getTranslationServer() != null) {
+            // Initial the zanata details and connection
+            final ZanataDetails zanataDetails = generateZanataDetailsFromCSTranslationDetail(translationDetails);
+            final ZanataInterface zanataInterface = initZanataInterface(zanataDetails);
+            final BaseZanataSync zanataSync = new SyncMaster(providerFactory, zanataInterface, serverSettings, syncContext);
+
+            // Find the actual locales to use
+            final List<LocaleId> contentSpecLocales = initLocales(translationDetails.getLocales());
+            final List<LocaleId> fixedLocales;
+            if (locales == null || locales.isEmpty()) {
+                fixedLocales = contentSpecLocales;
+            } else {
+                fixedLocales = new ArrayList<LocaleId>();
+                for (final LocaleId locale : locales) {
+                    if (contentSpecLocales.contains(locale)) {
+                        fixedLocales.add(locale);
+                    }
+                }
+            }
+
+            /*
+             * When syncing the whole content spec, check the Zanata statistics for the project version first. If nothing has changed
+             * since every translation of the content spec was last synced, then there is no need to look up its resources at all.
+             */
+            final SyncStateStore stateStore = syncContext.getSyncStateStore();
+            String contentSpecSignature = null;
+            if (zanataIds == null && stateStore != null && !syncContext.isFullSync()) {
+                final ZanataStatisticsSnapshot statistics = fetchStatistics(zanataInterface, zanataDetails, fixedLocales);
+                if (statistics != null) {
+                    contentSpecSignature = createContentSpecSignature(contentSpec, statistics, fixedLocales);
+                    if (contentSpecSignature.equals(stateStore.getContentSpecSignature(zanataDetails, contentSpecIdString))) {
+                        syncContext.getMetrics().increment(SyncMetrics.CONTENT_SPECS_SKIPPED);
+                        log.info("Skipping " + contentSpecIdString + " because no translations have changed since the last sync");
+                        return;
+                    }
+                    zanataSync.setStatistics(statistics);
+                }
+            }
+
+            // Get the content specs zanata resource ids, unless the resources to sync have been named directly
+            final Set<String> zanataResources = zanataIds == null ? getContentSpecZanataResource(providerFactory, contentSpecId,
+                    contentSpecRevision) : zanataIds;
+
+            if (zanataResources != null && !zanataResources.isEmpty()) {
+                log.info("Syncing " + zanataResources.size() + " translations for content spec " + contentSpecIdString + ".");
+
+                // Sync the zanata resources to the CCMS, making sure we stay within the budget for the zanata server
+                final Semaphore serverPermit = getServerPermit(zanataDetails.getServer());
+                serverPermit.acquireUninterruptibly();
+                try {
+                    zanataSync.processZanataResources(zanataResources, fixedLocales);
+                } finally {
+                    serverPermit.release();
+                }
+            }
+
+            // Only remember the content spec once every translation is in sync, so anything that failed is retried next time
+            if (contentSpecSignature != null && zanataResources != null && isContentSpecSynced(zanataInterface, zanataDetails,
+                    zanataSync.getStatistics(), zanataResources, fixedLocales)) {
+                stateStore.recordContentSpec(zanataDetails, contentSpecIdString, contentSpecSignature);
+            }
+        } else {
+            log.info("Skipping " + contentSpecIdString + " because it has missing or incorrect translation details");
+        }
+    }
+
+    /**
+     * Fetches the Zanata statistics for a project version, within the budget for the zanata server.
+     *
+     * @param zanataInterface The Zanata interface to fetch the statistics with.
+     * @param zanataDetails   The details of the project version.
+     * @param locales         The locales to fetch the statistics for.
+     * @return The statistics, or null if they couldn't be fetched.
+     */
+    protected ZanataStatisticsSnapshot fetchStatistics(final ZanataInterface zanataInterface, final ZanataDetails zanataDetails,
+            final List<LocaleId> locales) {
+        final Semaphore serverPermit = getServerPermit(zanataDetails.getServer());
+        serverPermit.acquireUninterruptibly();
+        try {
+            return ZanataStatisticsSnapshot.fetch(zanataInterface, zanataDetails, locales);
+        } finally {
+            serverPermit.release();
+        }
+    }
+
+    /**
+     * Creates the signature that is stored once all of a content spec's translations have been synced. It changes if the
+     * content spec is edited, the locales being synced change, or anything in the Zanata project version changes.
+     *
+     * @param contentSpec The content spec being synced.
+     * @param statistics  The Zanata statistics for the content spec's project version.
+     * @param locales     The locales being synced.
+     * @return The hex encoded signature.
+     */
+    protected String createContentSpecSignature(final ContentSpecWrapper contentSpec, final ZanataStatisticsSnapshot statistics,
+            final List<LocaleId> locales) {
+        final StringBuilder signature = new StringBuilder(statistics.getSignature());
+        signature.append('\n').append(contentSpec.getLastModified() == null ? "" : contentSpec.getLastModified().getTime());
+        for (final LocaleId locale : locales) {
+            signature.append('\n').append(locale.toString());
+        }
+
+        final MessageDigest digest = SyncStateStore.createDigest();
+        try {
+            digest.update(signature.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return SyncStateStore.toHex(digest);
+    }
+
+    /**
+     * Checks if every translation of a content spec that Zanata has statistics for was synced with those statistics.
+     *
+     * @param zanataInterface The Zanata interface the content spec was synced with.
+     * @param zanataDetails   The details of the content spec's project version.
+     * @param statistics      The Zanata statistics the content spec was synced with.
+     * @param zanataResources The Zanata IDs of the content spec's resources.
+     * @param locales         The locales that were synced.
+     * @return True if all the translations are in the sync state store with the same statistics.
+     */
+    protected boolean isContentSpecSynced(final ZanataInterface zanataInterface, final ZanataDetails zanataDetails,
+            final ZanataStatisticsSnapshot statistics, final Set<String> zanataResources, final List<LocaleId> locales) {
+        final SyncStateStore stateStore = syncContext.getSyncStateStore();
+        final ZanataLocaleSet zanataLocales = syncContext.getZanataLocales(zanataInterface);
+        for (final String zanataId : zanataResources) {
+            for (final LocaleId locale : locales) {
+                final String statisticsSignature = statistics.getSignature(zanataId, locale);
+                if (statisticsSignature != null && zanataLocales.contains(locale) && !stateStore.isUpToDate(zanataDetails, zanataId,
+                        locale, statisticsSignature)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Logs a summary of the content spec sync, including any content specs that failed.
+     *
+     * @param total    The total number of content specs that were synced.
+     * @param failures The content specs that failed to sync, and the reason why.
+     */
+    protected void logFailureReport(final int total, final Map<String, Throwable> failures) {
+        if (failures.isEmpty()) {
+            log.info("Successfully synced all " + total + " content specs.");
+        } else {
+            final StringBuilder report = new StringBuilder("Failed to sync " + failures.size() + " of " + total + " content specs:");
+            synchronized (failures) {
+                for (final Map.Entry<String, Throwable> entry : failures.entrySet()) {
+                    report.append("\n\tCS").append(entry.getKey()).append(": ").append(entry.getValue().toString());
+                }
+            }
+            log.error(report.toString());
+        }
+    }
+
+    /**
+     * Gets the semaphore that limits how many content specs can be synced against a single Zanata server at once. If no maximum
+     * has been set, then the servers rate limit burst is used when the Zanata servers are rate limited, since any more specs
+     * would only queue up in the rate limiter while holding onto their ZanataInterface and translations. Otherwise
+     * {@link #DEFAULT_MAX_SPECS_PER_SERVER} is used.
+     *
+     * @param server The Zanata server url.
+     * @return The semaphore for the server.
+     */
+    protected Semaphore getServerPermit(final String server) {
+        synchronized (serverPermits) {
+            Semaphore permit = serverPermits.get(server);
+            if (permit == null) {
+                final int permits;
+                if (maxSpecsPerServer != null && maxSpecsPerServer > 0) {
+                    permits = maxSpecsPerServer;
+                } else if (rateLimiters != null) {
+                    permits = Math.max(1, rateLimiters.getBurstSize());
                 } else {
-                    log.info("Skipping " + contentSpecIdString + " because it has missing or incorrect translation details");
+                    permits = DEFAULT_MAX_SPECS_PER_SERVER;
                 }
+                log.info("Limiting " + server + " to " + permits + " concurrent content spec syncs");
+                permit = new Semaphore(permits, true);
+                serverPermits.put(server, permit);
             }
+            return permit;
         }
     }
 
+    public int getParallelSpecs() {
+        return parallelSpecs;
+    }
+
+    /**
+     * Sets the number of content specs that can be synced at the same time.
+     *
+     * @param parallelSpecs The number of concurrent content spec workers. A value of 1 or less syncs them one at a time.
+     */
+    public void setParallelSpecs(final int parallelSpecs) {
+        this.parallelSpecs = parallelSpecs;
+
+        // The pipeline workers are sized from the number of content specs
+        if (syncContext.getPipelineExecutor() != null) {
+            setPipelineQueueSize(syncContext.getPipelineQueueSize());
+        }
+    }
+
+    public Integer getMaxSpecsPerServer() {
+        return maxSpecsPerServer;
+    }
+
+    /**
+     * Sets the maximum number of content specs that can be synced against a single Zanata server at the same time.
+     *
+     * @param maxSpecsPerServer The maximum number of concurrent content specs per server, or null to use the default for each
+     *                          server.
+     */
+    public void setMaxSpecsPerServer(final Integer maxSpecsPerServer) {
+        this.maxSpecsPerServer = maxSpecsPerServer;
+    }
+
+    /**
+     * Sets the number of locales that can have their translations fetched from Zanata at the same time. The pool of locale
+     * workers is shared between all the content specs being synced.
+     *
+     * @param localeThreads The number of concurrent locale workers. A value of 1 or less fetches each locale one at a time.
+     */
+    public void setLocaleThreads(final int localeThreads) {
+        final ExecutorService existingExecutor = syncContext.getLocaleExecutor();
+        if (localeThreads > 1) {
+            syncContext.setLocaleExecutor(Executors.newFixedThreadPool(localeThreads, new NamedThreadFactory("locale-fetch")));
+            // Keep enough fetches queued to keep the workers busy, without holding every translation in a chunk in memory
+            syncContext.setMaxPendingFetches(localeThreads * 2);
+        } else {
+            syncContext.setLocaleExecutor(null);
+            syncContext.setMaxPendingFetches(1);
+        }
+
+        if (existingExecutor != null) {
+            existingExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Sets the number of topic revisions that can be downloaded from PressGang at the same time, when finding the Zanata IDs of
+     * a content spec. The pool of workers is shared between all the content specs being synced.
+     *
+     * @param topicLookupThreads The number of concurrent topic downloads. A value of 1 or less downloads each topic one at a time.
+     */
+    public void setTopicLookupThreads(final int topicLookupThreads) {
+        final ExecutorService existingExecutor = syncContext.getTopicLookupExecutor();
+        if (topicLookupThreads > 1) {
+            syncContext.setTopicLookupExecutor(Executors.newFixedThreadPool(topicLookupThreads, new NamedThreadFactory("topic-lookup")));
+        } else {
+            syncContext.setTopicLookupExecutor(null);
+        }
+
+        if (existingExecutor != null) {
+            existingExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Sets how many historical topic revisions can be cached, so that a topic revision is only downloaded once for the whole run
+     * no matter how many content specs include it.
+     *
+     * @param topicCacheSize The maximum number of topic revisions to cache, or 0 to disable caching.
+     */
+    public void setTopicRevisionCacheSize(final int topicCacheSize) {
+        syncContext.setTopicRevisionCache(new TopicRevisionCache(topicCacheSize));
+    }
+
+    /**
+     * Sets how many prepared source documents can be cached, so that the source XML of a topic revision is only parsed once for
+     * all its locales.
+     *
+     * @param sourceCacheSize The maximum number of source documents to cache, or 0 to disable the cache.
+     */
+    public void setSourceDocumentCacheSize(final int sourceCacheSize) {
+        syncContext.setSourceDocumentCache(new SourceDocumentCache(sourceCacheSize));
+    }
+
+    /**
+     * Sets the store used to track what has already been synced, so that unchanged translations can be skipped.
+     *
+     * @param syncStateStore The sync state store, or null to sync everything that Zanata reports as modified.
+     * @param fullSync       True if unchanged translations should still be synced, while still recording their state.
+     */
+    public void setSyncStateStore(final SyncStateStore syncStateStore, final boolean fullSync) {
+        syncContext.setSyncStateStore(syncStateStore);
+        syncContext.setFullSync(fullSync);
+    }
+
+    /**
+     * Sets how many Zanata IDs are synced at a time. The existing translated topics are downloaded from PressGang in pages of this
+     * size, so it bounds how many translated topics are held in memory at once.
+     *
+     * @param downloadChunkSize The number of Zanata IDs to process at a time.
+     */
+    public void setDownloadChunkSize(final int downloadChunkSize) {
+        syncContext.setDownloadChunkSize(downloadChunkSize);
+    }
+
+    /**
+     * Sets the size of the queues between each stage of the topic sync pipeline. The pipeline overlaps fetching the translations,
+     * fetching the source data, merging the translations and saving the translated topics.
+     *
+     * @param pipelineQueueSize The maximum number of items waiting between each stage, or 0 to sync each topic one at a time.
+     */
+    public void setPipelineQueueSize(final int pipelineQueueSize) {
+        final ExecutorService existingExecutor = syncContext.getPipelineExecutor();
+        if (pipelineQueueSize > 0) {
+            // Each content spec worker can run one pipeline, and each pipeline needs three background stages
+            final int maxPipelines = Math.max(1, parallelSpecs);
+            syncContext.setPipelineExecutor(Executors.newFixedThreadPool(maxPipelines * 3, new NamedThreadFactory("topic-pipeline")));
+            syncContext.setPipelinePermits(new Semaphore(maxPipelines));
+            syncContext.setPipelineQueueSize(pipelineQueueSize);
+        } else {
+            syncContext.setPipelineExecutor(null);
+            syncContext.setPipelineQueueSize(0);
+        }
+
+        if (existingExecutor != null) {
+            existingExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Sets how the translated topics should be batched together when they are saved to PressGang.
+     *
+     * @param batchSize     The number of translated topics to save in a single request, or 0 to save each one as it's synced.
+     * @param flushInterval The maximum time, in milliseconds, that a translated topic should wait to be saved.
+     */
+    public void setPersistBatching(final int batchSize, final long flushInterval) {
+        syncContext.setPersistBatchSize(batchSize);
+        syncContext.setPersistFlushInterval(flushInterval);
+    }
+
+    /**
+     * Clears anything cached from PressGang that may have changed since the last sync, so that it's downloaded again by the next
+     * sync. This includes the cached topic revisions, as their expanded translated topics may have been added to or updated since
+     * they were downloaded. The source documents and Zanata interfaces are kept, as they don't change.
+     */
+    public void refreshServerConstants() {
+        refreshStringConstants();
+        syncContext.getTopicRevisionCache().clear();
+    }
+
+    /**
+     * Clears the string constants, but keeps the cached topic revisions. This is enough when the Zanata IDs to sync are named
+     * directly, as the expanded translated topics are then only used to find the pushed translated topic, which is created before
+     * any translations can change.
+     */
+    public void refreshStringConstants() {
+        syncContext.clearStringConstants();
+    }
+
+    /**
+     * Sets the limits of the pool of Zanata interfaces. Any interfaces that have already been created are discarded.
+     *
+     * @param maxSize     The maximum number of Zanata server, project and version interfaces to keep, or 0 for no limit.
+     * @param idleTimeout The time in milliseconds an interface can be unused before it's discarded, or 0 to never discard them.
+     */
+    public void setZanataInterfacePoolLimits(final int maxSize, final long idleTimeout) {
+        final ZanataInterfacePool oldPool = zanataInterfacePool;
+        zanataInterfacePool = createZanataInterfacePool(maxSize, idleTimeout);
+        oldPool.clear();
+    }
+
+    public ZanataRateLimiters getRateLimiters() {
+        return rateLimiters;
+    }
+
+    /**
+     * Sets the rate limiters to use for the Zanata servers. When set, the Zanata servers are registered with the rate limiters as
+     * they are first used, and the fixed REST call interval is no longer applied.
+     *
+     * @param rateLimiters The shared Zanata server rate limiters, or null to use the fixed REST call interval.
+     */
+    public void setRateLimiters(final ZanataRateLimiters rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
+    /**
+     * Sets the local server that should be used in place of the real Zanata servers, when recording or replaying a sync.
+     *
+     * @param replayServer The local record/replay server, or null to talk to the Zanata servers directly.
+     */
+    public void setReplayServer(final ReplayServer replayServer) {
+        this.replayServer = replayServer;
+    }
+
+    /**
+     * @return The timings and counts for all the syncs done by this service.
+     */
+    public SyncMetrics getMetrics() {
+        return syncContext.getMetrics();
+    }
+
+    /**
+     * Logs how effective the caches shared between the syncs were.
+     */
+    public void logCacheStatistics() {
+        final TopicRevisionCache topicCache = syncContext.getTopicRevisionCache();
+        log.info("Topic Revision Cache: " + topicCache.getHits() + " hits, " + topicCache.getMisses() + " misses, " + topicCache.size()
+                + " cached");
+
+        final SourceDocumentCache sourceDocumentCache = syncContext.getSourceDocumentCache();
+        log.info("Source Document Cache: " + sourceDocumentCache.getHits() + " hits, " + sourceDocumentCache.getMisses() + " misses");
+    }
+
+    /**
+     * Releases any resources held by the sync service.
+     */
+    public void shutdown() {
+        zanataInterfacePool.clear();
+        syncContext.shutdown();
+    }
+
     /**
      * Generates the Zanata details from a content specifications translation properties.
      *
@@ -247,51 +842,73 @@ public class ZanataSyncService {
     protected Set<String> getZanataIds(final DataProviderFactory providerFactory,
             final List<TranslatedContentSpecWrapper> translatedContentSpecs) {
         final TopicProvider topicProvider = providerFactory.getProvider(TopicProvider.class);
+        final TopicRevisionLoader topicLoader = new TopicRevisionLoader(topicProvider, syncContext.getTopicRevisionCache(),
+                syncContext.getTopicLookupExecutor());
         final Set<String> zanataIds = new HashSet<String>();
 
-        // Get the zanata ids for each content spec
-        for (final TranslatedContentSpecWrapper translatedContentSpec : translatedContentSpecs) {
-            zanataIds.add(translatedContentSpec.getZanataId());
-            final CollectionWrapper<TranslatedCSNodeWrapper> translatedCSNodes = translatedContentSpec.getTranslatedNodes();
-
-            log.info("Downloading topics...");
-            final int showPercent = 10;
-            final float total = translatedCSNodes.getItems().size();
-            float current = 0;
-            int lastPercent = 0;
-
-            for (final TranslatedCSNodeWrapper translatedCSNode : translatedCSNodes.getItems()) {
-                final CSNodeWrapper csNode = translatedCSNode.getCSNode();
-                // Make sure the node is a topic
-                if (EntityUtilities.isNodeATopic(csNode)) {
-                    final TranslatedTopicWrapper pushedTopic = getTranslatedTopic(topicProvider, csNode.getEntityId(),
-                            csNode.getEntityRevision(), translatedCSNode);
-
-                    // If a pushed topic was found then add it
-                    if (pushedTopic != null) {
-                        zanataIds.add(pushedTopic.getZanataId());
+        try {
+            // Get the zanata ids for each content spec
+            for (final TranslatedContentSpecWrapper translatedContentSpec : translatedContentSpecs) {
+                zanataIds.add(translatedContentSpec.getZanataId());
+                final List<TranslatedCSNodeWrapper> translatedCSNodes = translatedContentSpec.getTranslatedNodes().getItems();
+
+                // Request all the topic revisions up front, so they can be downloaded concurrently. Any topic revisions shared
+                // between nodes will only be downloaded once.
+                for (final TranslatedCSNodeWrapper translatedCSNode : translatedCSNodes) {
+                    final CSNodeWrapper csNode = translatedCSNode.getCSNode();
+                    if (EntityUtilities.isNodeATopic(csNode)) {
+                        topicLoader.request(csNode.getEntityId(), csNode.getEntityRevision());
+                    }
+                    if (csNode.getInfoTopicNode() != null) {
+                        final CSInfoNodeWrapper csNodeInfo = csNode.getInfoTopicNode();
+                        topicLoader.request(csNodeInfo.getTopicId(), csNodeInfo.getTopicRevision());
                     }
                 }
 
-                // Add the info topic if one exists
-                if (csNode.getInfoTopicNode() != null) {
-                    final CSInfoNodeWrapper csNodeInfo = csNode.getInfoTopicNode();
-                    final TranslatedTopicWrapper pushedTopic = getTranslatedTopic(topicProvider, csNodeInfo.getTopicId(),
-                            csNodeInfo.getTopicRevision(), translatedCSNode);
+                log.info("Downloading " + topicLoader.size() + " topics...");
+                final long start = System.nanoTime();
+                final int showPercent = 10;
+                final float total = translatedCSNodes.size();
+                float current = 0;
+                int lastPercent = 0;
+
+                for (final TranslatedCSNodeWrapper translatedCSNode : translatedCSNodes) {
+                    final CSNodeWrapper csNode = translatedCSNode.getCSNode();
+                    // Make sure the node is a topic
+                    if (EntityUtilities.isNodeATopic(csNode)) {
+                        final TopicWrapper topic = topicLoader.getTopic(csNode.getEntityId(), csNode.getEntityRevision());
+                        final TranslatedTopicWrapper pushedTopic = getTranslatedTopic(topic, translatedCSNode);
+
+                        // If a pushed topic was found then add it
+                        if (pushedTopic != null) {
+                            zanataIds.add(pushedTopic.getZanataId());
+                        }
+                    }
 
-                    // If a pushed topic was found then add it
-                    if (pushedTopic != null) {
-                        zanataIds.add(pushedTopic.getZanataId());
+                    // Add the info topic if one exists
+                    if (csNode.getInfoTopicNode() != null) {
+                        final CSInfoNodeWrapper csNodeInfo = csNode.getInfoTopicNode();
+                        final TopicWrapper topic = topicLoader.getTopic(csNodeInfo.getTopicId(), csNodeInfo.getTopicRevision());
+                        final TranslatedTopicWrapper pushedTopic = getTranslatedTopic(topic, translatedCSNode);
+
+                        // If a pushed topic was found then add it
+                        if (pushedTopic != null) {
+                            zanataIds.add(pushedTopic.getZanataId());
+                        }
                     }
-                }
 
-                ++current;
-                final int percent = Math.round(current / total * 100);
-                if (percent - lastPercent >= showPercent) {
-                    lastPercent = percent;
-                    log.info("Downloading topics {}% Done", percent);
+                    ++current;
+                    final int percent = Math.round(current / total * 100);
+                    if (percent - lastPercent >= showPercent) {
+                        lastPercent = percent;
+                        log.info("Downloading topics {}% Done", percent);
+                    }
                 }
+                syncContext.getMetrics().recordTime(SyncMetrics.TOPIC_LOOKUP, start);
             }
+        } finally {
+            // Make sure nothing is left downloading if a topic failed
+            topicLoader.cancel();
         }
 
         return zanataIds;
@@ -299,8 +916,11 @@ public class ZanataSyncService {
 
     protected TranslatedTopicWrapper getTranslatedTopic(final TopicProvider topicProvider, final Integer topicId,
             final Integer topicRevision, final TranslatedCSNodeWrapper translatedCSNode) {
-        final TopicWrapper topic = topicProvider.getTopic(topicId, topicRevision);
+        final TopicWrapper topic = syncContext.getTopicRevisionCache().getTopic(topicProvider, topicId, topicRevision);
+        return getTranslatedTopic(topic, translatedCSNode);
+    }
 
+    protected TranslatedTopicWrapper getTranslatedTopic(final TopicWrapper topic, final TranslatedCSNodeWrapper translatedCSNode) {
         // Try and see if it was pushed with a condition
         TranslatedTopicWrapper pushedTopic = EntityUtilities.returnPushedTranslatedTopic(topic, translatedCSNode);
         // If pushed topic is null then it means no condition was used
@@ -312,22 +932,56 @@ public class ZanataSyncService {
     }
 
     private ZanataInterface initZanataInterface(final ZanataDetails zanataDetails) {
-        if (cachedZanataInterface.containsKey(zanataDetails)) {
-            return cachedZanataInterface.get(zanataDetails);
-        } else {
-            final ZanataInterface zanataInterface = new ZanataInterface(zanataRESTCallInterval, zanataDetails);
+        return zanataInterfacePool.get(zanataDetails);
+    }
 
-            // Initialise the locales to use
-            final List<LocaleId> locales = initLocales(serverSettings.getLocales());
-            zanataInterface.getLocaleManager().setLocales(new ArrayList<LocaleId>(locales));
+    private ZanataInterfacePool createZanataInterfacePool(final int maxSize, final long idleTimeout) {
+        return new ZanataInterfacePool(maxSize, idleTimeout) {
+            @Override
+            protected ZanataInterface create(final ZanataDetails zanataDetails) {
+                return createZanataInterface(zanataDetails);
+            }
 
-            // Remove the default locale as it won't have any translations
-            zanataInterface.getLocaleManager().removeLocale(new LocaleId(serverSettings.getDefaultLocale().getTranslationValue()));
+            @Override
+            protected void evicted(final ZanataDetails zanataDetails, final ZanataInterface zanataInterface) {
+                syncContext.removeZanataLocales(zanataInterface);
+                syncContext.removeZanataDetails(zanataInterface);
+            }
+        };
+    }
 
-            // Cache the interface and return
-            cachedZanataInterface.put(zanataDetails, zanataInterface);
-            return zanataInterface;
+    private ZanataInterface createZanataInterface(final ZanataDetails zanataDetails) {
+        // When recording or replaying, send the requests to the local server instead. A different host name is used to the
+        // PressGang server, so the rate limiters only apply to the Zanata requests.
+        final ZanataDetails interfaceDetails;
+        if (replayServer != null) {
+            interfaceDetails = new ZanataDetails(zanataDetails);
+            interfaceDetails.setServer(replayServer.getLocalUrl(zanataDetails.getServer(), "127.0.0.1"));
+        } else {
+            interfaceDetails = zanataDetails;
         }
+
+        // If the Zanata server has a shared rate limiter, then the interface itself doesn't need to wait between calls
+        final ZanataInterface zanataInterface;
+        if (rateLimiters != null) {
+            rateLimiters.getLimiter(interfaceDetails.getServer());
+            zanataInterface = new ZanataInterface(0, interfaceDetails);
+        } else {
+            zanataInterface = new ZanataInterface(zanataRESTCallInterval, interfaceDetails);
+        }
+
+        // Initialise the locales to use
+        final List<LocaleId> locales = initLocales(serverSettings.getLocales());
+        zanataInterface.getLocaleManager().setLocales(new ArrayList<LocaleId>(locales));
+
+        // Remove the default locale as it won't have any translations
+        zanataInterface.getLocaleManager().removeLocale(new LocaleId(serverSettings.getDefaultLocale().getTranslationValue()));
+        syncContext.updateZanataLocales(zanataInterface);
+
+        // Register the real server, rather than any replay server, so the sync state is the same when recording and replaying
+        syncContext.setZanataDetails(zanataInterface, zanataDetails);
+
+        return zanataInterface;
     }
 
     private List<LocaleId> initLocales(final CollectionWrapper<LocaleWrapper> locales) {
@@ -0,0 +1,198 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.jboss.pressgang.ccms.utils.services.BaseServiceThread;
+import org.jboss.pressgang.ccms.utils.services.ServiceStarter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zanata.common.LocaleId;
+
+/**
+ * Listens on a STOMP queue for notifications that translations have changed, and passes them on to be synced. If the connection
+ * to the STOMP server is lost, then the thread keeps trying to reconnect until it's shutdown.
+ * <p/>
+ * Each line of a message identifies one changed resource, in the form [&lt;ContentSpecID&gt;:]&lt;ZanataID&gt;[/&lt;Locale&gt;].
+ * For example "5678-91011/de-DE", "5678-91011-1213" or "1234:5678-91011". When the content spec is missing, it is found from the
+ * Zanata ID when the batch is synced, which costs an extra lookup for content spec topics. If the locale is missing, then all the
+ * content specs locales are synced. Lines that can't be read are logged and skipped.
+ */
+public class ZanataSyncStompThread extends BaseServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(ZanataSyncStompThread.class);
+    private static final long RECONNECT_DELAY = 10 * 1000L;
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final String queue;
+    private final SyncRequestCoalescer coalescer;
+    private volatile StompConnection connection = null;
+    private volatile boolean shutdownRequested = false;
+    private volatile boolean shutdown = false;
+
+    public ZanataSyncStompThread(final ServiceStarter serviceStarter, final SyncRequestCoalescer coalescer) {
+        this(serviceStarter.getMessageServer(), Integer.parseInt(serviceStarter.getMessageServerPort()),
+                serviceStarter.getMessageServerUser(), serviceStarter.getMessageServerPass(), serviceStarter.getMessageServerQueue(),
+                coalescer);
+    }
+
+    /**
+     * @param host      The STOMP server host.
+     * @param port      The STOMP server port.
+     * @param user      The user to log in to the STOMP server as, or null to connect without a login.
+     * @param password  The users password, or null if there isn't one.
+     * @param queue     The queue to listen on. eg "/queue/translations".
+     * @param coalescer The coalescer to pass the sync requests on to.
+     */
+    public ZanataSyncStompThread(final String host, final int port, final String user, final String password, final String queue,
+            final SyncRequestCoalescer coalescer) {
+        super();
+        setName("stomp-listener");
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.queue = queue;
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!shutdownRequested) {
+                listen();
+
+                // Wait a little before reconnecting, so a STOMP server that is down isn't flooded with connections
+                if (!shutdownRequested) {
+                    try {
+                        Thread.sleep(RECONNECT_DELAY);
+                    } catch (InterruptedException e) {
+                        // Interrupted by shutdown(), so the loop will exit
+                    }
+                }
+            }
+        } finally {
+            shutdown = true;
+        }
+    }
+
+    /**
+     * Connects to the STOMP server, and passes on the messages from the queue until the connection is lost or the thread is
+     * shutdown.
+     */
+    protected void listen() {
+        try {
+            connection = new StompConnection(host, port, user, password);
+            // Check again, in case shutdown() was called while connecting and missed the connection
+            if (shutdownRequested) return;
+            connection.subscribe(queue);
+            log.info("Listening for changed translations on " + queue);
+
+            StompConnection.Frame frame;
+            while (!shutdownRequested && (frame = connection.receive()) != null) {
+                if ("MESSAGE".equals(frame.getCommand())) {
+                    message(frame.getHeaders(), frame.getBody());
+                } else if ("ERROR".equals(frame.getCommand())) {
+                    log.error("The STOMP server sent an error: " + frame.getHeaders().get("message"));
+                }
+            }
+
+            if (!shutdownRequested) {
+                log.warn("The STOMP server closed the connection");
+            }
+        } catch (IOException e) {
+            if (!shutdownRequested) {
+                log.error("Lost the connection to the STOMP server at " + host + ":" + port, e);
+            }
+        } finally {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Stops listening for messages. The thread exits once any message that is being read has been passed on.
+     */
+    @Override
+    public void shutdown() {
+        shutdownRequested = true;
+
+        // Closing the connection stops the thread waiting on the next message
+        final StompConnection currentConnection = connection;
+        if (currentConnection != null) {
+            currentConnection.close();
+        }
+        interrupt();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Passes on each of the sync requests in a message.
+     *
+     * @param headers The message headers.
+     * @param message The message body, with one sync request per line.
+     */
+    public void message(final Map<String, String> headers, final String message) {
+        if (message == null) return;
+
+        for (final String line : message.split("\\r?\\n")) {
+            final String request = line.trim();
+            if (request.isEmpty()) continue;
+
+            if (!addRequest(request)) {
+                log.warn("Ignoring the invalid sync request \"" + request + "\"");
+            }
+        }
+    }
+
+    /**
+     * Parses a single sync request and adds it to the coalescer.
+     *
+     * @param request The request, in the form [&lt;ContentSpecID&gt;:]&lt;ZanataID&gt;[/&lt;Locale&gt;].
+     * @return True if the request was valid.
+     */
+    protected boolean addRequest(final String request) {
+        final int colon = request.indexOf(':');
+        final String contentSpecId = colon == -1 ? null : request.substring(0, colon).trim();
+        final String resource = request.substring(colon + 1).trim();
+        final int slash = resource.indexOf('/');
+        final ZanataId zanataId = ZanataId.parse(slash == -1 ? resource : resource.substring(0, slash).trim());
+        final String locale = slash == -1 ? null : resource.substring(slash + 1).trim();
+
+        // The content spec id can optionally include a revision, the same as when syncing content specs from the command line
+        if ((contentSpecId != null && !contentSpecId.matches("\\d+(-\\d+)?")) || zanataId.getType() == ZanataId.Type.UNKNOWN
+                || (locale != null && locale.isEmpty())) {
+            return false;
+        }
+
+        coalescer.add(contentSpecId, zanataId.toString(), locale == null ? null : LocaleId.fromJavaName(locale));
+        return true;
+    }
+}
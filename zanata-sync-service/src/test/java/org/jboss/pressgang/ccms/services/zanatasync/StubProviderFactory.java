@@ -0,0 +1,57 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.pressgang.ccms.provider.DataProviderFactory;
+
+/**
+ * A provider factory that hands out in memory stub providers, so the sync classes can be tested and benchmarked without a
+ * PressGang server. Providers are created on first use, and can be configured through {@link Stubs#with(Object, String, Object)}.
+ */
+public class StubProviderFactory extends DataProviderFactory {
+    private final Map<Class<?>, Object> providers = new HashMap<Class<?>, Object>();
+
+    @Override
+    protected synchronized <T> T loadProvider(final Class<T> clazz) {
+        Object provider = providers.get(clazz);
+        if (provider == null) {
+            provider = Stubs.bean(clazz);
+            providers.put(clazz, provider);
+        }
+        return clazz.cast(provider);
+    }
+
+    @Override
+    public boolean isTransactionsSupported() {
+        return false;
+    }
+
+    @Override
+    public void rollback() {
+    }
+
+    @Override
+    public boolean isNotificationsSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.pressgang.ccms.wrapper.base.BaseWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.CollectionWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
+
+/**
+ * Creates in memory stand-ins for the PressGang wrapper and provider interfaces, so the sync classes can be tested and benchmarked
+ * without a PressGang server. Stubs behave like simple beans: setters store a value and getters return it. Getters for other
+ * wrappers, and any "new..." factory method, return another stub, and collection wrappers are backed by a list that remembers
+ * whether each item was added as an unchanged, new, updated or removed item.
+ */
+public final class Stubs {
+    private Stubs() {
+    }
+
+    /**
+     * Creates a bean like stub for an interface.
+     *
+     * @param type The interface to stub.
+     * @return The stub.
+     */
+    public static <T> T bean(final Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, new BeanHandler()));
+    }
+
+    /**
+     * Creates a collection wrapper stub, that also supports the updateable collection methods.
+     *
+     * @param items The initial items in the collection.
+     * @return The stub.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends BaseWrapper<T>> UpdateableCollectionWrapper<T> collection(final List<T> items) {
+        return (UpdateableCollectionWrapper<T>) newCollection(items);
+    }
+
+    private static Object newCollection(final List<?> items) {
+        return Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{UpdateableCollectionWrapper.class},
+                new CollectionHandler(new ArrayList<Object>(items)));
+    }
+
+    /**
+     * Sets the value that a stubs method will return. For getters the property name can be used instead of the method name, ie
+     * "xml" for "getXml()".
+     *
+     * @param stub  The stub created by {@link #bean(Class)}.
+     * @param name  The property or method name.
+     * @param value The value to return.
+     * @return The stub, so calls can be chained.
+     */
+    public static <T> T with(final T stub, final String name, final Object value) {
+        ((BeanHandler) Proxy.getInvocationHandler(stub)).values.put(name, value);
+        return stub;
+    }
+
+    private static String getPropertyName(final String methodName, final int prefixLength) {
+        return Character.toLowerCase(methodName.charAt(prefixLength)) + methodName.substring(prefixLength + 1);
+    }
+
+    private static Object newStub(final Class<?> type) {
+        if (CollectionWrapper.class.isAssignableFrom(type)) {
+            return newCollection(new ArrayList<Object>());
+        } else {
+            return bean(type);
+        }
+    }
+
+    private static Object getDefaultValue(final Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return (char) 0;
+        return null;
+    }
+
+    private static class BeanHandler implements InvocationHandler {
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            final int numArgs = args == null ? 0 : args.length;
+
+            if (name.equals("equals") && numArgs == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && numArgs == 0) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && numArgs == 0) {
+                return "Stub" + values;
+            } else if (values.containsKey(name)) {
+                return values.get(name);
+            } else if (name.startsWith("set") && name.length() > 3 && numArgs == 1) {
+                values.put(getPropertyName(name, 3), args[0]);
+                return null;
+            } else if (name.startsWith("get") && name.length() > 3 && numArgs == 0) {
+                final String property = getPropertyName(name, 3);
+                if (!values.containsKey(property) && method.getReturnType().isInterface()) {
+                    // Create nested stubs on demand, so they can be configured through their parent
+                    values.put(property, newStub(method.getReturnType()));
+                }
+                if (values.containsKey(property)) {
+                    return values.get(property);
+                }
+            } else if (name.startsWith("is") && name.length() > 2 && numArgs == 0) {
+                final String property = getPropertyName(name, 2);
+                if (values.containsKey(property)) {
+                    return values.get(property);
+                }
+            } else if (name.startsWith("new") && method.getReturnType().isInterface()) {
+                return newStub(method.getReturnType());
+            }
+
+            return getDefaultValue(method.getReturnType());
+        }
+    }
+
+    private static class CollectionHandler implements InvocationHandler {
+        private static final String UNCHANGED = "Unchanged";
+        private static final Map<String, String> ADD_METHOD_STATES = new HashMap<String, String>();
+
+        static {
+            ADD_METHOD_STATES.put("addItem", UNCHANGED);
+            ADD_METHOD_STATES.put("addNewItem", "Add");
+            ADD_METHOD_STATES.put("addUpdateItem", "Update");
+            ADD_METHOD_STATES.put("addRemoveItem", "Remove");
+        }
+
+        private final List<Object> items;
+        private final List<String> states = new ArrayList<String>();
+
+        private CollectionHandler(final List<Object> items) {
+            this.items = items;
+            for (int i = 0; i < items.size(); i++) {
+                states.add(UNCHANGED);
+            }
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            final int numArgs = args == null ? 0 : args.length;
+
+            if (name.equals("equals") && numArgs == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && numArgs == 0) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && numArgs == 0) {
+                return "StubCollection" + items;
+            } else if (ADD_METHOD_STATES.containsKey(name) && numArgs == 1) {
+                items.add(args[0]);
+                states.add(ADD_METHOD_STATES.get(name));
+                return null;
+            } else if (name.equals("remove") && numArgs == 1) {
+                final int index = items.indexOf(args[0]);
+                if (index != -1) {
+                    items.remove(index);
+                    states.remove(index);
+                }
+                return null;
+            } else if (name.equals("size") && numArgs == 0) {
+                return items.size();
+            } else if (name.equals("isEmpty") && numArgs == 0) {
+                return items.isEmpty();
+            } else if (name.equals("getItems") && numArgs == 0) {
+                // Return a copy, since callers may modify the collection while iterating over the items
+                return new ArrayList<Object>(items);
+            } else if (name.startsWith("get") && name.endsWith("Items") && numArgs == 0) {
+                final String state = name.substring(3, name.length() - 5);
+                final List<Object> stateItems = new ArrayList<Object>();
+                for (int i = 0; i < items.size(); i++) {
+                    if (states.get(i).equals(state)) {
+                        stateItems.add(items.get(i));
+                    }
+                }
+                return stateItems;
+            }
+
+            return getDefaultValue(method.getReturnType());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zanata.common.LocaleId;
+
+public class SyncRequestCoalescerTest {
+    private static final long WINDOW = 200L;
+    private static final LocaleId DE = new LocaleId("de-DE");
+    private static final LocaleId JA = new LocaleId("ja-JP");
+    private static final String FAILING_CONTENT_SPEC = "666";
+    private static final String THROWING_CONTENT_SPEC = "667";
+
+    @Test
+    public void shouldMergeRepeatedRequestsWithinTheWindow() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add("1234", "5678-1", JA);
+        coalescer.add("1234", "5679-2", DE);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.shutdown();
+
+        assertEquals(5, coalescer.getReceivedCount());
+        assertEquals(1, coalescer.getSyncs().size());
+        final SyncCall sync = coalescer.getSyncs().get(0);
+        assertEquals("1234", sync.contentSpecId);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("5678-1", "5679-2")), sync.zanataIds);
+        assertEquals(Arrays.asList(DE, JA), sync.locales);
+    }
+
+    @Test
+    public void shouldSyncEachContentSpecSeparately() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add("4321", "5678-1", DE);
+        coalescer.shutdown();
+
+        assertEquals(2, coalescer.getSyncs().size());
+        assertEquals("1234", coalescer.getSyncs().get(0).contentSpecId);
+        assertEquals("4321", coalescer.getSyncs().get(1).contentSpecId);
+    }
+
+    @Test
+    public void shouldBatchTheRequestsWithoutAContentSpecTogether() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add(null, "5678-1", DE);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add(null, "CS4321-1", JA);
+        coalescer.shutdown();
+
+        assertEquals(2, coalescer.getSyncs().size());
+        assertNull(coalescer.getSyncs().get(0).contentSpecId);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("5678-1", "CS4321-1")), coalescer.getSyncs().get(0).zanataIds);
+        assertEquals(Arrays.asList(DE, JA), coalescer.getSyncs().get(0).locales);
+        assertEquals("1234", coalescer.getSyncs().get(1).contentSpecId);
+    }
+
+    @Test
+    public void shouldSyncAllLocalesWhenALocaleIsMissing() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add("1234", "5679-2", null);
+        coalescer.add("1234", "5678-1", JA);
+        coalescer.shutdown();
+
+        assertEquals(1, coalescer.getSyncs().size());
+        assertNull(coalescer.getSyncs().get(0).locales);
+    }
+
+    @Test
+    public void shouldCollectRequestsMadeWhileSyncingIntoTheNextBatch() throws InterruptedException {
+        final CountDownLatch syncing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW, syncing, release);
+        coalescer.add("1234", "5678-1", DE);
+        assertTrue(syncing.await(5, TimeUnit.SECONDS));
+
+        coalescer.add("1234", "5679-2", JA);
+        release.countDown();
+        waitForSyncs(coalescer, 2);
+        coalescer.shutdown();
+
+        assertEquals(2, coalescer.getSyncs().size());
+        assertEquals(Collections.singleton("5678-1"), coalescer.getSyncs().get(0).zanataIds);
+        assertEquals(Collections.singleton("5679-2"), coalescer.getSyncs().get(1).zanataIds);
+    }
+
+    @Test
+    public void shouldFinishTheBatchInFlightWhenShutdown() throws InterruptedException {
+        final CountDownLatch syncing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW, syncing, release);
+        coalescer.add("1234", "5678-1", DE);
+        assertTrue(syncing.await(5, TimeUnit.SECONDS));
+
+        final Thread shutdownThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.shutdown();
+            }
+        });
+        shutdownThread.start();
+
+        // The shutdown should wait for the batch to finish syncing
+        shutdownThread.join(WINDOW);
+        assertTrue(shutdownThread.isAlive());
+        assertTrue(coalescer.getSyncs().isEmpty());
+
+        release.countDown();
+        shutdownThread.join(5000L);
+        assertFalse(shutdownThread.isAlive());
+        assertEquals(1, coalescer.getSyncs().size());
+        assertEquals(Collections.singleton("5678-1"), coalescer.getSyncs().get(0).zanataIds);
+    }
+
+    @Test
+    public void shouldSyncAnOpenWindowWhenShutdown() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add("1234", "5678-1", DE);
+
+        // The window hasn't closed yet, but the requests already received should still be synced
+        coalescer.shutdown();
+        assertEquals(1, coalescer.getSyncs().size());
+        assertEquals(Collections.singleton("5678-1"), coalescer.getSyncs().get(0).zanataIds);
+    }
+
+    @Test
+    public void shouldIgnoreRequestsAfterShutdown() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.shutdown();
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.shutdown();
+
+        assertEquals(1, coalescer.getReceivedCount());
+        assertTrue(coalescer.getSyncs().isEmpty());
+    }
+
+    @Test
+    public void shouldCountTheBatchesThatFailToSync() {
+        final RecordingCoalescer coalescer = new RecordingCoalescer(WINDOW);
+        coalescer.add("1234", "5678-1", DE);
+        coalescer.add(FAILING_CONTENT_SPEC, "5678-1", DE);
+        coalescer.add(THROWING_CONTENT_SPEC, "5678-1", DE);
+        coalescer.add("4321", "5678-1", DE);
+        coalescer.shutdown();
+
+        // A failed batch shouldn't stop the rest from being synced
+        assertEquals(4, coalescer.getSyncs().size());
+        assertEquals(2, coalescer.getFailedCount());
+    }
+
+    private static void waitForSyncs(final RecordingCoalescer coalescer, final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000L;
+        while (coalescer.getSyncs().size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * Records each sync, optionally blocking the first one until it is released.
+     */
+    private static class RecordingCoalescer extends SyncRequestCoalescer {
+        private final List<SyncCall> syncs = new ArrayList<SyncCall>();
+        private final CountDownLatch syncing;
+        private final CountDownLatch release;
+
+        private RecordingCoalescer(final long window) {
+            this(window, null, null);
+        }
+
+        private RecordingCoalescer(final long window, final CountDownLatch syncing, final CountDownLatch release) {
+            super(window);
+            this.syncing = syncing;
+            this.release = release;
+        }
+
+        @Override
+        protected boolean sync(final String contentSpecId, final Set<String> zanataIds, final List<LocaleId> locales) {
+            if (syncing != null && syncing.getCount() > 0) {
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            synchronized (syncs) {
+                syncs.add(new SyncCall(contentSpecId, zanataIds, locales));
+            }
+
+            if (FAILING_CONTENT_SPEC.equals(contentSpecId)) {
+                return false;
+            } else if (THROWING_CONTENT_SPEC.equals(contentSpecId)) {
+                throw new IllegalStateException("Failed to sync " + contentSpecId);
+            }
+            return true;
+        }
+
+        private List<SyncCall> getSyncs() {
+            synchronized (syncs) {
+                return new ArrayList<SyncCall>(syncs);
+            }
+        }
+    }
+
+    private static class SyncCall {
+        private final String contentSpecId;
+        private final Set<String> zanataIds;
+        private final List<LocaleId> locales;
+
+        private SyncCall(final String contentSpecId, final Set<String> zanataIds, final List<LocaleId> locales) {
+            this.contentSpecId = contentSpecId;
+            this.zanataIds = zanataIds;
+            this.locales = locales;
+        }
+    }
+}
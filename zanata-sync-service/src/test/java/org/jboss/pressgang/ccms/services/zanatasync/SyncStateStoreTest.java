@@ -0,0 +1,151 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.jboss.pressgang.ccms.zanata.ZanataDetails;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zanata.common.LocaleId;
+
+public class SyncStateStoreTest {
+    private static final LocaleId DE = new LocaleId("de-DE");
+
+    private File file;
+    private ZanataDetails version1;
+    private ZanataDetails version2;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("zanata-sync-state", ".txt");
+        file.delete();
+        version1 = createZanataDetails("https://translate.example.com/", "Product", "1.0");
+        version2 = createZanataDetails("https://translate.example.com/", "Product", "2.0");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldKeepTheSameResourceSeparateInEachProjectVersion() {
+        final SyncStateStore store = new SyncStateStore(file);
+        store.record(version1, "123-4", DE, 50, new FetchedTranslation(null, "hash1", "etag1", "stats1"));
+
+        assertTrue(store.contains(version1, "123-4"));
+        assertFalse(store.contains(version2, "123-4"));
+        assertTrue(store.isUnchanged(version1, "123-4", DE, "hash1"));
+        assertFalse(store.isUnchanged(version2, "123-4", DE, "hash1"));
+        assertTrue(store.isUpToDate(version1, "123-4", DE, "stats1"));
+        assertFalse(store.isUpToDate(version2, "123-4", DE, "stats1"));
+    }
+
+    @Test
+    public void shouldSaveAndLoadEveryColumn() throws IOException {
+        final SyncStateStore store = new SyncStateStore(file);
+        final FetchedTranslation fetchedTranslation = new FetchedTranslation(null, "hash1", "\"etag1\"", "1:0:0:0:1:0:2014-01-01");
+        fetchedTranslation.setMergeFingerprint("fingerprint1");
+        store.record(version1, "123-4", DE, 100, fetchedTranslation);
+        store.record(version2, "CS1", DE, null, new FetchedTranslation(null, "hash2"));
+        store.recordContentSpec(version1, "1", "signature1");
+        store.save();
+
+        final SyncStateStore loaded = new SyncStateStore(file);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.isModified());
+
+        final SyncStateStore.Entry entry = loaded.get(version1, "123-4", DE);
+        assertEquals(Integer.valueOf(100), entry.getTranslationPercentage());
+        assertEquals("hash1", entry.getContentHash());
+        assertEquals("\"etag1\"", entry.getETag());
+        assertEquals("1:0:0:0:1:0:2014-01-01", entry.getStatisticsSignature());
+        assertEquals("fingerprint1", entry.getMergeFingerprint());
+
+        final SyncStateStore.Entry emptyEntry = loaded.get(version2, "CS1", DE);
+        assertNull(emptyEntry.getTranslationPercentage());
+        assertEquals("hash2", emptyEntry.getContentHash());
+        assertNull(emptyEntry.getETag());
+        assertNull(emptyEntry.getStatisticsSignature());
+        assertNull(emptyEntry.getMergeFingerprint());
+
+        assertEquals("signature1", loaded.getContentSpecSignature(version1, "1"));
+        assertNull(loaded.getContentSpecSignature(version2, "1"));
+    }
+
+    @Test
+    public void shouldIgnoreEntriesWithoutAProjectVersion() throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("123-4\tde-DE\t100\thash1\t1388534400000\tfingerprint1\n");
+            writer.write("123-4\tde-DE\t100\thash1\t1388534400000\n");
+        } finally {
+            writer.close();
+        }
+
+        final SyncStateStore store = new SyncStateStore(file);
+        store.load();
+        assertEquals(0, store.size());
+        assertFalse(store.contains(version1, "123-4"));
+    }
+
+    @Test
+    public void shouldKeepTheSyncedContentWhenRecordingAnUnchangedTranslation() {
+        final SyncStateStore store = new SyncStateStore(file);
+        final FetchedTranslation fetchedTranslation = new FetchedTranslation(null, "hash1", "etag1", "stats1");
+        fetchedTranslation.setMergeFingerprint("fingerprint1");
+        store.record(version1, "123-4", DE, 75, fetchedTranslation);
+
+        store.recordUnchanged(version1, "123-4", DE, null, "stats2");
+
+        final SyncStateStore.Entry entry = store.get(version1, "123-4", DE);
+        assertEquals(Integer.valueOf(75), entry.getTranslationPercentage());
+        assertEquals("hash1", entry.getContentHash());
+        assertEquals("etag1", entry.getETag());
+        assertEquals("fingerprint1", entry.getMergeFingerprint());
+        assertTrue(store.isUpToDate(version1, "123-4", DE, "stats2"));
+
+        // A translation that was only ever reported as not modified has no known content
+        store.recordUnchanged(version2, "123-4", DE, "etag2", "stats3");
+        assertFalse(store.isUnchanged(version2, "123-4", DE, "hash1"));
+        assertTrue(store.isUpToDate(version2, "123-4", DE, "stats3"));
+        assertFalse(store.isUpToDate(version2, "123-4", DE, null));
+    }
+
+    private static ZanataDetails createZanataDetails(final String server, final String project, final String version) {
+        final ZanataDetails zanataDetails = new ZanataDetails();
+        zanataDetails.setServer(server);
+        zanataDetails.setProject(project);
+        zanataDetails.setVersion(version);
+        return zanataDetails;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.zanata.common.LocaleId;
+import org.zanata.rest.dto.resource.Resource;
+import org.zanata.rest.dto.resource.TextFlow;
+
+public class TextFlowWordCounterTest {
+    /**
+     * Strings in the shape of the DocBook TextFlows pushed to Zanata.
+     */
+    private static final List<String> CORPUS = Arrays.asList(
+            "Installing the Server",
+            "To install the server, run the following command as the <systemitem class=\"username\">root</systemitem> user:",
+            "<command>yum install server</command>",
+            "The <filename>/etc/server.conf</filename> file contains  the   default settings.",
+            "Refer to <xref linkend=\"sect-Configuration\" /> for more information. ",
+            " Leading space before the sentence.",
+            "Multi-line\ncontent that was\twrapped in the\n  source XML",
+            "x",
+            ".",
+            "\u00dcn\u00efc\u00f6d\u00e9 w\u00f6rds \u00fcnd \u00f1on-ASCII \u6587\u5b57 \u30c6\u30ad\u30b9\u30c8",
+            "Trailing whitespace\t\n",
+            "   ",
+            "");
+
+    @Test
+    public void shouldCountAnEmptyString() {
+        assertCountMatchesSplit("");
+    }
+
+    @Test
+    public void shouldCountOnlySpaces() {
+        assertCountMatchesSplit(" ");
+        assertCountMatchesSplit("  ");
+        assertCountMatchesSplit("      ");
+    }
+
+    @Test
+    public void shouldCountLeadingSpaces() {
+        assertCountMatchesSplit(" word");
+        assertCountMatchesSplit("   two words");
+    }
+
+    @Test
+    public void shouldCountTrailingSpaces() {
+        assertCountMatchesSplit("word ");
+        assertCountMatchesSplit("two words   ");
+    }
+
+    @Test
+    public void shouldCountRepeatedSpaces() {
+        assertCountMatchesSplit("two  words");
+        assertCountMatchesSplit("  some   spaced    out words  ");
+    }
+
+    @Test
+    public void shouldOnlySplitOnSpaces() {
+        assertCountMatchesSplit("tab\tseparated");
+        assertCountMatchesSplit("new\nline");
+        assertCountMatchesSplit("\t\n");
+        assertCountMatchesSplit(" \t mixed\n whitespace \r\n");
+    }
+
+    @Test
+    public void shouldCountTheCorpus() {
+        for (final String content : CORPUS) {
+            assertCountMatchesSplit(content);
+        }
+    }
+
+    @Test
+    public void shouldCountRandomStrings() {
+        final char[] alphabet = {' ', ' ', 'a', 'b', '\t', '\n', '.'};
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final char[] content = new char[random.nextInt(12)];
+            for (int j = 0; j < content.length; j++) {
+                content[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertCountMatchesSplit(new String(content));
+        }
+    }
+
+    @Test
+    public void shouldCalculateTheSameTranslationPercentage() {
+        final Resource resource = new Resource("Test");
+        final List<TextFlow> translated = new ArrayList<TextFlow>();
+        int splitTotal = 0;
+        int splitTranslated = 0;
+        for (int i = 0; i < CORPUS.size(); i++) {
+            final TextFlow textFlow = new TextFlow(Integer.toString(i), LocaleId.EN_US, CORPUS.get(i));
+            resource.getTextFlows().add(textFlow);
+            splitTotal += CORPUS.get(i).split(" ").length;
+
+            // Treat every other TextFlow as translated
+            if (i % 2 == 0) {
+                translated.add(textFlow);
+                splitTranslated += CORPUS.get(i).split(" ").length;
+            }
+        }
+
+        final TextFlowWordCounter wordCounter = new TextFlowWordCounter(resource);
+        double wordCount = 0;
+        for (final TextFlow textFlow : translated) {
+            wordCount += wordCounter.getWordCount(textFlow);
+        }
+        final double totalWordCount = wordCounter.getTotalWordCount();
+
+        assertEquals(splitTotal, wordCounter.getTotalWordCount());
+        assertEquals((int) ((double) splitTranslated / (double) splitTotal * 100.0f), (int) (wordCount / totalWordCount * 100.0f));
+    }
+
+    @Test
+    public void shouldOnlyMatchTheSameResource() {
+        final Resource resource = new Resource("Test");
+        resource.getTextFlows().add(new TextFlow("1", LocaleId.EN_US, "Some content"));
+
+        final TextFlowWordCounter wordCounter = new TextFlowWordCounter(resource);
+        assertTrue(wordCounter.isFor(resource));
+        assertFalse(wordCounter.isFor(new Resource("Test")));
+    }
+
+    private static void assertCountMatchesSplit(final String content) {
+        assertEquals("Word count for \"" + content + "\"", content.split(" ").length, TextFlowWordCounter.countWords(content));
+    }
+}
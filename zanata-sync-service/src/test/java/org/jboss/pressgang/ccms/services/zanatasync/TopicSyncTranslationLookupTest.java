@@ -0,0 +1,326 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jboss.pressgang.ccms.provider.StringConstantProvider;
+import org.jboss.pressgang.ccms.utils.constants.CommonConstants;
+import org.jboss.pressgang.ccms.wrapper.ServerSettingsWrapper;
+import org.jboss.pressgang.ccms.wrapper.StringConstantWrapper;
+import org.jboss.pressgang.ccms.wrapper.TopicWrapper;
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicStringWrapper;
+import org.jboss.pressgang.ccms.wrapper.TranslatedTopicWrapper;
+import org.jboss.pressgang.ccms.wrapper.collection.UpdateableCollectionWrapper;
+import org.jboss.pressgang.ccms.zanata.ZanataTranslation;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.zanata.common.ContentState;
+import org.zanata.rest.dto.resource.TextFlowTarget;
+
+/**
+ * Checks that the translated topics are built exactly the same way as they were before the translation sources were resolved with
+ * hashed lookups, and the translatable strings were extracted in a single pass.
+ * <p/>
+ * The topics in the corpus directory are merged with the pseudo-translations and existing translated strings in the matching
+ * "*.translations.xml" file. The "*.expected.xml" and "*.expected-strings.xml" files hold the translated XML and translated strings
+ * that the original pipeline produced for the same input.
+ */
+public class TopicSyncTranslationLookupTest {
+    private static final Integer TOPIC_ID = 1234;
+    private static final Integer TOPIC_REVISION = 56789;
+    private static final String CORPUS_DIR = "/corpus/";
+
+    private TopicSync topicSync;
+
+    @Before
+    public void setUp() {
+        topicSync = new TopicSync(providerFactory(), null, serverSettings(), new SyncContext());
+    }
+
+    @Test
+    public void shouldTranslateInstallingTheServer() throws Exception {
+        assertMatchesExpectedOutput("installing-the-server", "de-DE");
+    }
+
+    @Test
+    public void shouldTranslateInstallingTheServerWithExistingStrings() throws Exception {
+        assertMatchesExpectedOutput("installing-the-server", "ja-JP");
+    }
+
+    @Test
+    public void shouldTranslateConfigurationReference() throws Exception {
+        assertMatchesExpectedOutput("configuration-reference", "de-DE");
+    }
+
+    @Test
+    public void shouldTranslateConfigurationReferenceFromAlternateSources() throws Exception {
+        assertMatchesExpectedOutput("configuration-reference", "fr-FR");
+    }
+
+    @Test
+    public void shouldTranslateDocBook50ReleaseNotesWithACondition() throws Exception {
+        assertMatchesExpectedOutput("release-notes", "de-DE");
+    }
+
+    @Test
+    public void shouldTranslateDocBook50ReleaseNotes() throws Exception {
+        assertMatchesExpectedOutput("release-notes", "es-ES");
+    }
+
+    @Test
+    public void shouldTranslateGlossaryPushedAsV1Strings() throws Exception {
+        assertMatchesExpectedOutput("glossary", "de-DE");
+    }
+
+    @Test
+    public void shouldTranslateTroubleshootingPushedAsEveryStringVersion() throws Exception {
+        assertMatchesExpectedOutput("troubleshooting", "de-DE");
+    }
+
+    @Test
+    public void shouldFindExactSource() {
+        final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
+        translationDetails.put("Restart the server.", translation("Restart the server."));
+
+        assertEquals("Restart the server.", topicSync.findTranslationSource(translationDetails, "Restart the server."));
+    }
+
+    @Test
+    public void shouldFindAlternateSource() {
+        final String source = "Only change a setting if x < 10 and <emphasis>y</emphasis> > 5.";
+        final String alternate = "Only change a setting if x &lt; 10 and <emphasis>y</emphasis> &gt; 5.";
+        assertEquals(alternate, topicSync.getAlternateSourceString(source));
+
+        final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
+        translationDetails.put(alternate, translation(alternate));
+
+        assertEquals(alternate, topicSync.findTranslationSource(translationDetails, source));
+    }
+
+    @Test
+    public void shouldPreferExactSourceOverAlternate() {
+        final String source = "Use x < 10.";
+        final String alternate = "Use x &lt; 10.";
+        final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
+        translationDetails.put(alternate, translation(alternate));
+        translationDetails.put(source, translation(source));
+
+        assertEquals(source, topicSync.findTranslationSource(translationDetails, source));
+    }
+
+    @Test
+    public void shouldNotFindMissingSource() {
+        final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
+        translationDetails.put("Restart the server.", translation("Restart the server."));
+
+        assertNull(topicSync.findTranslationSource(translationDetails, "Stop the server."));
+        assertNull(topicSync.findTranslationSource(translationDetails, null));
+    }
+
+    /**
+     * Merges the translations for a corpus topic, and checks the translated XML and strings match what the original pipeline
+     * produced.
+     *
+     * @param topicName The name of the topic in the corpus directory.
+     * @param locale    The locale the topic is being translated to.
+     */
+    private void assertMatchesExpectedOutput(final String topicName, final String locale) throws Exception {
+        final String casePrefix = topicName + "." + locale;
+        final Element translationCase = parseResource(casePrefix + ".translations.xml");
+
+        // Build the translated topic and the translations pulled from Zanata
+        final List<TranslatedTopicStringWrapper> existingStrings = new ArrayList<TranslatedTopicStringWrapper>();
+        for (final Element existing : getChildElements(translationCase, "existing")) {
+            existingStrings.add(translatedString(getChildText(existing, "source"), getChildText(existing, "target"),
+                    Boolean.parseBoolean(existing.getAttribute("fuzzy"))));
+        }
+        final TranslatedTopicWrapper translatedTopic = translatedTopic(readResource(topicName + ".xml"),
+                translationCase.getAttribute("format"), translationCase.hasAttribute("condition") ? translationCase.getAttribute(
+                "condition") : null, existingStrings);
+
+        final Map<String, ZanataTranslation> translationDetails = new HashMap<String, ZanataTranslation>();
+        for (final Element translation : getChildElements(translationCase, "translation")) {
+            final boolean fuzzy = Boolean.parseBoolean(translation.getAttribute("fuzzy"));
+            translationDetails.put(getChildText(translation, "source"), new ZanataTranslation(getChildText(translation, "target"),
+                    fuzzy ? ContentState.NeedReview : ContentState.Approved));
+        }
+
+        final boolean changed = topicSync.processTranslatedTopicXML(translatedTopic, translationDetails);
+
+        // Check the results match the output of the original pipeline
+        assertEquals(readResource(casePrefix + ".expected.xml"), translatedTopic.getXml());
+
+        final Element expectedStrings = parseResource(casePrefix + ".expected-strings.xml");
+        assertEquals(Boolean.parseBoolean(expectedStrings.getAttribute("changed")), changed);
+
+        final List<String> expected = new ArrayList<String>();
+        for (final Element string : getChildElements(expectedStrings, "string")) {
+            expected.add(describeString(string.getAttribute("state"), Boolean.parseBoolean(string.getAttribute("fuzzy")),
+                    getChildText(string, "source"), getChildText(string, "target")));
+        }
+        assertEquals(expected, describeStrings(translatedTopic));
+    }
+
+    /**
+     * Describes each translated string in a translated topic, along with whether it is being added, updated, removed or left
+     * unchanged.
+     */
+    private static List<String> describeStrings(final TranslatedTopicWrapper translatedTopic) {
+        final UpdateableCollectionWrapper<TranslatedTopicStringWrapper> translatedStrings =
+                (UpdateableCollectionWrapper<TranslatedTopicStringWrapper>) translatedTopic.getTranslatedTopicStrings();
+
+        final Map<TranslatedTopicStringWrapper, String> states = new IdentityHashMap<TranslatedTopicStringWrapper, String>();
+        for (final TranslatedTopicStringWrapper translatedString : translatedStrings.getUnchangedItems()) {
+            states.put(translatedString, "Unchanged");
+        }
+        for (final TranslatedTopicStringWrapper translatedString : translatedStrings.getAddItems()) {
+            states.put(translatedString, "Add");
+        }
+        for (final TranslatedTopicStringWrapper translatedString : translatedStrings.getUpdateItems()) {
+            states.put(translatedString, "Update");
+        }
+        for (final TranslatedTopicStringWrapper translatedString : translatedStrings.getRemoveItems()) {
+            states.put(translatedString, "Remove");
+        }
+
+        final List<String> descriptions = new ArrayList<String>();
+        for (final TranslatedTopicStringWrapper translatedString : translatedStrings.getItems()) {
+            descriptions.add(describeString(states.get(translatedString), translatedString.isFuzzy(),
+                    translatedString.getOriginalString(), translatedString.getTranslatedString()));
+        }
+        return descriptions;
+    }
+
+    private static String describeString(final String state, final boolean fuzzy, final String source, final String target) {
+        return state + (fuzzy ? " (fuzzy)" : "") + ": " + source + " => " + target;
+    }
+
+    private static String readResource(final String name) throws IOException {
+        final InputStream is = TopicSyncTranslationLookupTest.class.getResourceAsStream(CORPUS_DIR + name);
+        assertNotNull("Missing corpus file " + name, is);
+        try {
+            final Reader reader = new InputStreamReader(is, "UTF-8");
+            final StringBuilder retValue = new StringBuilder();
+            final char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                retValue.append(buffer, 0, read);
+            }
+            return retValue.toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Element parseResource(final String name) throws Exception {
+        final InputStream is = TopicSyncTranslationLookupTest.class.getResourceAsStream(CORPUS_DIR + name);
+        assertNotNull("Missing corpus file " + name, is);
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is).getDocumentElement();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static List<Element> getChildElements(final Element parent, final String name) {
+        final List<Element> retValue = new ArrayList<Element>();
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element && children.item(i).getNodeName().equals(name)) {
+                retValue.add((Element) children.item(i));
+            }
+        }
+        return retValue;
+    }
+
+    private static String getChildText(final Element parent, final String name) {
+        return getChildElements(parent, name).get(0).getTextContent();
+    }
+
+    private static ZanataTranslation translation(final String source) {
+        final TextFlowTarget target = new TextFlowTarget("tf-" + source.hashCode());
+        target.setContent("[de-DE] " + source);
+        target.setState(ContentState.Approved);
+        return new ZanataTranslation(target);
+    }
+
+    private static TranslatedTopicStringWrapper translatedString(final String source, final String target, final boolean fuzzy) {
+        final TranslatedTopicStringWrapper translatedString = Stubs.bean(TranslatedTopicStringWrapper.class);
+        translatedString.setOriginalString(source);
+        translatedString.setTranslatedString(target);
+        translatedString.setFuzzy(fuzzy);
+        return translatedString;
+    }
+
+    private static TranslatedTopicWrapper translatedTopic(final String xml, final String format, final String condition,
+            final List<TranslatedTopicStringWrapper> existingStrings) {
+        final TopicWrapper topic = Stubs.bean(TopicWrapper.class);
+        Stubs.with(topic, "id", TOPIC_ID);
+        Stubs.with(topic, "revision", TOPIC_REVISION);
+        Stubs.with(topic, "xml", xml);
+        Stubs.with(topic, "xmlFormat", format.equals("5.0") ? CommonConstants.DOCBOOK_50 : CommonConstants.DOCBOOK_45);
+
+        final TranslatedTopicWrapper translatedTopic = Stubs.bean(TranslatedTopicWrapper.class);
+        Stubs.with(translatedTopic, "topicId", TOPIC_ID);
+        Stubs.with(translatedTopic, "topicRevision", TOPIC_REVISION);
+        Stubs.with(translatedTopic, "topic", topic);
+        Stubs.with(translatedTopic, "translatedXMLCondition", condition);
+        if (!existingStrings.isEmpty()) {
+            Stubs.with(translatedTopic, "translatedTopicStrings", Stubs.collection(existingStrings));
+        }
+        return translatedTopic;
+    }
+
+    private static StubProviderFactory providerFactory() {
+        final String xmlFormatting = CommonConstants.VERBATIM_XML_ELEMENTS_PROPERTY_KEY + "=screen, programlisting, literallayout\n" +
+                CommonConstants.INLINE_XML_ELEMENTS_PROPERTY_KEY + "=command, emphasis, filename, literal, systemitem\n" +
+                CommonConstants.CONTENTS_INLINE_XML_ELEMENTS_PROPERTY_KEY + "=title, para\n";
+        final StringConstantWrapper stringConstant = Stubs.with(Stubs.bean(StringConstantWrapper.class), "value", xmlFormatting);
+
+        final StubProviderFactory providerFactory = new StubProviderFactory();
+        Stubs.with(providerFactory.getProvider(StringConstantProvider.class), "getStringConstant", stringConstant);
+        return providerFactory;
+    }
+
+    private static ServerSettingsWrapper serverSettings() {
+        final ServerSettingsWrapper serverSettings = Stubs.bean(ServerSettingsWrapper.class);
+        Stubs.with(serverSettings.getEntities(), "contentSpecTagId", 268);
+        Stubs.with(serverSettings.getEntities(), "xmlFormattingStringConstantId", 48);
+        return serverSettings;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.pressgang.ccms.utils.common.DocBookUtilities;
+import org.jboss.pressgang.ccms.utils.common.XMLUtilities;
+import org.jboss.pressgang.ccms.utils.structures.StringToNodeCollection;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Checks that extracting all the versions in a single walk finds exactly the same strings and nodes as the separate
+ * DocBookUtilities methods.
+ */
+public class TranslatableStringExtractorTest {
+    @Test
+    public void shouldMatchDocBookUtilitiesForASimpleSection() throws Exception {
+        assertSameAsDocBookUtilities("<section>\n" +
+                "<title>Installing the Server</title>\n" +
+                "<para>To install the server, run the following command as the <systemitem>root</systemitem> user:</para>\n" +
+                "<screen><command>yum install server</command>\n" +
+                "    --verbose</screen>\n" +
+                "<para>The <filename>/etc/server.conf</filename> file contains the <emphasis>default</emphasis> settings.</para>\n" +
+                "<para>Restart the server.</para>\n" +
+                "<itemizedlist>\n" +
+                "<listitem><para>Restart the server.</para></listitem>\n" +
+                "<listitem>\n  <para>Only change a setting if x &lt; 10.</para>\n  <para>  Spaced   out\ttext  </para>\n</listitem>\n" +
+                "</itemizedlist>\n" +
+                "<para />\n" +
+                "</section>");
+    }
+
+    @Test
+    public void shouldMatchDocBookUtilitiesForInlineAndStandaloneElements() throws Exception {
+        assertSameAsDocBookUtilities("<section>\n" +
+                "<title>Indexing <indexterm><primary>Index</primary></indexterm></title>\n" +
+                "<indexterm><primary>Standalone</primary><secondary>Term</secondary></indexterm>\n" +
+                "<para>The <productname>Server</productname> product<footnote><para>A footnote " +
+                "<emphasis>with</emphasis> markup.</para></footnote> is <phrase>great</phrase>.</para>\n" +
+                "<phrase>A standalone phrase</phrase>\n" +
+                "<para>Before the list:\n<itemizedlist><listitem><para>In the list</para></listitem></itemizedlist>\n" +
+                "After the list <xref linkend=\"an-id\"/> and a <ulink url=\"http://www.example.com\">link</ulink>.</para>\n" +
+                "<mediaobject><textobject><phrase>Alternate text</phrase></textobject></mediaobject>\n" +
+                "</section>");
+    }
+
+    @Test
+    public void shouldMatchDocBookUtilitiesForVerbatimAndTables() throws Exception {
+        assertSameAsDocBookUtilities("<chapter>\n" +
+                "<title>Configuration</title>\n" +
+                "<programlisting language=\"XML\">&lt;config&gt;\n  &lt;timeout&gt;10&lt;/timeout&gt;\n&lt;/config&gt;</programlisting>\n" +
+                "<para>Run: <screen>  ls -l\n  cd /tmp</screen> and then <literallayout>line one\n   line two</literallayout></para>\n" +
+                "<informaltable><tgroup cols=\"2\"><tbody><row>\n" +
+                "<entry>Name</entry><entry><para>First</para><para>Second</para></entry>\n" +
+                "</row></tbody></tgroup></informaltable>\n" +
+                "<table><tr><th>Header</th><td>Cell <emphasis>text</emphasis></td></tr></table>\n" +
+                "<glossary><glossentry><glossterm>Term</glossterm><glossdef><para>Definition</para></glossdef></glossentry>" +
+                "</glossary>\n" +
+                "<variablelist><varlistentry><term>  A <option>--term</option>  </term><listitem><para>Described</para></listitem>" +
+                "</varlistentry></variablelist>\n" +
+                "</chapter>");
+    }
+
+    @Test
+    public void shouldMatchDocBookUtilitiesForDeeplyNestedContent() throws Exception {
+        assertSameAsDocBookUtilities("<section>\n" +
+                "<note><title>Note</title><warning><important><para>Deep <emphasis><emphasis>nested</emphasis></emphasis> " +
+                "text</para></important></warning></note>\n" +
+                "<procedure><step><para>One</para><substeps><step><para>Two <command>cmd</command></para></step></substeps></step>" +
+                "</procedure>\n" +
+                "<para>Mixed <emphasis><para>block in inline</para></emphasis> content</para>\n" +
+                "<blockquote><attribution>Someone</attribution><simpara>Quoted   text</simpara></blockquote>\n" +
+                "<para>Odd <link linkend=\"an-id\"><emphasis><citetitle><emphasis><para>depth</para></emphasis></citetitle></emphasis>" +
+                "</link> check</para>\n" +
+                "</section>");
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void assertSameAsDocBookUtilities(final String xmlString) throws Exception {
+        final Document xml = XMLUtilities.convertStringToDocument(xmlString);
+
+        final List<List<StringToNodeCollection>> expected = new ArrayList<List<StringToNodeCollection>>();
+        expected.add(DocBookUtilities.getTranslatableStringsV3(xml, false));
+        expected.add(DocBookUtilities.getTranslatableStringsV2(xml, false));
+        expected.add(DocBookUtilities.getTranslatableStringsV1(xml, false));
+        final List<List<StringToNodeCollection>> actual = TranslatableStringExtractor.extract(xml);
+
+        assertEquals(expected.size(), actual.size());
+        for (int version = 0; version < expected.size(); version++) {
+            assertSameStrings(expected.get(version), actual.get(version));
+        }
+    }
+
+    private static void assertSameStrings(final List<StringToNodeCollection> expected, final List<StringToNodeCollection> actual) {
+        assertEquals(toStrings(expected), toStrings(actual));
+        for (int i = 0; i < expected.size(); i++) {
+            final List<ArrayList<Node>> expectedNodes = expected.get(i).getNodeCollections();
+            final List<ArrayList<Node>> actualNodes = actual.get(i).getNodeCollections();
+            assertEquals(expectedNodes.size(), actualNodes.size());
+            for (int j = 0; j < expectedNodes.size(); j++) {
+                assertEquals(expectedNodes.get(j).size(), actualNodes.get(j).size());
+                for (int k = 0; k < expectedNodes.get(j).size(); k++) {
+                    assertSame(expectedNodes.get(j).get(k), actualNodes.get(j).get(k));
+                }
+            }
+        }
+    }
+
+    private static List<String> toStrings(final List<StringToNodeCollection> stringToNodeCollections) {
+        final List<String> retValue = new ArrayList<String>();
+        for (final StringToNodeCollection stringToNodeCollection : stringToNodeCollections) {
+            retValue.add(stringToNodeCollection.getTranslationString());
+        }
+        return retValue;
+    }
+}
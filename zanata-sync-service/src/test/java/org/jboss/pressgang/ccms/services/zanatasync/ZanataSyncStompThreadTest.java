@@ -0,0 +1,171 @@
+/*
+  Copyright 2011-2014 Red Hat, Inc
+
+  This file is part of PressGang CCMS.
+
+  PressGang CCMS is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  PressGang CCMS is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with PressGang CCMS.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.jboss.pressgang.ccms.services.zanatasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.Before;
+import org.junit.Test;
+import org.zanata.common.LocaleId;
+
+public class ZanataSyncStompThreadTest {
+    private static final String QUEUE = "/queue/zanata-sync";
+
+    private RecordingCoalescer coalescer;
+    private ZanataSyncStompThread thread;
+
+    @Before
+    public void setUp() {
+        coalescer = new RecordingCoalescer();
+        thread = new ZanataSyncStompThread("localhost", 61613, null, null, QUEUE, coalescer);
+    }
+
+    @Test
+    public void shouldParseARequestWithALocale() {
+        assertTrue(thread.addRequest("1234:5678-91011/de-DE"));
+
+        assertEquals(1, coalescer.requests.size());
+        assertEquals("1234", coalescer.requests.get(0)[0]);
+        assertEquals("5678-91011", coalescer.requests.get(0)[1]);
+        assertEquals(LocaleId.fromJavaName("de-DE"), coalescer.requests.get(0)[2]);
+    }
+
+    @Test
+    public void shouldRequestAllLocalesWhenTheLocaleIsMissing() {
+        assertTrue(thread.addRequest("1234-5:5678-91011"));
+
+        assertEquals(1, coalescer.requests.size());
+        assertEquals("1234-5", coalescer.requests.get(0)[0]);
+        assertNull(coalescer.requests.get(0)[2]);
+    }
+
+    @Test
+    public void shouldLeaveTheContentSpecToBeFoundWhenItIsMissing() {
+        assertTrue(thread.addRequest("5678-91011-1213/de-DE"));
+        assertTrue(thread.addRequest("CS1234-5"));
+
+        assertEquals(2, coalescer.requests.size());
+        assertNull(coalescer.requests.get(0)[0]);
+        assertEquals("5678-91011-1213", coalescer.requests.get(0)[1]);
+        assertEquals(LocaleId.fromJavaName("de-DE"), coalescer.requests.get(0)[2]);
+        assertNull(coalescer.requests.get(1)[0]);
+        assertEquals("CS1234-5", coalescer.requests.get(1)[1]);
+        assertNull(coalescer.requests.get(1)[2]);
+    }
+
+    @Test
+    public void shouldRejectInvalidRequests() {
+        assertFalse(thread.addRequest("abc"));
+        assertFalse(thread.addRequest(":5678-91011"));
+        assertFalse(thread.addRequest("abc:5678-91011"));
+        assertFalse(thread.addRequest("1234:5678-91011/"));
+        assertTrue(coalescer.requests.isEmpty());
+    }
+
+    @Test
+    public void shouldAddEachLineOfAMessage() {
+        thread.message(Collections.<String, String>emptyMap(), "1234:5678-91011/de-DE\r\n\n  1234:5679-91012  \ninvalid\n");
+
+        assertEquals(2, coalescer.requests.size());
+        assertEquals("5678-91011", coalescer.requests.get(0)[1]);
+        assertEquals("5679-91012", coalescer.requests.get(1)[1]);
+    }
+
+    @Test
+    public void shouldListenOnTheQueueUntilShutdown() throws Exception {
+        final BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector("stomp://localhost:0");
+        broker.start();
+        try {
+            final int port = broker.getTransportConnectors().get(0).getConnectUri().getPort();
+            final CountDownLatch received = new CountDownLatch(2);
+            coalescer = new RecordingCoalescer(received);
+            thread = new ZanataSyncStompThread("localhost", port, null, null, QUEUE, coalescer);
+            thread.start();
+
+            final StompConnection producer = new StompConnection("localhost", port, null, null);
+            try {
+                producer.send(QUEUE, "1234:5678-91011/de-DE\n5679-91012");
+            } finally {
+                producer.close();
+            }
+
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            assertEquals("5678-91011", coalescer.requests.get(0)[1]);
+            assertEquals(LocaleId.fromJavaName("de-DE"), coalescer.requests.get(0)[2]);
+            assertNull(coalescer.requests.get(1)[0]);
+            assertEquals("5679-91012", coalescer.requests.get(1)[1]);
+            assertNull(coalescer.requests.get(1)[2]);
+
+            // Shutting down should stop the thread waiting on the next message
+            assertFalse(thread.isShutdown());
+            thread.shutdown();
+            thread.join(10000L);
+            assertFalse(thread.isAlive());
+            assertTrue(thread.isShutdown());
+        } finally {
+            thread.shutdown();
+            broker.stop();
+        }
+    }
+
+    /**
+     * Records the requests instead of syncing them.
+     */
+    private static class RecordingCoalescer extends SyncRequestCoalescer {
+        private final List<Object[]> requests = Collections.synchronizedList(new ArrayList<Object[]>());
+        private final CountDownLatch received;
+
+        private RecordingCoalescer() {
+            this(null);
+        }
+
+        private RecordingCoalescer(final CountDownLatch received) {
+            super(0);
+            this.received = received;
+        }
+
+        @Override
+        public synchronized void add(final String contentSpecId, final String zanataId, final LocaleId locale) {
+            requests.add(new Object[]{contentSpecId, zanataId, locale});
+            if (received != null) {
+                received.countDown();
+            }
+        }
+
+        @Override
+        protected boolean sync(final String contentSpecId, final Set<String> zanataIds, final List<LocaleId> locales) {
+            return true;
+        }
+    }
+}